@@ -0,0 +1,245 @@
+/***
+ Copyright (c) 2017 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.android.mms.exif;
+
+import com.commonsware.cwac.cam2.bench.Corpus;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for the EXIF code that runs on every picture. Each
+ * operation covers every JPEG in the Corpus. This lives in the
+ * com.android.mms.exif package, as ExifParser, ExifOutputStream,
+ * and ExifModifier are not public.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ExifBenchmark {
+  private List<byte[]> jpegs;
+  private ExifData[] exifData;
+  private ByteBuffer[] rewritable;
+  private ByteBuffer[] direct;
+  private ExifInterface iface;
+  private final ByteArrayOutputStream sink=new ByteArrayOutputStream();
+  private int orientation=1;
+
+  @Setup
+  public void setUp() throws Exception {
+    jpegs=Corpus.load();
+    iface=new ExifInterface();
+    exifData=new ExifData[jpegs.size()];
+    rewritable=new ByteBuffer[jpegs.size()];
+    direct=new ByteBuffer[jpegs.size()];
+
+    for (int i=0; i<jpegs.size(); i++) {
+      exifData[i]=new ExifReader(iface)
+        .read(new ByteArrayInputStream(jpegs.get(i)));
+      rewritable[i]=ByteBuffer.wrap(jpegs.get(i).clone());
+      direct[i]=ByteBuffer.allocateDirect(jpegs.get(i).length);
+      direct[i].put(jpegs.get(i));
+      direct[i].flip();
+    }
+  }
+
+  /**
+   * ExifInterface.readExif(byte[]), as used when normalizing
+   * orientation and reading thumbnails
+   */
+  @Benchmark
+  public void readExif(Blackhole bh) throws Exception {
+    for (byte[] jpeg : jpegs) {
+      ExifInterface exif=new ExifInterface();
+
+      exif.readExif(jpeg);
+      bh.consume(exif);
+    }
+  }
+
+  /**
+   * ExifInterface.readExif(byte[]) with lazy decoding, as
+   * ImageContext uses, reading just the orientation afterwards
+   */
+  @Benchmark
+  public void readExifLazily(Blackhole bh) throws Exception {
+    for (byte[] jpeg : jpegs) {
+      ExifInterface exif=new ExifInterface();
+
+      exif.setDecodeLazily(true);
+      exif.readExif(jpeg);
+      bh.consume(exif.getTag(ExifInterface.TAG_ORIENTATION));
+    }
+  }
+
+  /**
+   * ExifInterface.readExif(InputStream), the stream-based parse
+   * that readExif(byte[]) used before it parsed in place
+   */
+  @Benchmark
+  public void readExifStream(Blackhole bh) throws Exception {
+    for (byte[] jpeg : jpegs) {
+      ExifInterface exif=new ExifInterface();
+
+      exif.readExif(new ByteArrayInputStream(jpeg));
+      bh.consume(exif);
+    }
+  }
+
+  /**
+   * ExifInterface.readExif(ByteBuffer) over direct buffers, which
+   * stands in for a memory-mapped file
+   */
+  @Benchmark
+  public void readExifDirect(Blackhole bh) throws Exception {
+    for (ByteBuffer jpeg : direct) {
+      ExifInterface exif=new ExifInterface();
+
+      exif.readExif(jpeg);
+      bh.consume(exif);
+    }
+  }
+
+  /**
+   * Creating an ExifInterface and building a tag with it, which is
+   * the first use of the tag definitions, as ImageContext does for
+   * each capture
+   */
+  @Benchmark
+  public void newExifInterface(Blackhole bh) {
+    ExifInterface exif=new ExifInterface();
+
+    bh.consume(exif.buildTag(ExifInterface.TAG_ORIENTATION, 1));
+  }
+
+  /**
+   * ExifInterface.probeOrientation(byte[]), which ImageContext
+   * and JPEGWriter use instead of readExif() when only the
+   * orientation is needed
+   */
+  @Benchmark
+  public void probeOrientation(Blackhole bh) {
+    for (byte[] jpeg : jpegs) {
+      bh.consume(ExifInterface.probeOrientation(jpeg));
+    }
+  }
+
+  /**
+   * Just the ExifParser event loop, pulling every tag value, but
+   * not building ExifData
+   */
+  @Benchmark
+  public void parseEvents(Blackhole bh) throws Exception {
+    for (byte[] jpeg : jpegs) {
+      ExifParser parser=
+        ExifParser.parse(new ByteArrayInputStream(jpeg), iface);
+      int event=parser.next();
+
+      while (event!=ExifParser.EVENT_END) {
+        if (event==ExifParser.EVENT_NEW_TAG) {
+          ExifTag tag=parser.getTag();
+
+          if (!tag.hasValue()) {
+            parser.registerForTagValue(tag);
+          }
+
+          bh.consume(tag);
+        }
+        else if (event==ExifParser.EVENT_VALUE_OF_REGISTERED_TAG) {
+          ExifTag tag=parser.getTag();
+
+          if (tag.getDataType()==ExifTag.TYPE_UNDEFINED) {
+            parser.readFullTagValue(tag);
+          }
+
+          bh.consume(tag);
+        }
+
+        event=parser.next();
+      }
+    }
+  }
+
+  /**
+   * Writing already-parsed EXIF back out with the JPEG, through
+   * ExifOutputStream
+   */
+  @Benchmark
+  public void writeExif(Blackhole bh) throws Exception {
+    for (int i=0; i<exifData.length; i++) {
+      sink.reset();
+
+      ExifOutputStream out=new ExifOutputStream(sink, iface);
+
+      out.setExifData(exifData[i]);
+      out.write(jpegs.get(i));
+      out.close();
+      bh.consume(sink.size());
+    }
+  }
+
+  /**
+   * A full read-modify-write cycle through ExifInterface, as
+   * ImageContext does when it normalizes orientation: parse the
+   * EXIF, look up and change a few tags, and write the EXIF back
+   * out with the JPEG
+   */
+  @Benchmark
+  public void readModifyWrite(Blackhole bh) throws Exception {
+    for (byte[] jpeg : jpegs) {
+      ExifInterface exif=new ExifInterface();
+
+      exif.readExif(jpeg);
+      bh.consume(exif.getTagIntValue(ExifInterface.TAG_ORIENTATION));
+      bh.consume(exif.getTagStringValue(ExifInterface.TAG_MODEL));
+      exif.setTagValue(ExifInterface.TAG_ORIENTATION, 1);
+      exif.setTagValue(ExifInterface.TAG_SOFTWARE, "cam2-bench");
+      sink.reset();
+      exif.writeExif(jpeg, sink);
+      bh.consume(sink.size());
+    }
+  }
+
+  /**
+   * An in-place ExifModifier rewrite of the orientation tag, as
+   * done when only the orientation needs to change. The value
+   * alternates, so each rewrite really changes the buffer.
+   */
+  @Benchmark
+  public void rewriteOrientation(Blackhole bh) throws Exception {
+    orientation=(orientation==1 ? 6 : 1);
+
+    ExifTag tag=iface.buildTag(ExifInterface.TAG_ORIENTATION, orientation);
+
+    for (ByteBuffer buffer : rewritable) {
+      buffer.rewind();
+
+      ExifModifier modifier=new ExifModifier(buffer, iface);
+
+      modifier.modifyTag(tag);
+      bh.consume(modifier.commit());
+    }
+  }
+}
@@ -0,0 +1,111 @@
+/***
+ Copyright (c) 2017 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.commonsware.cwac.cam2;
+
+import com.commonsware.cwac.cam2.util.Size;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks the descriptor sorting done when loading camera
+ * descriptors, using the engines' DescriptorComparator on
+ * synthetic descriptors scored the way the engines score theirs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DescriptorSortBenchmark {
+  @Param({"2", "4", "16"})
+  public int cameraCount;
+
+  private final List<CameraDescriptor> descriptors=
+    new ArrayList<CameraDescriptor>();
+  private final List<CameraDescriptor> result=
+    new ArrayList<CameraDescriptor>();
+  private final CameraSelectionCriteria criteria=
+    new CameraSelectionCriteria.Builder().facing(Facing.FRONT).build();
+  private final DescriptorComparator comparator=
+    new DescriptorComparator() {
+      @Override
+      int getScore(CameraDescriptor descriptor) {
+        return(((BenchDescriptor)descriptor).getScore(criteria));
+      }
+    };
+
+  @Setup
+  public void setUp() {
+    Random random=new Random(42);
+
+    for (int i=0; i<cameraCount; i++) {
+      descriptors.add(new BenchDescriptor(
+        random.nextBoolean() ? Facing.FRONT : Facing.BACK));
+    }
+  }
+
+  @Benchmark
+  public List<CameraDescriptor> sortByScore() {
+    result.clear();
+    result.addAll(descriptors);
+    Collections.sort(result, comparator);
+
+    return(result);
+  }
+
+  private static class BenchDescriptor implements CameraDescriptor {
+    private final Facing facing;
+    private final List<Size> sizes=new ArrayList<Size>();
+
+    BenchDescriptor(Facing facing) {
+      this.facing=facing;
+      sizes.add(new Size(1920, 1080));
+      sizes.add(new Size(1280, 720));
+    }
+
+    @Override
+    public List<Size> getPreviewSizes() {
+      return(sizes);
+    }
+
+    @Override
+    public List<Size> getPictureSizes() {
+      return(sizes);
+    }
+
+    @Override
+    public boolean isPictureFormatSupported(int format) {
+      return(true);
+    }
+
+    int getScore(CameraSelectionCriteria criteria) {
+      if (criteria!=null && criteria.getFacing()!=null &&
+        criteria.getFacing()!=facing) {
+        return(0);
+      }
+
+      return(10);
+    }
+  }
+}
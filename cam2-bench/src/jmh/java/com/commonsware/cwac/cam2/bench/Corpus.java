@@ -0,0 +1,172 @@
+/***
+ Copyright (c) 2017 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.commonsware.cwac.cam2.bench;
+
+import com.android.mms.exif.ExifInterface;
+import com.android.mms.exif.ExifTag;
+import com.android.mms.exif.Rational;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.imageio.ImageIO;
+
+/**
+ * JPEGs to benchmark against. If the CAM2_BENCH_CORPUS
+ * environment variable names a directory, its .jpg files are
+ * used. Otherwise, we synthesize JPEGs whose EXIF headers look
+ * like those of phone cameras: the usual IFD0 and Exif tags,
+ * with and without GPS, a thumbnail, and a large maker note.
+ */
+public class Corpus {
+  public static final String ENV_CORPUS="CAM2_BENCH_CORPUS";
+  private static final int MAKER_NOTE_SIZE=48*1024;
+
+  public static List<byte[]> load() throws IOException {
+    String dir=System.getenv(ENV_CORPUS);
+
+    if (dir!=null) {
+      return(read(new File(dir)));
+    }
+
+    return(synthesize());
+  }
+
+  private static List<byte[]> read(File dir) throws IOException {
+    File[] files=dir.listFiles();
+    List<byte[]> result=new ArrayList<byte[]>();
+
+    if (files==null) {
+      throw new IOException("Not a directory: "+dir);
+    }
+
+    Arrays.sort(files);
+
+    for (File file : files) {
+      if (file.getName().toLowerCase().endsWith(".jpg")) {
+        byte[] jpeg=new byte[(int)file.length()];
+        DataInputStream in=new DataInputStream(new FileInputStream(file));
+
+        try {
+          in.readFully(jpeg);
+        }
+        finally {
+          in.close();
+        }
+
+        result.add(jpeg);
+      }
+    }
+
+    if (result.isEmpty()) {
+      throw new IOException("No .jpg files in "+dir);
+    }
+
+    return(result);
+  }
+
+  private static List<byte[]> synthesize() throws IOException {
+    List<byte[]> result=new ArrayList<byte[]>();
+    byte[] image=encode(640, 480);
+    byte[] thumbnail=encode(160, 120);
+
+    result.add(withExif(image, false, null, 0));
+    result.add(withExif(image, true, null, 0));
+    result.add(withExif(image, true, thumbnail, MAKER_NOTE_SIZE));
+
+    return(result);
+  }
+
+  private static byte[] encode(int width, int height) throws IOException {
+    BufferedImage img=
+      new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    ByteArrayOutputStream out=new ByteArrayOutputStream();
+
+    for (int y=0; y<height; y++) {
+      for (int x=0; x<width; x++) {
+        img.setRGB(x, y, (x*255/width)<<16 | (y*255/height)<<8);
+      }
+    }
+
+    ImageIO.write(img, "jpg", out);
+
+    return(out.toByteArray());
+  }
+
+  private static byte[] withExif(byte[] jpeg, boolean gps,
+                                 byte[] thumbnail, int makerNoteSize)
+    throws IOException {
+    ExifInterface exif=new ExifInterface();
+
+    set(exif, ExifInterface.TAG_MAKE, "CWAC");
+    set(exif, ExifInterface.TAG_MODEL, "Benchmark Camera");
+    set(exif, ExifInterface.TAG_SOFTWARE, "cam2-bench");
+    set(exif, ExifInterface.TAG_ORIENTATION, 6);
+    set(exif, ExifInterface.TAG_DATE_TIME, "2017:03:14 15:09:26");
+    set(exif, ExifInterface.TAG_DATE_TIME_ORIGINAL, "2017:03:14 15:09:26");
+    set(exif, ExifInterface.TAG_EXPOSURE_TIME, new Rational(1, 120));
+    set(exif, ExifInterface.TAG_F_NUMBER, new Rational(22, 10));
+    set(exif, ExifInterface.TAG_ISO_SPEED_RATINGS, 100);
+    set(exif, ExifInterface.TAG_FOCAL_LENGTH, new Rational(430, 100));
+    set(exif, ExifInterface.TAG_FLASH, 0);
+    set(exif, ExifInterface.TAG_WHITE_BALANCE, 0);
+    set(exif, ExifInterface.TAG_PIXEL_X_DIMENSION, 640);
+    set(exif, ExifInterface.TAG_PIXEL_Y_DIMENSION, 480);
+
+    if (gps) {
+      set(exif, ExifInterface.TAG_GPS_LATITUDE_REF, "N");
+      set(exif, ExifInterface.TAG_GPS_LATITUDE, new Rational[] {
+        new Rational(40, 1), new Rational(26, 1), new Rational(4620, 100)});
+      set(exif, ExifInterface.TAG_GPS_LONGITUDE_REF, "W");
+      set(exif, ExifInterface.TAG_GPS_LONGITUDE, new Rational[] {
+        new Rational(79, 1), new Rational(58, 1), new Rational(5600, 100)});
+    }
+
+    if (makerNoteSize>0) {
+      byte[] makerNote=new byte[makerNoteSize];
+
+      for (int i=0; i<makerNote.length; i++) {
+        makerNote[i]=(byte)i;
+      }
+
+      set(exif, ExifInterface.TAG_MAKER_NOTE, makerNote);
+    }
+
+    if (thumbnail!=null) {
+      exif.setCompressedThumbnail(thumbnail);
+    }
+
+    ByteArrayOutputStream out=new ByteArrayOutputStream();
+
+    exif.writeExif(jpeg, out);
+
+    return(out.toByteArray());
+  }
+
+  private static void set(ExifInterface exif, int tagId, Object value) {
+    ExifTag tag=exif.buildTag(tagId, value);
+
+    if (tag==null) {
+      throw new IllegalArgumentException("Invalid value for tag "+tagId);
+    }
+
+    exif.setTag(tag);
+  }
+}
@@ -0,0 +1,73 @@
+/***
+ Copyright (c) 2017 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.commonsware.cwac.cam2.bench;
+
+import com.commonsware.cwac.cam2.util.Size;
+import com.commonsware.cwac.cam2.util.SizeChooser;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks preview size selection, against a list of preview
+ * sizes typical of a current phone's rear camera.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SizeChooserBenchmark {
+  private static final int[][] PREVIEW_SIZES={
+    {1920, 1080}, {1440, 1080}, {1280, 960}, {1280, 720}, {1088, 1088},
+    {1056, 864}, {960, 720}, {960, 540}, {800, 600}, {800, 480},
+    {720, 720}, {720, 480}, {704, 576}, {640, 480}, {640, 360},
+    {480, 360}, {480, 320}, {352, 288}, {320, 240}, {256, 144},
+    {176, 144}, {160, 120}
+  };
+  private final List<Size> choices=new ArrayList<Size>();
+  private final Size fourByThree=new Size(4032, 3024);
+  private final Size sixteenByNine=new Size(3840, 2160);
+
+  @Setup
+  public void setUp() {
+    for (int[] size : PREVIEW_SIZES) {
+      choices.add(new Size(size[0], size[1]));
+    }
+  }
+
+  @Benchmark
+  public Size chooseFourByThree() {
+    return(SizeChooser.chooseOptimalSize(choices, 1080, 810, fourByThree));
+  }
+
+  @Benchmark
+  public Size chooseSixteenByNine() {
+    return(SizeChooser.chooseOptimalSize(choices, 1080, 608, sixteenByNine));
+  }
+
+  /**
+   * Nothing is big enough, so this falls back to the largest size
+   */
+  @Benchmark
+  public Size chooseFallback() {
+    return(SizeChooser.chooseOptimalSize(choices, 4000, 3000, fourByThree));
+  }
+}
@@ -0,0 +1,121 @@
+/***
+ Copyright (c) 2017 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.commonsware.cwac.cam2.bench;
+
+import com.commonsware.cwac.cam2.util.yuv.ParallelRows;
+import com.commonsware.cwac.cam2.util.yuv.YuvConverter;
+import com.commonsware.cwac.cam2.util.yuv.YuvFormat;
+import com.commonsware.cwac.cam2.util.yuv.YuvTransformer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmarks the YUV kernels on preview-sized frames, both on
+ * the calling thread and spread across all cores.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class YuvBenchmark {
+  @Param({"1280x720", "1920x1080", "3840x2160"})
+  public String size;
+
+  @Param({"NV21", "I420"})
+  public YuvFormat format;
+
+  @Param({"false", "true"})
+  public boolean parallel;
+
+  private int width;
+  private int height;
+  private byte[] src;
+  private byte[] dst;
+  private int[] argb;
+  private ParallelRows rows;
+  private YuvConverter converter;
+  private YuvTransformer transformer;
+
+  @Setup
+  public void setUp() {
+    int x=size.indexOf('x');
+
+    width=Integer.parseInt(size.substring(0, x));
+    height=Integer.parseInt(size.substring(x+1));
+    src=new byte[format.getBufferSize(width, height)];
+    new Random(42).nextBytes(src);
+    dst=new byte[src.length];
+    argb=new int[width*height];
+    rows=(parallel ? ParallelRows.forAvailableProcessors() : null);
+    converter=new YuvConverter(rows);
+    transformer=new YuvTransformer(rows);
+  }
+
+  @TearDown
+  public void tearDown() {
+    if (rows!=null) {
+      rows.shutdown();
+    }
+  }
+
+  @Benchmark
+  public int[] toArgb() {
+    converter.toArgb(format, src, width, height, argb);
+
+    return(argb);
+  }
+
+  @Benchmark
+  public byte[] rotate90() {
+    transformer.rotate(format, src, width, height, 90, dst);
+
+    return(dst);
+  }
+
+  @Benchmark
+  public byte[] rotate180() {
+    transformer.rotate(format, src, width, height, 180, dst);
+
+    return(dst);
+  }
+
+  /**
+   * Crops the centered square, as for a square viewfinder
+   */
+  @Benchmark
+  public byte[] cropSquare() {
+    int left=((width-height)/2)&~1;
+
+    transformer.crop(format, src, width, height, left, 0, height,
+      height, dst);
+
+    return(dst);
+  }
+
+  @Benchmark
+  public byte[] downscaleByTwo() {
+    transformer.downscale(format, src, width, height, 2, dst);
+
+    return(dst);
+  }
+}
@@ -0,0 +1,81 @@
+/***
+ Copyright (c) 2017 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package android.util;
+
+/**
+ * Plain-Java stand-in for the framework's Log, whose android-all
+ * implementation writes through native methods that do not exist
+ * outside of Android. Messages are discarded, so that logging
+ * does not skew benchmark timings.
+ */
+public final class Log {
+  public static final int VERBOSE=2;
+  public static final int DEBUG=3;
+  public static final int INFO=4;
+  public static final int WARN=5;
+  public static final int ERROR=6;
+  public static final int ASSERT=7;
+
+  private Log() {
+  }
+
+  public static boolean isLoggable(String tag, int level) {
+    return(false);
+  }
+
+  public static int v(String tag, String msg) {
+    return(0);
+  }
+
+  public static int v(String tag, String msg, Throwable tr) {
+    return(0);
+  }
+
+  public static int d(String tag, String msg) {
+    return(0);
+  }
+
+  public static int d(String tag, String msg, Throwable tr) {
+    return(0);
+  }
+
+  public static int i(String tag, String msg) {
+    return(0);
+  }
+
+  public static int i(String tag, String msg, Throwable tr) {
+    return(0);
+  }
+
+  public static int w(String tag, String msg) {
+    return(0);
+  }
+
+  public static int w(String tag, String msg, Throwable tr) {
+    return(0);
+  }
+
+  public static int w(String tag, Throwable tr) {
+    return(0);
+  }
+
+  public static int e(String tag, String msg) {
+    return(0);
+  }
+
+  public static int e(String tag, String msg, Throwable tr) {
+    return(0);
+  }
+}
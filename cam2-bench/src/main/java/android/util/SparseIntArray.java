@@ -0,0 +1,126 @@
+/***
+ Copyright (c) 2017 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package android.util;
+
+import java.util.Arrays;
+
+/**
+ * Plain-Java stand-in for the framework's SparseIntArray, whose
+ * android-all implementation allocates through native
+ * VMRuntime methods that do not exist outside of Android.
+ * Covers the parts of the API that cam2's EXIF code uses, with
+ * the same sorted-array layout, so benchmark timings remain
+ * representative.
+ */
+public class SparseIntArray implements Cloneable {
+  private int[] keys;
+  private int[] values;
+  private int size=0;
+
+  public SparseIntArray() {
+    this(10);
+  }
+
+  public SparseIntArray(int initialCapacity) {
+    keys=new int[Math.max(1, initialCapacity)];
+    values=new int[keys.length];
+  }
+
+  @Override
+  public SparseIntArray clone() {
+    try {
+      SparseIntArray result=(SparseIntArray)super.clone();
+
+      result.keys=keys.clone();
+      result.values=values.clone();
+
+      return(result);
+    }
+    catch (CloneNotSupportedException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  public int get(int key) {
+    return(get(key, 0));
+  }
+
+  public int get(int key, int valueIfKeyNotFound) {
+    int i=Arrays.binarySearch(keys, 0, size, key);
+
+    return(i<0 ? valueIfKeyNotFound : values[i]);
+  }
+
+  public void delete(int key) {
+    int i=Arrays.binarySearch(keys, 0, size, key);
+
+    if (i>=0) {
+      removeAt(i);
+    }
+  }
+
+  public void removeAt(int index) {
+    System.arraycopy(keys, index+1, keys, index, size-index-1);
+    System.arraycopy(values, index+1, values, index, size-index-1);
+    size--;
+  }
+
+  public void put(int key, int value) {
+    int i=Arrays.binarySearch(keys, 0, size, key);
+
+    if (i>=0) {
+      values[i]=value;
+
+      return;
+    }
+
+    i=~i;
+
+    if (size==keys.length) {
+      keys=Arrays.copyOf(keys, size*2);
+      values=Arrays.copyOf(values, size*2);
+    }
+
+    System.arraycopy(keys, i, keys, i+1, size-i);
+    System.arraycopy(values, i, values, i+1, size-i);
+    keys[i]=key;
+    values[i]=value;
+    size++;
+  }
+
+  public int size() {
+    return(size);
+  }
+
+  public int keyAt(int index) {
+    return(keys[index]);
+  }
+
+  public int valueAt(int index) {
+    return(values[index]);
+  }
+
+  public int indexOfKey(int key) {
+    return(Arrays.binarySearch(keys, 0, size, key));
+  }
+
+  public void clear() {
+    size=0;
+  }
+
+  public void append(int key, int value) {
+    put(key, value);
+  }
+}
@@ -0,0 +1,192 @@
+/***
+ Copyright (c) 2017 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.android.mms.exif;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+/**
+ * A {@link CountedDataInputStream} that reads straight out of a ByteBuffer,
+ * which may be a heap buffer, a direct buffer, or a mapped file. Counts are
+ * relative to the position the stream was created at, and skipping just
+ * moves the buffer position, so seeking to an IFD or tag value costs the
+ * same regardless of how far away it is.
+ */
+class ByteBufferDataInputStream extends CountedDataInputStream {
+
+    private final ByteBuffer mBuf;
+    private final int mBase;
+
+    /**
+     * @param buf the buffer to read from; this stream works on a duplicate,
+     *            so the position of buf is not changed
+     */
+    protected ByteBufferDataInputStream(ByteBuffer buf) {
+        super(null);
+        mBuf = buf.duplicate();
+        mBuf.order(ByteOrder.BIG_ENDIAN);
+        mBase = mBuf.position();
+    }
+
+    /**
+     * @return a new stream over the same bytes, whose count starts at zero
+     *         at the current position of this one
+     */
+    protected ByteBufferDataInputStream fromHere() {
+        return new ByteBufferDataInputStream(mBuf);
+    }
+
+    /**
+     * Points the tag at its value, at the given count, so it is decoded
+     * from this stream's buffer on first access.
+     *
+     * @return false, leaving the tag alone, if the value runs past the end
+     *         of the buffer
+     */
+    protected boolean deferValue(ExifTag tag, int count) {
+        if (count < 0 || (long) mBase + count + tag.getDataSize() > mBuf.limit()) {
+            return false;
+        }
+        tag.setLazyValue(mBuf, mBase + count);
+        return true;
+    }
+
+    /**
+     * @return the next length bytes as a buffer of their own, without
+     *         copying them or moving past them, or null if there are not
+     *         that many left
+     */
+    protected ByteBuffer slice(int length) {
+        if (length < 0 || length > mBuf.remaining()) {
+            return null;
+        }
+        ByteBuffer slice = mBuf.duplicate();
+        slice.limit(slice.position() + length);
+        return slice.slice();
+    }
+
+    @Override
+    public int getReadByteCount() {
+        return mBuf.position() - mBase;
+    }
+
+    @Override
+    public int available() {
+        return mBuf.remaining();
+    }
+
+    @Override
+    public int read() {
+        if (!mBuf.hasRemaining()) {
+            return -1;
+        }
+        return mBuf.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b) {
+        return read(b, 0, b.length);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        if (!mBuf.hasRemaining()) {
+            return -1;
+        }
+        len = Math.min(len, mBuf.remaining());
+        mBuf.get(b, off, len);
+        return len;
+    }
+
+    @Override
+    public long skip(long length) {
+        if (length <= 0) {
+            return 0;
+        }
+        int skip = (int) Math.min(length, mBuf.remaining());
+        mBuf.position(mBuf.position() + skip);
+        return skip;
+    }
+
+    /**
+     * Moves to the given count. Unlike the stream version, this can also
+     * move backwards.
+     */
+    @Override
+    public void skipTo(long target) throws IOException {
+        if (target < 0 || target > mBuf.limit() - mBase) {
+            throw new EOFException();
+        }
+        mBuf.position(mBase + (int) target);
+    }
+
+    @Override
+    public void close() {
+        // nothing to release; the owner of the buffer handles that
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void setByteOrder(ByteOrder order) {
+        mBuf.order(order);
+    }
+
+    @Override
+    public ByteOrder getByteOrder() {
+        return mBuf.order();
+    }
+
+    @Override
+    public short readShort() throws IOException {
+        require(2);
+        return mBuf.getShort();
+    }
+
+    @Override
+    public int readInt() throws IOException {
+        require(4);
+        return mBuf.getInt();
+    }
+
+    @Override
+    public long readLong() throws IOException {
+        require(8);
+        return mBuf.getLong();
+    }
+
+    @Override
+    public String readString(int n, Charset charset) throws IOException {
+        require(n);
+        byte buf[] = new byte[n];
+        mBuf.get(buf);
+        return new String(buf, charset);
+    }
+
+    private void require(int n) throws EOFException {
+        if (mBuf.remaining() < n) {
+            throw new EOFException();
+        }
+    }
+}
@@ -21,6 +21,7 @@ import com.android.mms.LogTag;
 import android.util.Log;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -47,6 +48,8 @@ class ExifData {
 
     private final IfdData[] mIfdDatas = new IfdData[IfdId.TYPE_IFD_COUNT];
     private byte[] mThumbnail;
+    // The compressed thumbnail, if it has not been copied out yet
+    private ByteBuffer mThumbnailSource;
     private final ArrayList<byte[]> mStripBytes = new ArrayList<byte[]>();
     private final ByteOrder mByteOrder;
 
@@ -61,6 +64,12 @@ class ExifData {
      * @see #hasCompressedThumbnail()
      */
     protected byte[] getCompressedThumbnail() {
+        if (mThumbnailSource != null) {
+            byte[] thumbnail = new byte[mThumbnailSource.remaining()];
+            mThumbnailSource.duplicate().get(thumbnail);
+            mThumbnail = thumbnail;
+            mThumbnailSource = null;
+        }
         return mThumbnail;
     }
 
@@ -69,13 +78,24 @@ class ExifData {
      */
     protected void setCompressedThumbnail(byte[] thumbnail) {
         mThumbnail = thumbnail;
+        mThumbnailSource = null;
+    }
+
+    /**
+     * Sets the compressed thumbnail from the remaining bytes of a buffer,
+     * which are only copied out when the thumbnail is first asked for. The
+     * buffer must not be modified until then.
+     */
+    protected void setLazyCompressedThumbnail(ByteBuffer thumbnail) {
+        mThumbnail = null;
+        mThumbnailSource = thumbnail;
     }
 
     /**
      * Returns true it this header contains a compressed thumbnail.
      */
     protected boolean hasCompressedThumbnail() {
-        return mThumbnail != null;
+        return mThumbnail != null || mThumbnailSource != null;
     }
 
     /**
@@ -189,6 +209,7 @@ class ExifData {
 
     protected void clearThumbnailAndStrips() {
         mThumbnail = null;
+        mThumbnailSource = null;
         mStripBytes.clear();
     }
 
@@ -258,11 +279,8 @@ class ExifData {
         ArrayList<ExifTag> ret = new ArrayList<ExifTag>();
         for (IfdData d : mIfdDatas) {
             if (d != null) {
-                ExifTag[] tags = d.getAllTags();
-                if (tags != null) {
-                    for (ExifTag t : tags) {
-                        ret.add(t);
-                    }
+                for (int i = 0, n = d.getTagCount(); i < n; i++) {
+                    ret.add(d.getTagAt(i));
                 }
             }
         }
@@ -281,13 +299,10 @@ class ExifData {
         if (d == null) {
             return null;
         }
-        ExifTag[] tags = d.getAllTags();
-        if (tags == null) {
-            return null;
-        }
-        ArrayList<ExifTag> ret = new ArrayList<ExifTag>(tags.length);
-        for (ExifTag t : tags) {
-            ret.add(t);
+        int n = d.getTagCount();
+        ArrayList<ExifTag> ret = new ArrayList<ExifTag>(n);
+        for (int i = 0; i < n; i++) {
+            ret.add(d.getTagAt(i));
         }
         if (ret.size() == 0) {
             return null;
@@ -327,7 +342,7 @@ class ExifData {
             ExifData data = (ExifData) obj;
             if (data.mByteOrder != mByteOrder ||
                     data.mStripBytes.size() != mStripBytes.size() ||
-                    !Arrays.equals(data.mThumbnail, mThumbnail)) {
+                    !Arrays.equals(data.getCompressedThumbnail(), getCompressedThumbnail())) {
                 return false;
             }
             for (int i = 0; i < mStripBytes.size(); i++) {
@@ -0,0 +1,189 @@
+/***
+ Copyright (c) 2017 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.android.mms.exif;
+
+import java.util.TimeZone;
+
+/**
+ * Formats EXIF date, time, and rational values. Unlike SimpleDateFormat and
+ * Calendar, these methods hold no state, so they are safe to call from any
+ * thread, and the append...() forms write straight into the caller's
+ * StringBuilder without creating formatters or calendars.
+ */
+public final class ExifFormat {
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    private ExifFormat() {
+    }
+
+    /**
+     * Appends the timestamp in the EXIF date/time format, "yyyy:MM:dd
+     * HH:mm:ss", as used by {@link ExifInterface#TAG_DATE_TIME} and friends.
+     *
+     * @param sb where to append the date and time
+     * @param timestamp the number of milliseconds since Jan. 1, 1970 GMT
+     * @param timezone the time zone to express the date and time in
+     * @return sb, for chaining
+     */
+    public static StringBuilder appendDateTime(StringBuilder sb, long timestamp,
+            TimeZone timezone) {
+        long local = timestamp + timezone.getOffset(timestamp);
+        long days = floorDiv(local, MILLIS_PER_DAY);
+        int millisOfDay = (int) (local - days * MILLIS_PER_DAY);
+
+        appendDate(sb, days);
+        sb.append(' ');
+        appendTwoDigits(sb, millisOfDay / 3600000);
+        sb.append(':');
+        appendTwoDigits(sb, millisOfDay / 60000 % 60);
+        sb.append(':');
+        appendTwoDigits(sb, millisOfDay / 1000 % 60);
+        return sb;
+    }
+
+    /**
+     * @return the timestamp in the EXIF date/time format
+     * @see #appendDateTime(StringBuilder, long, TimeZone)
+     */
+    public static String formatDateTime(long timestamp, TimeZone timezone) {
+        return appendDateTime(new StringBuilder(19), timestamp, timezone).toString();
+    }
+
+    /**
+     * Appends the UTC date of the timestamp in the "yyyy:MM:dd" format used
+     * by {@link ExifInterface#TAG_GPS_DATE_STAMP}.
+     *
+     * @param sb where to append the date
+     * @param timestamp the number of milliseconds since Jan. 1, 1970 GMT
+     * @return sb, for chaining
+     */
+    public static StringBuilder appendGpsDate(StringBuilder sb, long timestamp) {
+        appendDate(sb, floorDiv(timestamp, MILLIS_PER_DAY));
+        return sb;
+    }
+
+    /**
+     * @return the UTC date of the timestamp in the GPS date format
+     * @see #appendGpsDate(StringBuilder, long)
+     */
+    public static String formatGpsDate(long timestamp) {
+        return appendGpsDate(new StringBuilder(10), timestamp).toString();
+    }
+
+    /**
+     * @return the number of milliseconds since the last UTC midnight, from
+     *         which {@link ExifInterface#TAG_GPS_TIME_STAMP} is made
+     */
+    public static int getUtcMillisOfDay(long timestamp) {
+        return (int) (timestamp - floorDiv(timestamp, MILLIS_PER_DAY) * MILLIS_PER_DAY);
+    }
+
+    /**
+     * Appends the rational as "numerator/denominator", as with
+     * {@link Rational#toString()}.
+     *
+     * @return sb, for chaining
+     */
+    public static StringBuilder appendRational(StringBuilder sb, Rational value) {
+        return sb.append(value.getNumerator()).append('/').append(value.getDenominator());
+    }
+
+    /**
+     * Appends the rational as a decimal, rounded half away from zero to the
+     * given number of fraction digits, such as "2.2" for an F-number of
+     * 22/10. A zero denominator appends "0".
+     *
+     * @param sb where to append the value
+     * @param value the value to append
+     * @param digits the number of digits after the decimal point, 0 to 9
+     * @return sb, for chaining
+     */
+    public static StringBuilder appendDecimal(StringBuilder sb, Rational value, int digits) {
+        if (digits < 0 || digits > 9) {
+            throw new IllegalArgumentException("digits must be from 0 to 9: " + digits);
+        }
+        long num = value.getNumerator();
+        long den = value.getDenominator();
+        if (den == 0) {
+            return sb.append('0');
+        }
+        if (den < 0) {
+            num = -num;
+            den = -den;
+        }
+        if (num < 0) {
+            sb.append('-');
+            num = -num;
+        }
+        long scale = 1;
+        for (int i = 0; i < digits; i++) {
+            scale *= 10;
+        }
+        long whole = num / den;
+        long fraction = ((num % den) * scale * 2 + den) / (den * 2);
+        if (fraction >= scale) {
+            whole++;
+            fraction -= scale;
+        }
+        sb.append(whole);
+        if (digits > 0) {
+            sb.append('.');
+            for (long div = scale / 10; div > 0; div /= 10) {
+                sb.append((char) ('0' + fraction / div % 10));
+            }
+        }
+        return sb;
+    }
+
+    /**
+     * Appends the civil date for the given number of days since Jan. 1,
+     * 1970, as "yyyy:MM:dd". This is the days-to-civil algorithm from
+     * Howard Hinnant's "chrono-Compatible Low-Level Date Algorithms".
+     */
+    private static void appendDate(StringBuilder sb, long days) {
+        long z = days + 719468;
+        long era = floorDiv(z, 146097);
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+
+        if (year >= 0 && year <= 9999) {
+            appendTwoDigits(sb, (int) (year / 100));
+            appendTwoDigits(sb, (int) (year % 100));
+        } else {
+            sb.append(year);
+        }
+        sb.append(':');
+        appendTwoDigits(sb, month);
+        sb.append(':');
+        appendTwoDigits(sb, day);
+    }
+
+    private static void appendTwoDigits(StringBuilder sb, int value) {
+        sb.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0)) {
+            q--;
+        }
+        return q;
+    }
+}
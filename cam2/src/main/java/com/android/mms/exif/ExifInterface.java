@@ -21,7 +21,6 @@ import android.graphics.BitmapFactory;
 import android.util.SparseIntArray;
 
 import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.File;
@@ -35,11 +34,8 @@ import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.FileChannel.MapMode;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Calendar;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
@@ -708,10 +704,34 @@ public class ExifInterface {
 
     private static final String NULL_ARGUMENT_STRING = "Argument is null";
     private ExifData mData = new ExifData(DEFAULT_BYTE_ORDER);
+    private boolean mDecodeLazily = false;
     public static final ByteOrder DEFAULT_BYTE_ORDER = ByteOrder.BIG_ENDIAN;
 
     public ExifInterface() {
-        mGPSDateStampFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    /**
+     * Sets whether {@link #readExif(byte[])}, {@link #readExif(ByteBuffer)}
+     * and {@link #readExif(String)} decode tag values lazily. When they do,
+     * tag values stored outside of their IFD entry, such as the maker note,
+     * and the compressed thumbnail are left where they are and decoded the
+     * first time they are asked for, so parsing costs roughly the same no
+     * matter how large those are. The tags keep a reference to the jpeg, so
+     * it must not be modified after it is read. Reading from an InputStream
+     * always decodes everything up front.
+     *
+     * @param lazy true to decode tag values on first access
+     */
+    public void setDecodeLazily(boolean lazy) {
+        mDecodeLazily = lazy;
+    }
+
+    /**
+     * @return true if tag values are decoded on first access
+     * @see #setDecodeLazily(boolean)
+     */
+    public boolean isDecodingLazily() {
+        return mDecodeLazily;
     }
 
     /**
@@ -722,7 +742,36 @@ public class ExifInterface {
      * @throws IOException
      */
     public void readExif(byte[] jpeg) throws IOException {
-        readExif(new ByteArrayInputStream(jpeg));
+        if (jpeg == null) {
+            throw new IllegalArgumentException(NULL_ARGUMENT_STRING);
+        }
+        readExifInPlace(ByteBuffer.wrap(jpeg));
+    }
+
+    /**
+     * Reads the exif tags from a ByteBuffer, clearing this ExifInterface
+     * object's existing exif tags. The buffer may be a heap buffer, a
+     * direct buffer, or a mapped file; it is read in place, and the
+     * position of the buffer is not changed.
+     *
+     * @param jpeg a ByteBuffer containing a jpeg compressed image.
+     * @throws IOException
+     */
+    public void readExif(ByteBuffer jpeg) throws IOException {
+        if (jpeg == null) {
+            throw new IllegalArgumentException(NULL_ARGUMENT_STRING);
+        }
+        readExifInPlace(jpeg);
+    }
+
+    private void readExifInPlace(ByteBuffer jpeg) throws IOException {
+        ExifData d = null;
+        try {
+            d = new ExifReader(this).read(jpeg, mDecodeLazily);
+        } catch (ExifInvalidFormatException e) {
+            throw new IOException("Invalid exif format : " + e);
+        }
+        mData = d;
     }
 
     /**
@@ -747,7 +796,8 @@ public class ExifInterface {
 
     /**
      * Reads the exif tags from a file, clearing this ExifInterface object's
-     * existing exif tags.
+     * existing exif tags. The file is memory-mapped and parsed in place
+     * where possible, falling back to reading it as a stream.
      *
      * @param inFileName a string representing the filepath to jpeg file.
      * @throws FileNotFoundException
@@ -757,6 +807,19 @@ public class ExifInterface {
         if (inFileName == null) {
             throw new IllegalArgumentException(NULL_ARGUMENT_STRING);
         }
+        ByteBuffer mapped = null;
+        RandomAccessFile file = new RandomAccessFile(inFileName, "r");
+        try {
+            mapped = file.getChannel().map(MapMode.READ_ONLY, 0, file.length());
+        } catch (IOException e) {
+            // some filesystems cannot be mapped; read those as a stream
+        } finally {
+            closeSilently(file);
+        }
+        if (mapped != null) {
+            readExifInPlace(mapped);
+            return;
+        }
         InputStream is = null;
         try {
             is = new BufferedInputStream(new FileInputStream(inFileName));
@@ -768,6 +831,144 @@ public class ExifInterface {
         is.close();
     }
 
+    /**
+     * Reads just the orientation tag from a jpeg, without building an
+     * ExifInterface. This scans the markers up to the APP1 segment and walks
+     * IFD0 only, without allocating anything.
+     *
+     * @param jpeg a byte array containing a jpeg compressed image.
+     * @return the value of {@link #TAG_ORIENTATION}, or -1 if the jpeg has
+     *         none or could not be read.
+     */
+    public static int probeOrientation(byte[] jpeg) {
+        if (jpeg == null) {
+            throw new IllegalArgumentException(NULL_ARGUMENT_STRING);
+        }
+        return probeOrientation(jpeg, null, 0, jpeg.length);
+    }
+
+    /**
+     * Reads just the orientation tag from a jpeg, without building an
+     * ExifInterface. The jpeg runs from the position to the limit of the
+     * buffer; the position is not changed.
+     *
+     * @param jpeg a ByteBuffer containing a jpeg compressed image.
+     * @return the value of {@link #TAG_ORIENTATION}, or -1 if the jpeg has
+     *         none or could not be read.
+     */
+    public static int probeOrientation(ByteBuffer jpeg) {
+        if (jpeg == null) {
+            throw new IllegalArgumentException(NULL_ARGUMENT_STRING);
+        }
+        return probeOrientation(null, jpeg, jpeg.position(), jpeg.limit());
+    }
+
+    private static final int PROBE_ORIENTATION_TAG = 0x0112;
+
+    // Exactly one of array and buffer is non-null.
+    private static int probeOrientation(byte[] array, ByteBuffer buffer, int start,
+            int end) {
+        if (end - start < 4 || probeByte(array, buffer, start) != 0xFF
+                || probeByte(array, buffer, start + 1) != 0xD8) {
+            return -1;
+        }
+        int pos = start + 2;
+        while (pos + 4 <= end) {
+            if (probeByte(array, buffer, pos) != 0xFF) {
+                return -1;
+            }
+            int marker = probeByte(array, buffer, pos + 1);
+            if (marker == 0xFF) {
+                // fill byte
+                pos++;
+                continue;
+            }
+            if (marker == 0xD9 || marker == 0xDA) {
+                // EOI or SOS: the EXIF header would have come before these
+                return -1;
+            }
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                // TEM and RSTn have no length
+                pos += 2;
+                continue;
+            }
+            int length = probeShort(array, buffer, pos + 2, false);
+            if (length < 2) {
+                return -1;
+            }
+            // the declared length may run past the end of truncated
+            // input, so check that the identifier is really there
+            if (marker == 0xE1 && length >= 16 && pos + 10 <= end
+                    && probeByte(array, buffer, pos + 4) == 'E'
+                    && probeByte(array, buffer, pos + 5) == 'x'
+                    && probeByte(array, buffer, pos + 6) == 'i'
+                    && probeByte(array, buffer, pos + 7) == 'f'
+                    && probeByte(array, buffer, pos + 8) == 0
+                    && probeByte(array, buffer, pos + 9) == 0) {
+                return probeTiffOrientation(array, buffer, pos + 10,
+                        Math.min(pos + 2 + length, end));
+            }
+            pos += 2 + length;
+        }
+        return -1;
+    }
+
+    private static int probeTiffOrientation(byte[] array, ByteBuffer buffer, int tiff,
+            int end) {
+        if (tiff + 8 > end) {
+            return -1;
+        }
+        boolean littleEndian;
+        int order = probeShort(array, buffer, tiff, false);
+        if (order == 0x4949) {
+            littleEndian = true;
+        } else if (order == 0x4D4D) {
+            littleEndian = false;
+        } else {
+            return -1;
+        }
+        if (probeShort(array, buffer, tiff + 2, littleEndian) != 42) {
+            return -1;
+        }
+        long ifdOffset = probeInt(array, buffer, tiff + 4, littleEndian);
+        if (ifdOffset < 8 || ifdOffset > end - tiff - 2) {
+            return -1;
+        }
+        int ifd = tiff + (int) ifdOffset;
+        int count = probeShort(array, buffer, ifd, littleEndian);
+        for (int i = 0; i < count; i++) {
+            int entry = ifd + 2 + i * 12;
+            if (entry + 12 > end) {
+                return -1;
+            }
+            if (probeShort(array, buffer, entry, littleEndian) == PROBE_ORIENTATION_TAG) {
+                if (probeShort(array, buffer, entry + 2, littleEndian) != ExifTag.TYPE_UNSIGNED_SHORT) {
+                    return -1;
+                }
+                return probeShort(array, buffer, entry + 8, littleEndian);
+            }
+        }
+        return -1;
+    }
+
+    private static int probeByte(byte[] array, ByteBuffer buffer, int index) {
+        return (array != null ? array[index] : buffer.get(index)) & 0xFF;
+    }
+
+    private static int probeShort(byte[] array, ByteBuffer buffer, int index,
+            boolean littleEndian) {
+        int first = probeByte(array, buffer, index);
+        int second = probeByte(array, buffer, index + 1);
+        return littleEndian ? (second << 8) | first : (first << 8) | second;
+    }
+
+    private static long probeInt(byte[] array, ByteBuffer buffer, int index,
+            boolean littleEndian) {
+        long first = probeShort(array, buffer, index, littleEndian);
+        long second = probeShort(array, buffer, index + 2, littleEndian);
+        return littleEndian ? (second << 16) | first : (first << 16) | second;
+    }
+
     /**
      * Sets the exif tags, clearing this ExifInterface object's existing exif
      * tags.
@@ -1676,7 +1877,8 @@ public class ExifInterface {
                     }
                 }
             }
-            getTagInfo().put(tagDef, ifdFlags << 24 | (tagType << 16) | defaultComponentCount);
+            getWritableTagInfo().put(tagDef,
+                    ifdFlags << 24 | (tagType << 16) | defaultComponentCount);
             return tagDef;
         }
         return TAG_NULL;
@@ -1745,11 +1947,14 @@ public class ExifInterface {
      * @param tagId a defined tag constant, e.g. {@link #TAG_IMAGE_WIDTH}.
      */
     public void removeTagDefinition(int tagId) {
-        getTagInfo().delete(tagId);
+        if (getTagInfo().indexOfKey(tagId) >= 0) {
+            getWritableTagInfo().delete(tagId);
+        }
     }
 
     /**
-     * Resets tag definitions to the default ones.
+     * Resets tag definitions to the default ones, which are shared rather
+     * than copied.
      */
     public void resetTagDefinitions() {
         mTagInfo = null;
@@ -1953,12 +2158,6 @@ public class ExifInterface {
         return latLon;
     }
 
-    private static final String GPS_DATE_FORMAT_STR = "yyyy:MM:dd";
-    private static final String DATETIME_FORMAT_STR = "yyyy:MM:dd kk:mm:ss";
-    private final DateFormat mDateTimeStampFormat = new SimpleDateFormat(DATETIME_FORMAT_STR);
-    private final DateFormat mGPSDateStampFormat = new SimpleDateFormat(GPS_DATE_FORMAT_STR);
-    private final Calendar mGPSTimeStampCalendar = Calendar
-            .getInstance(TimeZone.getTimeZone("UTC"));
 
     /**
      * Creates, formats, and sets the DateTimeStamp tag for one of:
@@ -1973,8 +2172,7 @@ public class ExifInterface {
     public boolean addDateTimeStampTag(int tagId, long timestamp, TimeZone timezone) {
         if (tagId == TAG_DATE_TIME || tagId == TAG_DATE_TIME_DIGITIZED
                 || tagId == TAG_DATE_TIME_ORIGINAL) {
-            mDateTimeStampFormat.setTimeZone(timezone);
-            ExifTag t = buildTag(tagId, mDateTimeStampFormat.format(timestamp));
+            ExifTag t = buildTag(tagId, ExifFormat.formatDateTime(timestamp, timezone));
             if (t == null) {
                 return false;
             }
@@ -2018,16 +2216,16 @@ public class ExifInterface {
      * @return true if success, false if could not be created or set.
      */
     public boolean addGpsDateTimeStampTag(long timestamp) {
-        ExifTag t = buildTag(TAG_GPS_DATE_STAMP, mGPSDateStampFormat.format(timestamp));
+        ExifTag t = buildTag(TAG_GPS_DATE_STAMP, ExifFormat.formatGpsDate(timestamp));
         if (t == null) {
             return false;
         }
         setTag(t);
-        mGPSTimeStampCalendar.setTimeInMillis(timestamp);
+        int seconds = ExifFormat.getUtcMillisOfDay(timestamp) / 1000;
         t = buildTag(TAG_GPS_TIME_STAMP, new Rational[] {
-                new Rational(mGPSTimeStampCalendar.get(Calendar.HOUR_OF_DAY), 1),
-                new Rational(mGPSTimeStampCalendar.get(Calendar.MINUTE), 1),
-                new Rational(mGPSTimeStampCalendar.get(Calendar.SECOND), 1)
+                new Rational(seconds / 3600, 1),
+                new Rational(seconds / 60 % 60, 1),
+                new Rational(seconds % 60, 1)
         });
         if (t == null) {
             return false;
@@ -2068,17 +2266,40 @@ public class ExifInterface {
         }
     }
 
+    /**
+     * Holds the default tag definitions, which are built the first time any
+     * ExifInterface needs them and then shared by every ExifInterface that
+     * has not changed its own definitions. They are never modified.
+     */
+    private static class DefaultTagInfo {
+        static final SparseIntArray INSTANCE = buildDefaultTagInfo();
+    }
+
+    // This instance's own copy of the tag definitions, made on the first
+    // setTagDefinition() or removeTagDefinition(); null until then.
     private SparseIntArray mTagInfo = null;
 
+    /**
+     * Returns the tag definitions in effect for this ExifInterface. This is
+     * usually the shared default set, so it must not be modified; use
+     * {@link #setTagDefinition} or {@link #removeTagDefinition} instead.
+     */
     protected SparseIntArray getTagInfo() {
         if (mTagInfo == null) {
-            mTagInfo = new SparseIntArray();
-            initTagInfo();
+            return DefaultTagInfo.INSTANCE;
+        }
+        return mTagInfo;
+    }
+
+    private SparseIntArray getWritableTagInfo() {
+        if (mTagInfo == null) {
+            mTagInfo = DefaultTagInfo.INSTANCE.clone();
         }
         return mTagInfo;
     }
 
-    private void initTagInfo() {
+    private static SparseIntArray buildDefaultTagInfo() {
+        SparseIntArray tagInfo = new SparseIntArray();
         /**
          * We put tag information in a 4-bytes integer. The first byte a bitmask
          * representing the allowed IFDs of the tag, the second byte is the data
@@ -2090,266 +2311,267 @@ public class ExifInterface {
                 IfdId.TYPE_IFD_0, IfdId.TYPE_IFD_1
         };
         int ifdFlags = getFlagsFromAllowedIfds(ifdAllowedIfds) << 24;
-        mTagInfo.put(ExifInterface.TAG_MAKE,
+        tagInfo.put(ExifInterface.TAG_MAKE,
                 ifdFlags | ExifTag.TYPE_ASCII << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_IMAGE_WIDTH,
+        tagInfo.put(ExifInterface.TAG_IMAGE_WIDTH,
                 ifdFlags | ExifTag.TYPE_UNSIGNED_LONG << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_IMAGE_LENGTH,
+        tagInfo.put(ExifInterface.TAG_IMAGE_LENGTH,
                 ifdFlags | ExifTag.TYPE_UNSIGNED_LONG << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_BITS_PER_SAMPLE,
+        tagInfo.put(ExifInterface.TAG_BITS_PER_SAMPLE,
                 ifdFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 3);
-        mTagInfo.put(ExifInterface.TAG_COMPRESSION,
+        tagInfo.put(ExifInterface.TAG_COMPRESSION,
                 ifdFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_PHOTOMETRIC_INTERPRETATION,
+        tagInfo.put(ExifInterface.TAG_PHOTOMETRIC_INTERPRETATION,
                 ifdFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_ORIENTATION, ifdFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16
+        tagInfo.put(ExifInterface.TAG_ORIENTATION, ifdFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16
                 | 1);
-        mTagInfo.put(ExifInterface.TAG_SAMPLES_PER_PIXEL,
+        tagInfo.put(ExifInterface.TAG_SAMPLES_PER_PIXEL,
                 ifdFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_PLANAR_CONFIGURATION,
+        tagInfo.put(ExifInterface.TAG_PLANAR_CONFIGURATION,
                 ifdFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_Y_CB_CR_SUB_SAMPLING,
+        tagInfo.put(ExifInterface.TAG_Y_CB_CR_SUB_SAMPLING,
                 ifdFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 2);
-        mTagInfo.put(ExifInterface.TAG_Y_CB_CR_POSITIONING,
+        tagInfo.put(ExifInterface.TAG_Y_CB_CR_POSITIONING,
                 ifdFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_X_RESOLUTION,
+        tagInfo.put(ExifInterface.TAG_X_RESOLUTION,
                 ifdFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_Y_RESOLUTION,
+        tagInfo.put(ExifInterface.TAG_Y_RESOLUTION,
                 ifdFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_RESOLUTION_UNIT,
+        tagInfo.put(ExifInterface.TAG_RESOLUTION_UNIT,
                 ifdFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_STRIP_OFFSETS,
+        tagInfo.put(ExifInterface.TAG_STRIP_OFFSETS,
                 ifdFlags | ExifTag.TYPE_UNSIGNED_LONG << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_ROWS_PER_STRIP,
+        tagInfo.put(ExifInterface.TAG_ROWS_PER_STRIP,
                 ifdFlags | ExifTag.TYPE_UNSIGNED_LONG << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_STRIP_BYTE_COUNTS,
+        tagInfo.put(ExifInterface.TAG_STRIP_BYTE_COUNTS,
                 ifdFlags | ExifTag.TYPE_UNSIGNED_LONG << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_TRANSFER_FUNCTION,
+        tagInfo.put(ExifInterface.TAG_TRANSFER_FUNCTION,
                 ifdFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 3 * 256);
-        mTagInfo.put(ExifInterface.TAG_WHITE_POINT,
+        tagInfo.put(ExifInterface.TAG_WHITE_POINT,
                 ifdFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 2);
-        mTagInfo.put(ExifInterface.TAG_PRIMARY_CHROMATICITIES,
+        tagInfo.put(ExifInterface.TAG_PRIMARY_CHROMATICITIES,
                 ifdFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 6);
-        mTagInfo.put(ExifInterface.TAG_Y_CB_CR_COEFFICIENTS,
+        tagInfo.put(ExifInterface.TAG_Y_CB_CR_COEFFICIENTS,
                 ifdFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 3);
-        mTagInfo.put(ExifInterface.TAG_REFERENCE_BLACK_WHITE,
+        tagInfo.put(ExifInterface.TAG_REFERENCE_BLACK_WHITE,
                 ifdFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 6);
-        mTagInfo.put(ExifInterface.TAG_DATE_TIME,
+        tagInfo.put(ExifInterface.TAG_DATE_TIME,
                 ifdFlags | ExifTag.TYPE_ASCII << 16 | 20);
-        mTagInfo.put(ExifInterface.TAG_IMAGE_DESCRIPTION,
+        tagInfo.put(ExifInterface.TAG_IMAGE_DESCRIPTION,
                 ifdFlags | ExifTag.TYPE_ASCII << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_MAKE,
+        tagInfo.put(ExifInterface.TAG_MAKE,
                 ifdFlags | ExifTag.TYPE_ASCII << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_MODEL,
+        tagInfo.put(ExifInterface.TAG_MODEL,
                 ifdFlags | ExifTag.TYPE_ASCII << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_SOFTWARE,
+        tagInfo.put(ExifInterface.TAG_SOFTWARE,
                 ifdFlags | ExifTag.TYPE_ASCII << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_ARTIST,
+        tagInfo.put(ExifInterface.TAG_ARTIST,
                 ifdFlags | ExifTag.TYPE_ASCII << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_COPYRIGHT,
+        tagInfo.put(ExifInterface.TAG_COPYRIGHT,
                 ifdFlags | ExifTag.TYPE_ASCII << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_EXIF_IFD,
+        tagInfo.put(ExifInterface.TAG_EXIF_IFD,
                 ifdFlags | ExifTag.TYPE_UNSIGNED_LONG << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_GPS_IFD,
+        tagInfo.put(ExifInterface.TAG_GPS_IFD,
                 ifdFlags | ExifTag.TYPE_UNSIGNED_LONG << 16 | 1);
         // IFD1 tags
         int[] ifd1AllowedIfds = {
             IfdId.TYPE_IFD_1
         };
         int ifdFlags1 = getFlagsFromAllowedIfds(ifd1AllowedIfds) << 24;
-        mTagInfo.put(ExifInterface.TAG_JPEG_INTERCHANGE_FORMAT,
+        tagInfo.put(ExifInterface.TAG_JPEG_INTERCHANGE_FORMAT,
                 ifdFlags1 | ExifTag.TYPE_UNSIGNED_LONG << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_JPEG_INTERCHANGE_FORMAT_LENGTH,
+        tagInfo.put(ExifInterface.TAG_JPEG_INTERCHANGE_FORMAT_LENGTH,
                 ifdFlags1 | ExifTag.TYPE_UNSIGNED_LONG << 16 | 1);
         // Exif tags
         int[] exifAllowedIfds = {
             IfdId.TYPE_IFD_EXIF
         };
         int exifFlags = getFlagsFromAllowedIfds(exifAllowedIfds) << 24;
-        mTagInfo.put(ExifInterface.TAG_EXIF_VERSION,
+        tagInfo.put(ExifInterface.TAG_EXIF_VERSION,
                 exifFlags | ExifTag.TYPE_UNDEFINED << 16 | 4);
-        mTagInfo.put(ExifInterface.TAG_FLASHPIX_VERSION,
+        tagInfo.put(ExifInterface.TAG_FLASHPIX_VERSION,
                 exifFlags | ExifTag.TYPE_UNDEFINED << 16 | 4);
-        mTagInfo.put(ExifInterface.TAG_COLOR_SPACE,
+        tagInfo.put(ExifInterface.TAG_COLOR_SPACE,
                 exifFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_COMPONENTS_CONFIGURATION,
+        tagInfo.put(ExifInterface.TAG_COMPONENTS_CONFIGURATION,
                 exifFlags | ExifTag.TYPE_UNDEFINED << 16 | 4);
-        mTagInfo.put(ExifInterface.TAG_COMPRESSED_BITS_PER_PIXEL,
+        tagInfo.put(ExifInterface.TAG_COMPRESSED_BITS_PER_PIXEL,
                 exifFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_PIXEL_X_DIMENSION,
+        tagInfo.put(ExifInterface.TAG_PIXEL_X_DIMENSION,
                 exifFlags | ExifTag.TYPE_UNSIGNED_LONG << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_PIXEL_Y_DIMENSION,
+        tagInfo.put(ExifInterface.TAG_PIXEL_Y_DIMENSION,
                 exifFlags | ExifTag.TYPE_UNSIGNED_LONG << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_MAKER_NOTE,
+        tagInfo.put(ExifInterface.TAG_MAKER_NOTE,
                 exifFlags | ExifTag.TYPE_UNDEFINED << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_USER_COMMENT,
+        tagInfo.put(ExifInterface.TAG_USER_COMMENT,
                 exifFlags | ExifTag.TYPE_UNDEFINED << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_RELATED_SOUND_FILE,
+        tagInfo.put(ExifInterface.TAG_RELATED_SOUND_FILE,
                 exifFlags | ExifTag.TYPE_ASCII << 16 | 13);
-        mTagInfo.put(ExifInterface.TAG_DATE_TIME_ORIGINAL,
+        tagInfo.put(ExifInterface.TAG_DATE_TIME_ORIGINAL,
                 exifFlags | ExifTag.TYPE_ASCII << 16 | 20);
-        mTagInfo.put(ExifInterface.TAG_DATE_TIME_DIGITIZED,
+        tagInfo.put(ExifInterface.TAG_DATE_TIME_DIGITIZED,
                 exifFlags | ExifTag.TYPE_ASCII << 16 | 20);
-        mTagInfo.put(ExifInterface.TAG_SUB_SEC_TIME,
+        tagInfo.put(ExifInterface.TAG_SUB_SEC_TIME,
                 exifFlags | ExifTag.TYPE_ASCII << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_SUB_SEC_TIME_ORIGINAL,
+        tagInfo.put(ExifInterface.TAG_SUB_SEC_TIME_ORIGINAL,
                 exifFlags | ExifTag.TYPE_ASCII << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_SUB_SEC_TIME_DIGITIZED,
+        tagInfo.put(ExifInterface.TAG_SUB_SEC_TIME_DIGITIZED,
                 exifFlags | ExifTag.TYPE_ASCII << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_IMAGE_UNIQUE_ID,
+        tagInfo.put(ExifInterface.TAG_IMAGE_UNIQUE_ID,
                 exifFlags | ExifTag.TYPE_ASCII << 16 | 33);
-        mTagInfo.put(ExifInterface.TAG_EXPOSURE_TIME,
+        tagInfo.put(ExifInterface.TAG_EXPOSURE_TIME,
                 exifFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_F_NUMBER,
+        tagInfo.put(ExifInterface.TAG_F_NUMBER,
                 exifFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_EXPOSURE_PROGRAM,
+        tagInfo.put(ExifInterface.TAG_EXPOSURE_PROGRAM,
                 exifFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_SPECTRAL_SENSITIVITY,
+        tagInfo.put(ExifInterface.TAG_SPECTRAL_SENSITIVITY,
                 exifFlags | ExifTag.TYPE_ASCII << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_ISO_SPEED_RATINGS,
+        tagInfo.put(ExifInterface.TAG_ISO_SPEED_RATINGS,
                 exifFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_OECF,
+        tagInfo.put(ExifInterface.TAG_OECF,
                 exifFlags | ExifTag.TYPE_UNDEFINED << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_SHUTTER_SPEED_VALUE,
+        tagInfo.put(ExifInterface.TAG_SHUTTER_SPEED_VALUE,
                 exifFlags | ExifTag.TYPE_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_APERTURE_VALUE,
+        tagInfo.put(ExifInterface.TAG_APERTURE_VALUE,
                 exifFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_BRIGHTNESS_VALUE,
+        tagInfo.put(ExifInterface.TAG_BRIGHTNESS_VALUE,
                 exifFlags | ExifTag.TYPE_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_EXPOSURE_BIAS_VALUE,
+        tagInfo.put(ExifInterface.TAG_EXPOSURE_BIAS_VALUE,
                 exifFlags | ExifTag.TYPE_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_MAX_APERTURE_VALUE,
+        tagInfo.put(ExifInterface.TAG_MAX_APERTURE_VALUE,
                 exifFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_SUBJECT_DISTANCE,
+        tagInfo.put(ExifInterface.TAG_SUBJECT_DISTANCE,
                 exifFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_METERING_MODE,
+        tagInfo.put(ExifInterface.TAG_METERING_MODE,
                 exifFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_LIGHT_SOURCE,
+        tagInfo.put(ExifInterface.TAG_LIGHT_SOURCE,
                 exifFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_FLASH,
+        tagInfo.put(ExifInterface.TAG_FLASH,
                 exifFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_FOCAL_LENGTH,
+        tagInfo.put(ExifInterface.TAG_FOCAL_LENGTH,
                 exifFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_SUBJECT_AREA,
+        tagInfo.put(ExifInterface.TAG_SUBJECT_AREA,
                 exifFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_FLASH_ENERGY,
+        tagInfo.put(ExifInterface.TAG_FLASH_ENERGY,
                 exifFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_SPATIAL_FREQUENCY_RESPONSE,
+        tagInfo.put(ExifInterface.TAG_SPATIAL_FREQUENCY_RESPONSE,
                 exifFlags | ExifTag.TYPE_UNDEFINED << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_FOCAL_PLANE_X_RESOLUTION,
+        tagInfo.put(ExifInterface.TAG_FOCAL_PLANE_X_RESOLUTION,
                 exifFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_FOCAL_PLANE_Y_RESOLUTION,
+        tagInfo.put(ExifInterface.TAG_FOCAL_PLANE_Y_RESOLUTION,
                 exifFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_FOCAL_PLANE_RESOLUTION_UNIT,
+        tagInfo.put(ExifInterface.TAG_FOCAL_PLANE_RESOLUTION_UNIT,
                 exifFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_SUBJECT_LOCATION,
+        tagInfo.put(ExifInterface.TAG_SUBJECT_LOCATION,
                 exifFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 2);
-        mTagInfo.put(ExifInterface.TAG_EXPOSURE_INDEX,
+        tagInfo.put(ExifInterface.TAG_EXPOSURE_INDEX,
                 exifFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_SENSING_METHOD,
+        tagInfo.put(ExifInterface.TAG_SENSING_METHOD,
                 exifFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_FILE_SOURCE,
+        tagInfo.put(ExifInterface.TAG_FILE_SOURCE,
                 exifFlags | ExifTag.TYPE_UNDEFINED << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_SCENE_TYPE,
+        tagInfo.put(ExifInterface.TAG_SCENE_TYPE,
                 exifFlags | ExifTag.TYPE_UNDEFINED << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_CFA_PATTERN,
+        tagInfo.put(ExifInterface.TAG_CFA_PATTERN,
                 exifFlags | ExifTag.TYPE_UNDEFINED << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_CUSTOM_RENDERED,
+        tagInfo.put(ExifInterface.TAG_CUSTOM_RENDERED,
                 exifFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_EXPOSURE_MODE,
+        tagInfo.put(ExifInterface.TAG_EXPOSURE_MODE,
                 exifFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_WHITE_BALANCE,
+        tagInfo.put(ExifInterface.TAG_WHITE_BALANCE,
                 exifFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_DIGITAL_ZOOM_RATIO,
+        tagInfo.put(ExifInterface.TAG_DIGITAL_ZOOM_RATIO,
                 exifFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_FOCAL_LENGTH_IN_35_MM_FILE,
+        tagInfo.put(ExifInterface.TAG_FOCAL_LENGTH_IN_35_MM_FILE,
                 exifFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_SCENE_CAPTURE_TYPE,
+        tagInfo.put(ExifInterface.TAG_SCENE_CAPTURE_TYPE,
                 exifFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_GAIN_CONTROL,
+        tagInfo.put(ExifInterface.TAG_GAIN_CONTROL,
                 exifFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_CONTRAST,
+        tagInfo.put(ExifInterface.TAG_CONTRAST,
                 exifFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_SATURATION,
+        tagInfo.put(ExifInterface.TAG_SATURATION,
                 exifFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_SHARPNESS,
+        tagInfo.put(ExifInterface.TAG_SHARPNESS,
                 exifFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_DEVICE_SETTING_DESCRIPTION,
+        tagInfo.put(ExifInterface.TAG_DEVICE_SETTING_DESCRIPTION,
                 exifFlags | ExifTag.TYPE_UNDEFINED << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_SUBJECT_DISTANCE_RANGE,
+        tagInfo.put(ExifInterface.TAG_SUBJECT_DISTANCE_RANGE,
                 exifFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_INTEROPERABILITY_IFD, exifFlags
+        tagInfo.put(ExifInterface.TAG_INTEROPERABILITY_IFD, exifFlags
                 | ExifTag.TYPE_UNSIGNED_LONG << 16 | 1);
         // GPS tag
         int[] gpsAllowedIfds = {
             IfdId.TYPE_IFD_GPS
         };
         int gpsFlags = getFlagsFromAllowedIfds(gpsAllowedIfds) << 24;
-        mTagInfo.put(ExifInterface.TAG_GPS_VERSION_ID,
+        tagInfo.put(ExifInterface.TAG_GPS_VERSION_ID,
                 gpsFlags | ExifTag.TYPE_UNSIGNED_BYTE << 16 | 4);
-        mTagInfo.put(ExifInterface.TAG_GPS_LATITUDE_REF,
+        tagInfo.put(ExifInterface.TAG_GPS_LATITUDE_REF,
                 gpsFlags | ExifTag.TYPE_ASCII << 16 | 2);
-        mTagInfo.put(ExifInterface.TAG_GPS_LONGITUDE_REF,
+        tagInfo.put(ExifInterface.TAG_GPS_LONGITUDE_REF,
                 gpsFlags | ExifTag.TYPE_ASCII << 16 | 2);
-        mTagInfo.put(ExifInterface.TAG_GPS_LATITUDE,
+        tagInfo.put(ExifInterface.TAG_GPS_LATITUDE,
                 gpsFlags | ExifTag.TYPE_RATIONAL << 16 | 3);
-        mTagInfo.put(ExifInterface.TAG_GPS_LONGITUDE,
+        tagInfo.put(ExifInterface.TAG_GPS_LONGITUDE,
                 gpsFlags | ExifTag.TYPE_RATIONAL << 16 | 3);
-        mTagInfo.put(ExifInterface.TAG_GPS_ALTITUDE_REF,
+        tagInfo.put(ExifInterface.TAG_GPS_ALTITUDE_REF,
                 gpsFlags | ExifTag.TYPE_UNSIGNED_BYTE << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_GPS_ALTITUDE,
+        tagInfo.put(ExifInterface.TAG_GPS_ALTITUDE,
                 gpsFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_GPS_TIME_STAMP,
+        tagInfo.put(ExifInterface.TAG_GPS_TIME_STAMP,
                 gpsFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 3);
-        mTagInfo.put(ExifInterface.TAG_GPS_SATTELLITES,
+        tagInfo.put(ExifInterface.TAG_GPS_SATTELLITES,
                 gpsFlags | ExifTag.TYPE_ASCII << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_GPS_STATUS,
+        tagInfo.put(ExifInterface.TAG_GPS_STATUS,
                 gpsFlags | ExifTag.TYPE_ASCII << 16 | 2);
-        mTagInfo.put(ExifInterface.TAG_GPS_MEASURE_MODE,
+        tagInfo.put(ExifInterface.TAG_GPS_MEASURE_MODE,
                 gpsFlags | ExifTag.TYPE_ASCII << 16 | 2);
-        mTagInfo.put(ExifInterface.TAG_GPS_DOP,
+        tagInfo.put(ExifInterface.TAG_GPS_DOP,
                 gpsFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_GPS_SPEED_REF,
+        tagInfo.put(ExifInterface.TAG_GPS_SPEED_REF,
                 gpsFlags | ExifTag.TYPE_ASCII << 16 | 2);
-        mTagInfo.put(ExifInterface.TAG_GPS_SPEED,
+        tagInfo.put(ExifInterface.TAG_GPS_SPEED,
                 gpsFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_GPS_TRACK_REF,
+        tagInfo.put(ExifInterface.TAG_GPS_TRACK_REF,
                 gpsFlags | ExifTag.TYPE_ASCII << 16 | 2);
-        mTagInfo.put(ExifInterface.TAG_GPS_TRACK,
+        tagInfo.put(ExifInterface.TAG_GPS_TRACK,
                 gpsFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_GPS_IMG_DIRECTION_REF,
+        tagInfo.put(ExifInterface.TAG_GPS_IMG_DIRECTION_REF,
                 gpsFlags | ExifTag.TYPE_ASCII << 16 | 2);
-        mTagInfo.put(ExifInterface.TAG_GPS_IMG_DIRECTION,
+        tagInfo.put(ExifInterface.TAG_GPS_IMG_DIRECTION,
                 gpsFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_GPS_MAP_DATUM,
+        tagInfo.put(ExifInterface.TAG_GPS_MAP_DATUM,
                 gpsFlags | ExifTag.TYPE_ASCII << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_GPS_DEST_LATITUDE_REF,
+        tagInfo.put(ExifInterface.TAG_GPS_DEST_LATITUDE_REF,
                 gpsFlags | ExifTag.TYPE_ASCII << 16 | 2);
-        mTagInfo.put(ExifInterface.TAG_GPS_DEST_LATITUDE,
+        tagInfo.put(ExifInterface.TAG_GPS_DEST_LATITUDE,
                 gpsFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_GPS_DEST_BEARING_REF,
+        tagInfo.put(ExifInterface.TAG_GPS_DEST_BEARING_REF,
                 gpsFlags | ExifTag.TYPE_ASCII << 16 | 2);
-        mTagInfo.put(ExifInterface.TAG_GPS_DEST_BEARING,
+        tagInfo.put(ExifInterface.TAG_GPS_DEST_BEARING,
                 gpsFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_GPS_DEST_DISTANCE_REF,
+        tagInfo.put(ExifInterface.TAG_GPS_DEST_DISTANCE_REF,
                 gpsFlags | ExifTag.TYPE_ASCII << 16 | 2);
-        mTagInfo.put(ExifInterface.TAG_GPS_DEST_DISTANCE,
+        tagInfo.put(ExifInterface.TAG_GPS_DEST_DISTANCE,
                 gpsFlags | ExifTag.TYPE_UNSIGNED_RATIONAL << 16 | 1);
-        mTagInfo.put(ExifInterface.TAG_GPS_PROCESSING_METHOD,
+        tagInfo.put(ExifInterface.TAG_GPS_PROCESSING_METHOD,
                 gpsFlags | ExifTag.TYPE_UNDEFINED << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_GPS_AREA_INFORMATION,
+        tagInfo.put(ExifInterface.TAG_GPS_AREA_INFORMATION,
                 gpsFlags | ExifTag.TYPE_UNDEFINED << 16 | ExifTag.SIZE_UNDEFINED);
-        mTagInfo.put(ExifInterface.TAG_GPS_DATE_STAMP,
+        tagInfo.put(ExifInterface.TAG_GPS_DATE_STAMP,
                 gpsFlags | ExifTag.TYPE_ASCII << 16 | 11);
-        mTagInfo.put(ExifInterface.TAG_GPS_DIFFERENTIAL,
+        tagInfo.put(ExifInterface.TAG_GPS_DIFFERENTIAL,
                 gpsFlags | ExifTag.TYPE_UNSIGNED_SHORT << 16 | 11);
         // Interoperability tag
         int[] interopAllowedIfds = {
             IfdId.TYPE_IFD_INTEROPERABILITY
         };
         int interopFlags = getFlagsFromAllowedIfds(interopAllowedIfds) << 24;
-        mTagInfo.put(TAG_INTEROPERABILITY_INDEX, interopFlags | ExifTag.TYPE_ASCII << 16
+        tagInfo.put(TAG_INTEROPERABILITY_INDEX, interopFlags | ExifTag.TYPE_ASCII << 16
                 | ExifTag.SIZE_UNDEFINED);
+        return tagInfo;
     }
 
     protected static int getAllowedIfdFlagsFromInfo(int info) {
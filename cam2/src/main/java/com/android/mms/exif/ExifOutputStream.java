@@ -282,9 +282,10 @@ class ExifOutputStream extends FilterOutputStream {
 
     private void writeIfd(IfdData ifd, OrderedDataOutputStream dataOutputStream)
             throws IOException {
-        ExifTag[] tags = ifd.getAllTags();
-        dataOutputStream.writeShort((short) tags.length);
-        for (ExifTag tag : tags) {
+        int count = ifd.getTagCount();
+        dataOutputStream.writeShort((short) count);
+        for (int i = 0; i < count; i++) {
+            ExifTag tag = ifd.getTagAt(i);
             dataOutputStream.writeShort(tag.getTagId());
             dataOutputStream.writeShort(tag.getDataType());
             dataOutputStream.writeInt(tag.getComponentCount());
@@ -295,13 +296,14 @@ class ExifOutputStream extends FilterOutputStream {
                 dataOutputStream.writeInt(tag.getOffset());
             } else {
                 ExifOutputStream.writeTagValue(tag, dataOutputStream);
-                for (int i = 0, n = 4 - tag.getDataSize(); i < n; i++) {
+                for (int j = 0, n = 4 - tag.getDataSize(); j < n; j++) {
                     dataOutputStream.write(0);
                 }
             }
         }
         dataOutputStream.writeInt(ifd.getOffsetToNextIfd());
-        for (ExifTag tag : tags) {
+        for (int i = 0; i < count; i++) {
+            ExifTag tag = ifd.getTagAt(i);
             if (tag.getDataSize() > 4) {
                 ExifOutputStream.writeTagValue(tag, dataOutputStream);
             }
@@ -309,9 +311,10 @@ class ExifOutputStream extends FilterOutputStream {
     }
 
     private int calculateOffsetOfIfd(IfdData ifd, int offset) {
-        offset += 2 + ifd.getTagCount() * TAG_SIZE + 4;
-        ExifTag[] tags = ifd.getAllTags();
-        for (ExifTag tag : tags) {
+        int count = ifd.getTagCount();
+        offset += 2 + count * TAG_SIZE + 4;
+        for (int i = 0; i < count; i++) {
+            ExifTag tag = ifd.getTagAt(i);
             if (tag.getDataSize() > 4) {
                 tag.setOffset(offset);
                 offset += tag.getDataSize();
@@ -22,6 +22,7 @@ import android.util.Log;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.Charset;
 import java.util.Map.Entry;
@@ -209,13 +210,33 @@ public class ExifParser {
             Log.v(TAG, "Reading exif...");
         }
         mInterface = iRef;
-        mContainExifData = seekTiffData(inputStream);
+        mContainExifData = seekTiffData(new CountedDataInputStream(inputStream));
         mTiffStream = new CountedDataInputStream(inputStream);
         mOptions = options;
-        if (!mContainExifData) {
-            return;
+        if (mContainExifData) {
+            parseIfd0Header();
         }
+    }
 
+    private ExifParser(ByteBuffer buffer, int options, ExifInterface iRef)
+            throws IOException, ExifInvalidFormatException {
+        if (buffer == null) {
+            throw new IOException("Null argument buffer to ExifParser");
+        }
+        if (LOGV) {
+            Log.v(TAG, "Reading exif from buffer...");
+        }
+        mInterface = iRef;
+        ByteBufferDataInputStream dataStream = new ByteBufferDataInputStream(buffer);
+        mContainExifData = seekTiffData(dataStream);
+        mTiffStream = dataStream.fromHere();
+        mOptions = options;
+        if (mContainExifData) {
+            parseIfd0Header();
+        }
+    }
+
+    private void parseIfd0Header() throws IOException, ExifInvalidFormatException {
         parseTiffHeader();
         long offset = mTiffStream.readUnsignedInt();
         if (offset > Integer.MAX_VALUE) {
@@ -258,6 +279,23 @@ public class ExifParser {
                 | OPTION_THUMBNAIL, iRef);
     }
 
+    /**
+     * Parses the given ByteBuffer with default options. The buffer is read
+     * in place, from its current position, and seeking to an IFD or tag
+     * value just moves the read position rather than skipping bytes. The
+     * position of the buffer itself is not changed.
+     *
+     * @exception IOException
+     * @exception ExifInvalidFormatException
+     * @see #parse(InputStream, ExifInterface)
+     */
+    protected static ExifParser parse(ByteBuffer buffer, ExifInterface iRef)
+            throws IOException, ExifInvalidFormatException {
+        return new ExifParser(buffer, OPTION_IFD_0 | OPTION_IFD_1
+                | OPTION_IFD_EXIF | OPTION_IFD_GPS | OPTION_IFD_INTEROPERABILITY
+                | OPTION_THUMBNAIL, iRef);
+    }
+
     /**
      * Moves the parser forward and returns the next parsing event
      *
@@ -517,6 +555,27 @@ public class ExifParser {
         }
     }
 
+    /**
+     * When parsing a ByteBuffer, points the tag at its value in the buffer,
+     * to be decoded on first access, instead of registering for the value
+     * with {@link #registerForTagValue(ExifTag)}. This is not possible when
+     * parsing a stream, as the parser cannot go back for the value later,
+     * nor when the value lies beyond the end of APP1 or of the buffer (e.g.,
+     * for a truncated jpeg).
+     *
+     * @return true if the value was deferred
+     */
+    protected boolean deferTagValue(ExifTag tag) {
+        if (!(mTiffStream instanceof ByteBufferDataInputStream)) {
+            return false;
+        }
+        int offset = tag.getOffset();
+        if (offset < 0 || (long) offset + tag.getDataSize() > mApp1End) {
+            return false;
+        }
+        return ((ByteBufferDataInputStream) mTiffStream).deferValue(tag, offset);
+    }
+
     private void registerIfd(int ifdType, long offset) {
         // Cast unsigned int to int since the offset is always smaller
         // than the size of APP1 (65536)
@@ -751,9 +810,8 @@ public class ExifParser {
         }
     }
 
-    private boolean seekTiffData(InputStream inputStream) throws IOException,
+    private boolean seekTiffData(CountedDataInputStream dataStream) throws IOException,
             ExifInvalidFormatException {
-        CountedDataInputStream dataStream = new CountedDataInputStream(inputStream);
         if (dataStream.readShort() != JpegHeader.SOI) {
             throw new ExifInvalidFormatException("Invalid JPEG format");
         }
@@ -799,6 +857,20 @@ public class ExifParser {
     /**
      * Reads bytes from the InputStream.
      */
+    /**
+     * When parsing a ByteBuffer, returns the next length bytes as a buffer
+     * of their own, without copying them.
+     *
+     * @return the bytes, or null if parsing a stream or there are not
+     *         enough bytes left
+     */
+    protected ByteBuffer slice(int length) {
+        if (!(mTiffStream instanceof ByteBufferDataInputStream)) {
+            return null;
+        }
+        return ((ByteBufferDataInputStream) mTiffStream).slice(length);
+    }
+
     protected int read(byte[] buffer, int offset, int length) throws IOException {
         return mTiffStream.read(buffer, offset, length);
     }
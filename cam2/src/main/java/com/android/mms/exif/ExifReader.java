@@ -22,6 +22,7 @@ import android.util.Log;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
  * This class reads the EXIF header of a JPEG file and stores it in
@@ -45,7 +46,27 @@ class ExifReader {
      */
     protected ExifData read(InputStream inputStream) throws ExifInvalidFormatException,
             IOException {
-        ExifParser parser = ExifParser.parse(inputStream, mInterface);
+        return read(ExifParser.parse(inputStream, mInterface), false);
+    }
+
+    /**
+     * Parses the buffer in place, from its current position, and returns the
+     * EXIF data in an {@link ExifData}. The position of the buffer is not
+     * changed.
+     *
+     * @param lazy if true, out-of-line tag values and the compressed
+     *            thumbnail are left in the buffer and decoded on first
+     *            access, so the buffer must not be modified afterwards
+     * @throws ExifInvalidFormatException
+     * @throws IOException
+     */
+    protected ExifData read(ByteBuffer buffer, boolean lazy)
+            throws ExifInvalidFormatException, IOException {
+        return read(ExifParser.parse(buffer, mInterface), lazy);
+    }
+
+    private ExifData read(ExifParser parser, boolean lazy)
+            throws ExifInvalidFormatException, IOException {
         ExifData exifData = new ExifData(parser.getByteOrder());
         ExifTag tag = null;
 
@@ -57,7 +78,8 @@ class ExifReader {
                     break;
                 case ExifParser.EVENT_NEW_TAG:
                     tag = parser.getTag();
-                    if (!tag.hasValue()) {
+                    if (!tag.hasValue()
+                            && !(lazy && parser.deferTagValue(tag))) {
                         parser.registerForTagValue(tag);
                     } else {
                         exifData.getIfdData(tag.getIfd()).setTag(tag);
@@ -71,6 +93,12 @@ class ExifReader {
                     exifData.getIfdData(tag.getIfd()).setTag(tag);
                     break;
                 case ExifParser.EVENT_COMPRESSED_IMAGE:
+                    ByteBuffer slice = lazy ? parser.slice(parser.getCompressedImageSize())
+                            : null;
+                    if (slice != null) {
+                        exifData.setLazyCompressedThumbnail(slice);
+                        break;
+                    }
                     byte buf[] = new byte[parser.getCompressedImageSize()];
                     if (buf.length == parser.read(buf)) {
                         exifData.setCompressedThumbnail(buf);
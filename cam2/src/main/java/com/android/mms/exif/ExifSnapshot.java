@@ -0,0 +1,330 @@
+/***
+ Copyright (c) 2017 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.android.mms.exif;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+/**
+ * An immutable copy of the EXIF tags and compressed thumbnail of a JPEG.
+ * Unlike an {@link ExifInterface}, a snapshot can be shared between threads
+ * without locking: nothing in it changes after it is built, and it only
+ * hands out copies of its tags and arrays. Changes are made with
+ * {@link #edit()}, which returns a {@link Builder} for a new snapshot;
+ * tags that are not changed are shared between the two.
+ */
+public final class ExifSnapshot {
+    /**
+     * A snapshot with no tags and no thumbnail.
+     */
+    public static final ExifSnapshot EMPTY =
+            new ExifSnapshot(new TreeMap<Integer, ExifTag>(), null);
+
+    // tag constants (see ExifInterface.defineTag()), sorted, parallel to mTags
+    private final int[] mKeys;
+    private final ExifTag[] mTags;
+    private final byte[] mThumbnail;
+
+    private ExifSnapshot(TreeMap<Integer, ExifTag> tags, byte[] thumbnail) {
+        mKeys = new int[tags.size()];
+        mTags = new ExifTag[tags.size()];
+        int i = 0;
+        for (Map.Entry<Integer, ExifTag> entry : tags.entrySet()) {
+            mKeys[i] = entry.getKey();
+            mTags[i] = entry.getValue();
+            i++;
+        }
+        mThumbnail = thumbnail;
+    }
+
+    /**
+     * Reads the EXIF of a JPEG into a snapshot.
+     *
+     * @param jpeg a byte array containing a jpeg compressed image.
+     * @throws IOException if the EXIF could not be parsed
+     */
+    public static ExifSnapshot read(byte[] jpeg) throws IOException {
+        ExifInterface exif = new ExifInterface();
+        exif.readExif(jpeg);
+        return of(exif);
+    }
+
+    /**
+     * Copies the current tags and compressed thumbnail of an ExifInterface
+     * into a snapshot. Later changes to the ExifInterface do not affect the
+     * snapshot.
+     */
+    public static ExifSnapshot of(ExifInterface exif) {
+        TreeMap<Integer, ExifTag> tags = new TreeMap<Integer, ExifTag>();
+        List<ExifTag> all = exif.getAllTags();
+        if (all != null) {
+            for (ExifTag tag : all) {
+                tags.put(keyOf(tag), new ExifTag(tag));
+            }
+        }
+        byte[] thumbnail = exif.getThumbnail();
+        return new ExifSnapshot(tags, thumbnail == null ? null : thumbnail.clone());
+    }
+
+    /**
+     * @return a Builder for a new snapshot, starting from this one
+     */
+    public Builder edit() {
+        return new Builder(this);
+    }
+
+    /**
+     * @return the number of tags in this snapshot
+     */
+    public int getTagCount() {
+        return mTags.length;
+    }
+
+    /**
+     * Returns a copy of the tag in its default IFD for a defined tag
+     * constant, e.g. {@link ExifInterface#TAG_ORIENTATION}, or null if there
+     * is no such tag.
+     */
+    public ExifTag getTag(int tagId) {
+        return getTag(tagId, ExifInterface.getTrueIfd(tagId));
+    }
+
+    /**
+     * Returns a copy of the tag for an IFD other than the tag's default, or
+     * null if there is no such tag.
+     */
+    public ExifTag getTag(int tagId, int ifdId) {
+        ExifTag tag = find(tagId, ifdId);
+        return tag == null ? null : new ExifTag(tag);
+    }
+
+    /**
+     * @return copies of all of the tags, sorted by IFD and then by tag ID
+     */
+    public List<ExifTag> getAllTags() {
+        ArrayList<ExifTag> result = new ArrayList<ExifTag>(mTags.length);
+        for (ExifTag tag : mTags) {
+            result.add(new ExifTag(tag));
+        }
+        return result;
+    }
+
+    /**
+     * @return a copy of the tag's value, or null if there is no such tag
+     * @see ExifInterface#getTagValue(int)
+     */
+    public Object getTagValue(int tagId) {
+        ExifTag tag = getTag(tagId);
+        return tag == null ? null : tag.getValue();
+    }
+
+    /**
+     * @see ExifInterface#getTagStringValue(int)
+     */
+    public String getTagStringValue(int tagId) {
+        ExifTag tag = find(tagId, ExifInterface.getTrueIfd(tagId));
+        return tag == null ? null : tag.getValueAsString();
+    }
+
+    /**
+     * @see ExifInterface#getTagIntValue(int)
+     */
+    public Integer getTagIntValue(int tagId) {
+        ExifTag tag = find(tagId, ExifInterface.getTrueIfd(tagId));
+        if (tag == null) {
+            return null;
+        }
+        int[] values = tag.getValueAsInts();
+        return (values == null || values.length == 0) ? null : values[0];
+    }
+
+    /**
+     * @see ExifInterface#getTagLongValue(int)
+     */
+    public Long getTagLongValue(int tagId) {
+        ExifTag tag = find(tagId, ExifInterface.getTrueIfd(tagId));
+        if (tag == null) {
+            return null;
+        }
+        long[] values = tag.getValueAsLongs();
+        return (values == null || values.length == 0) ? null : values[0];
+    }
+
+    /**
+     * @see ExifInterface#getTagRationalValue(int)
+     */
+    public Rational getTagRationalValue(int tagId) {
+        ExifTag tag = find(tagId, ExifInterface.getTrueIfd(tagId));
+        return tag == null ? null : tag.getValueAsRational(null);
+    }
+
+    /**
+     * @return true if there is a compressed thumbnail
+     */
+    public boolean hasThumbnail() {
+        return mThumbnail != null;
+    }
+
+    /**
+     * @return a copy of the compressed thumbnail, or null if there is none
+     */
+    public byte[] getThumbnailBytes() {
+        return mThumbnail == null ? null : mThumbnail.clone();
+    }
+
+    /**
+     * Writes the JPEG to the stream, with its EXIF replaced by this
+     * snapshot's tags and thumbnail. This uses an ExifInterface of its own,
+     * so several threads may write from one snapshot at the same time.
+     *
+     * @param jpeg a byte array containing a jpeg compressed image.
+     * @param out where to write the jpeg
+     * @throws IOException
+     */
+    public void writeExif(byte[] jpeg, OutputStream out) throws IOException {
+        ExifInterface exif = new ExifInterface();
+        for (ExifTag tag : mTags) {
+            // the writer sets the offsets of the tags it is given
+            exif.setTag(new ExifTag(tag));
+        }
+        if (mThumbnail != null) {
+            exif.setCompressedThumbnail(mThumbnail);
+        }
+        exif.writeExif(jpeg, out);
+    }
+
+    private ExifTag find(int tagId, int ifdId) {
+        if (!ExifTag.isValidIfd(ifdId)) {
+            return null;
+        }
+        int index = Arrays.binarySearch(mKeys,
+                ExifInterface.defineTag(ifdId, ExifInterface.getTrueTagKey(tagId)));
+        return index >= 0 ? mTags[index] : null;
+    }
+
+    private static int keyOf(ExifTag tag) {
+        return ExifInterface.defineTag(tag.getIfd(), tag.getTagId());
+    }
+
+    /**
+     * Makes a new {@link ExifSnapshot} from an existing one. A Builder is
+     * meant to be used by one thread; the snapshots it builds may be shared.
+     */
+    public static final class Builder {
+        private final TreeMap<Integer, ExifTag> mTags = new TreeMap<Integer, ExifTag>();
+        private byte[] mThumbnail;
+        // only used to build tags, with the default tag definitions
+        private ExifInterface mDefinitions;
+
+        private Builder(ExifSnapshot snapshot) {
+            for (int i = 0; i < snapshot.mKeys.length; i++) {
+                mTags.put(snapshot.mKeys[i], snapshot.mTags[i]);
+            }
+            mThumbnail = snapshot.mThumbnail;
+        }
+
+        /**
+         * Sets a tag in its default IFD, replacing any existing one.
+         *
+         * @param tagId a defined tag constant, e.g.
+         *            {@link ExifInterface#TAG_ORIENTATION}
+         * @param value the value, as for {@link ExifInterface#buildTag}
+         * @throws IllegalArgumentException if the tag is not defined or the
+         *             value is not valid for it
+         */
+        public Builder setTag(int tagId, Object value) {
+            if (mDefinitions == null) {
+                mDefinitions = new ExifInterface();
+            }
+            ExifTag tag = mDefinitions.buildTag(tagId, value);
+            if (tag == null) {
+                throw new IllegalArgumentException("Invalid value for tag "
+                        + Integer.toHexString(tagId) + ": " + value);
+            }
+            // buildTag() may keep a reference to the caller's array
+            return setTag(tag);
+        }
+
+        /**
+         * Sets a copy of the tag, in the IFD it was built for, replacing any
+         * existing one.
+         */
+        public Builder setTag(ExifTag tag) {
+            mTags.put(keyOf(tag), new ExifTag(tag));
+            return this;
+        }
+
+        /**
+         * Sets one of {@link ExifInterface#TAG_DATE_TIME},
+         * {@link ExifInterface#TAG_DATE_TIME_DIGITIZED}, or
+         * {@link ExifInterface#TAG_DATE_TIME_ORIGINAL}.
+         *
+         * @see ExifInterface#addDateTimeStampTag(int, long, TimeZone)
+         */
+        public Builder setDateTime(int tagId, long timestamp, TimeZone timezone) {
+            if (tagId != ExifInterface.TAG_DATE_TIME
+                    && tagId != ExifInterface.TAG_DATE_TIME_DIGITIZED
+                    && tagId != ExifInterface.TAG_DATE_TIME_ORIGINAL) {
+                throw new IllegalArgumentException("Not a date/time tag: "
+                        + Integer.toHexString(tagId));
+            }
+            return setTag(tagId, ExifFormat.formatDateTime(timestamp, timezone));
+        }
+
+        /**
+         * Removes the tag from its default IFD, if it is there.
+         */
+        public Builder removeTag(int tagId) {
+            return removeTag(tagId, ExifInterface.getTrueIfd(tagId));
+        }
+
+        /**
+         * Removes the tag from the given IFD, if it is there.
+         */
+        public Builder removeTag(int tagId, int ifdId) {
+            mTags.remove(ExifInterface.defineTag(ifdId, ExifInterface.getTrueTagKey(tagId)));
+            return this;
+        }
+
+        /**
+         * Sets a copy of the given jpeg as the compressed thumbnail, or
+         * removes the thumbnail if it is null.
+         */
+        public Builder setThumbnail(byte[] thumbnail) {
+            mThumbnail = thumbnail == null ? null : thumbnail.clone();
+            return this;
+        }
+
+        /**
+         * Removes the compressed thumbnail, if there is one.
+         */
+        public Builder removeThumbnail() {
+            return setThumbnail(null);
+        }
+
+        /**
+         * @return a new snapshot with the changes made so far
+         */
+        public ExifSnapshot build() {
+            return new ExifSnapshot(mTags, mThumbnail);
+        }
+    }
+}
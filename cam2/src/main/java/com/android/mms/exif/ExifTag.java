@@ -16,10 +16,10 @@
 
 package com.android.mms.exif;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
-import java.text.SimpleDateFormat;
 import java.util.Arrays;
-import java.util.Date;
+import java.util.TimeZone;
 
 /**
  * This class stores information of an EXIF tag. For more information about
@@ -101,8 +101,9 @@ public class ExifTag {
     private Object mValue;
     // Value offset in exif header.
     private int mOffset;
-
-    private static final SimpleDateFormat TIME_FORMAT = new SimpleDateFormat("yyyy:MM:dd kk:mm:ss");
+    // Where the value is in the parsed buffer, if it has not been decoded yet
+    private ByteBuffer mLazySource;
+    private int mLazyPosition;
 
     /**
      * Returns true if the given IFD is a valid IFD.
@@ -123,6 +124,29 @@ public class ExifTag {
                 type == TYPE_LONG || type == TYPE_RATIONAL;
     }
 
+    /**
+     * Creates a deep copy of the given tag. A value that was being decoded
+     * lazily is decoded first.
+     */
+    ExifTag(ExifTag tag) {
+        mTagId = tag.mTagId;
+        mDataType = tag.mDataType;
+        mHasDefinedDefaultComponentCount = tag.mHasDefinedDefaultComponentCount;
+        mComponentCountActual = tag.mComponentCountActual;
+        mIfd = tag.mIfd;
+        mOffset = tag.mOffset;
+        Object value = tag.getValue();
+        if (value instanceof long[]) {
+            mValue = ((long[]) value).clone();
+        } else if (value instanceof byte[]) {
+            mValue = ((byte[]) value).clone();
+        } else if (value instanceof Rational[]) {
+            mValue = ((Rational[]) value).clone();
+        } else {
+            mValue = value;
+        }
+    }
+
     // Use builtTag in ExifInterface instead of constructor.
     ExifTag(short tagId, short type, int componentCount, int ifd,
             boolean hasDefinedComponentCount) {
@@ -219,7 +243,7 @@ public class ExifTag {
      * contain an offset value that is determined when the tag is written.
      */
     public boolean hasValue() {
-        return mValue != null;
+        return mValue != null || mLazySource != null;
     }
 
     /**
@@ -252,6 +276,7 @@ public class ExifTag {
             data[i] = value[i];
         }
         mValue = data;
+        mLazySource = null;
         mComponentCountActual = value.length;
         return true;
     }
@@ -291,6 +316,7 @@ public class ExifTag {
             return false;
         }
         mValue = value;
+        mLazySource = null;
         mComponentCountActual = value.length;
         return true;
     }
@@ -343,6 +369,7 @@ public class ExifTag {
         }
         mComponentCountActual = count;
         mValue = finalBuf;
+        mLazySource = null;
         return true;
     }
 
@@ -374,6 +401,7 @@ public class ExifTag {
         }
 
         mValue = value;
+        mLazySource = null;
         mComponentCountActual = value.length;
         return true;
     }
@@ -416,6 +444,7 @@ public class ExifTag {
             return false;
         }
         mValue = new byte[length];
+        mLazySource = null;
         System.arraycopy(value, offset, mValue, 0, length);
         mComponentCountActual = length;
         return true;
@@ -516,7 +545,7 @@ public class ExifTag {
 
     /**
      * Sets a timestamp to this tag. The method converts the timestamp with the
-     * format of "yyyy:MM:dd kk:mm:ss" and calls {@link #setValue(String)}. This
+     * format of "yyyy:MM:dd HH:mm:ss" and calls {@link #setValue(String)}. This
      * method will fail if the data type is not {@link #TYPE_ASCII} or the
      * component count of this tag is not 20 or undefined.
      *
@@ -524,10 +553,7 @@ public class ExifTag {
      * @return true on success
      */
     public boolean setTimeValue(long time) {
-        // synchronized on TIME_FORMAT as SimpleDateFormat is not thread safe
-        synchronized (TIME_FORMAT) {
-            return setValue(TIME_FORMAT.format(new Date(time)));
-        }
+        return setValue(ExifFormat.formatDateTime(time, TimeZone.getDefault()));
     }
 
     /**
@@ -538,12 +564,12 @@ public class ExifTag {
      *         or cannot be converted to a String.
      */
     public String getValueAsString() {
-        if (mValue == null) {
+        if (getValue() == null) {
             return null;
-        } else if (mValue instanceof String) {
-            return (String) mValue;
-        } else if (mValue instanceof byte[]) {
-            return new String((byte[]) mValue, US_ASCII);
+        } else if (getValue() instanceof String) {
+            return (String) getValue();
+        } else if (getValue() instanceof byte[]) {
+            return new String((byte[]) getValue(), US_ASCII);
         }
         return null;
     }
@@ -572,8 +598,8 @@ public class ExifTag {
      *         exist or cannot be converted to a byte array.
      */
     public byte[] getValueAsBytes() {
-        if (mValue instanceof byte[]) {
-            return (byte[]) mValue;
+        if (getValue() instanceof byte[]) {
+            return (byte[]) getValue();
         }
         return null;
     }
@@ -603,8 +629,8 @@ public class ExifTag {
      *         does not exist or cannot be converted to an array of Rationals.
      */
     public Rational[] getValueAsRationals() {
-        if (mValue instanceof Rational[]) {
-            return (Rational[]) mValue;
+        if (getValue() instanceof Rational[]) {
+            return (Rational[]) getValue();
         }
         return null;
     }
@@ -649,10 +675,10 @@ public class ExifTag {
      *         not exist or cannot be converted to an array of ints.
      */
     public int[] getValueAsInts() {
-        if (mValue == null) {
+        if (getValue() == null) {
             return null;
-        } else if (mValue instanceof long[]) {
-            long[] val = (long[]) mValue;
+        } else if (getValue() instanceof long[]) {
+            long[] val = (long[]) getValue();
             int[] arr = new int[val.length];
             for (int i = 0; i < val.length; i++) {
                 arr[i] = (int) val[i]; // Truncates
@@ -687,8 +713,8 @@ public class ExifTag {
      *         does not exist or cannot be converted to an array of longs.
      */
     public long[] getValueAsLongs() {
-        if (mValue instanceof long[]) {
-            return (long[]) mValue;
+        if (getValue() instanceof long[]) {
+            return (long[]) getValue();
         }
         return null;
     }
@@ -714,6 +740,9 @@ public class ExifTag {
      * Gets the tag's value or null if none exists.
      */
     public Object getValue() {
+        if (mLazySource != null) {
+            decodeLazyValue();
+        }
         return mValue;
     }
 
@@ -745,33 +774,33 @@ public class ExifTag {
      * Gets a string representation of the value.
      */
     public String forceGetValueAsString() {
-        if (mValue == null) {
+        if (getValue() == null) {
             return "";
-        } else if (mValue instanceof byte[]) {
+        } else if (getValue() instanceof byte[]) {
             if (mDataType == TYPE_ASCII) {
-                return new String((byte[]) mValue, US_ASCII);
+                return new String((byte[]) getValue(), US_ASCII);
             } else {
-                return Arrays.toString((byte[]) mValue);
+                return Arrays.toString((byte[]) getValue());
             }
-        } else if (mValue instanceof long[]) {
-            if (((long[]) mValue).length == 1) {
-                return String.valueOf(((long[]) mValue)[0]);
+        } else if (getValue() instanceof long[]) {
+            if (((long[]) getValue()).length == 1) {
+                return String.valueOf(((long[]) getValue())[0]);
             } else {
-                return Arrays.toString((long[]) mValue);
+                return Arrays.toString((long[]) getValue());
             }
-        } else if (mValue instanceof Object[]) {
-            if (((Object[]) mValue).length == 1) {
-                Object val = ((Object[]) mValue)[0];
+        } else if (getValue() instanceof Object[]) {
+            if (((Object[]) getValue()).length == 1) {
+                Object val = ((Object[]) getValue())[0];
                 if (val == null) {
                     return "";
                 } else {
                     return val.toString();
                 }
             } else {
-                return Arrays.toString((Object[]) mValue);
+                return Arrays.toString((Object[]) getValue());
             }
         } else {
-            return mValue.toString();
+            return getValue().toString();
         }
     }
 
@@ -786,10 +815,10 @@ public class ExifTag {
      *                {@link #TYPE_RATIONAL} or {@link #TYPE_UNSIGNED_RATIONAL}.
      */
     protected long getValueAt(int index) {
-        if (mValue instanceof long[]) {
-            return ((long[]) mValue)[index];
-        } else if (mValue instanceof byte[]) {
-            return ((byte[]) mValue)[index];
+        if (getValue() instanceof long[]) {
+            return ((long[]) getValue())[index];
+        } else if (getValue() instanceof byte[]) {
+            return ((byte[]) getValue())[index];
         }
         throw new IllegalArgumentException("Cannot get integer value from "
                 + convertTypeToString(mDataType));
@@ -806,14 +835,14 @@ public class ExifTag {
             throw new IllegalArgumentException("Cannot get ASCII value from "
                     + convertTypeToString(mDataType));
         }
-        return new String((byte[]) mValue, US_ASCII);
+        return new String((byte[]) getValue(), US_ASCII);
     }
 
     /*
      * Get the converted ascii byte. Used by ExifOutputStream.
      */
     protected byte[] getStringByte() {
-        return (byte[]) mValue;
+        return (byte[]) getValue();
     }
 
     /**
@@ -827,7 +856,7 @@ public class ExifTag {
             throw new IllegalArgumentException("Cannot get RATIONAL value from "
                     + convertTypeToString(mDataType));
         }
-        return ((Rational[]) mValue)[index];
+        return ((Rational[]) getValue())[index];
     }
 
     /**
@@ -852,7 +881,7 @@ public class ExifTag {
             throw new IllegalArgumentException("Cannot get BYTE value from "
                     + convertTypeToString(mDataType));
         }
-        System.arraycopy(mValue, 0, buf, offset,
+        System.arraycopy(getValue(), 0, buf, offset,
                 (length > mComponentCountActual) ? mComponentCountActual : length);
     }
 
@@ -871,6 +900,94 @@ public class ExifTag {
         mOffset = offset;
     }
 
+    /**
+     * Points this tag at its value in a buffer, to be decoded on first
+     * access. The buffer's byte order is used for decoding, and the buffer
+     * must not be modified while the value is still undecoded.
+     *
+     * @param source the buffer holding the value
+     * @param position the absolute position of the value in source
+     */
+    protected void setLazyValue(ByteBuffer source, int position) {
+        mValue = null;
+        mLazySource = source;
+        mLazyPosition = position;
+    }
+
+    private void decodeLazyValue() {
+        ByteBuffer source = mLazySource;
+        mLazySource = null;
+        // The parser checks this when deferring the value, but if the value
+        // is not all there anyway, leave it unset rather than throw.
+        long size = (long) mComponentCountActual * getElementSize(mDataType);
+        if (mLazyPosition < 0 || mLazyPosition + size > source.limit()) {
+            return;
+        }
+        ByteBuffer in = source.duplicate();
+        in.order(source.order());
+        in.position(mLazyPosition);
+
+        switch (mDataType) {
+            case TYPE_UNSIGNED_BYTE:
+            case TYPE_UNDEFINED: {
+                byte buf[] = new byte[mComponentCountActual];
+                in.get(buf);
+                setValue(buf);
+            }
+                break;
+            case TYPE_ASCII: {
+                byte buf[] = new byte[mComponentCountActual];
+                in.get(buf);
+                setValue(new String(buf, US_ASCII));
+            }
+                break;
+            case TYPE_UNSIGNED_LONG: {
+                long value[] = new long[mComponentCountActual];
+                for (int i = 0, n = value.length; i < n; i++) {
+                    value[i] = in.getInt() & 0xffffffffL;
+                }
+                setValue(value);
+            }
+                break;
+            case TYPE_UNSIGNED_RATIONAL: {
+                Rational value[] = new Rational[mComponentCountActual];
+                for (int i = 0, n = value.length; i < n; i++) {
+                    long nomi = in.getInt() & 0xffffffffL;
+                    long denomi = in.getInt() & 0xffffffffL;
+                    value[i] = new Rational(nomi, denomi);
+                }
+                setValue(value);
+            }
+                break;
+            case TYPE_UNSIGNED_SHORT: {
+                int value[] = new int[mComponentCountActual];
+                for (int i = 0, n = value.length; i < n; i++) {
+                    value[i] = in.getShort() & 0xffff;
+                }
+                setValue(value);
+            }
+                break;
+            case TYPE_LONG: {
+                int value[] = new int[mComponentCountActual];
+                for (int i = 0, n = value.length; i < n; i++) {
+                    value[i] = in.getInt();
+                }
+                setValue(value);
+            }
+                break;
+            case TYPE_RATIONAL: {
+                Rational value[] = new Rational[mComponentCountActual];
+                for (int i = 0, n = value.length; i < n; i++) {
+                    int nomi = in.getInt();
+                    int denomi = in.getInt();
+                    value[i] = new Rational(nomi, denomi);
+                }
+                setValue(value);
+            }
+                break;
+        }
+    }
+
     protected void setHasDefinedCount(boolean d) {
         mHasDefinedDefaultComponentCount = d;
     }
@@ -970,29 +1087,31 @@ public class ExifTag {
                     || tag.mDataType != this.mDataType) {
                 return false;
             }
-            if (mValue != null) {
-                if (tag.mValue == null) {
+            Object value = getValue();
+            Object other = tag.getValue();
+            if (value != null) {
+                if (other == null) {
                     return false;
-                } else if (mValue instanceof long[]) {
-                    if (!(tag.mValue instanceof long[])) {
+                } else if (value instanceof long[]) {
+                    if (!(other instanceof long[])) {
                         return false;
                     }
-                    return Arrays.equals((long[]) mValue, (long[]) tag.mValue);
-                } else if (mValue instanceof Rational[]) {
-                    if (!(tag.mValue instanceof Rational[])) {
+                    return Arrays.equals((long[]) value, (long[]) other);
+                } else if (value instanceof Rational[]) {
+                    if (!(other instanceof Rational[])) {
                         return false;
                     }
-                    return Arrays.equals((Rational[]) mValue, (Rational[]) tag.mValue);
-                } else if (mValue instanceof byte[]) {
-                    if (!(tag.mValue instanceof byte[])) {
+                    return Arrays.equals((Rational[]) value, (Rational[]) other);
+                } else if (value instanceof byte[]) {
+                    if (!(other instanceof byte[])) {
                         return false;
                     }
-                    return Arrays.equals((byte[]) mValue, (byte[]) tag.mValue);
+                    return Arrays.equals((byte[]) value, (byte[]) other);
                 } else {
-                    return mValue.equals(tag.mValue);
+                    return value.equals(other);
                 }
             } else {
-                return tag.mValue == null;
+                return other == null;
             }
         }
         return false;
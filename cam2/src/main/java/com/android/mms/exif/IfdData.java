@@ -16,11 +16,13 @@
 
 package com.android.mms.exif;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
- * This class stores all the tags in an IFD.
+ * This class stores all the tags in an IFD. Tags are kept sorted by tag ID,
+ * in the ascending unsigned order that TIFF requires for writing, in
+ * parallel arrays of IDs and tags, so lookups are a binary search and
+ * nothing is boxed.
  *
  * @see ExifData
  * @see ExifTag
@@ -28,7 +30,10 @@ import java.util.Map;
 class IfdData {
 
     private final int mIfdId;
-    private final Map<Short, ExifTag> mExifTags = new HashMap<Short, ExifTag>();
+    private static final int INITIAL_CAPACITY = 16;
+    private short[] mTagIds = new short[INITIAL_CAPACITY];
+    private ExifTag[] mTags = new ExifTag[INITIAL_CAPACITY];
+    private int mTagCount = 0;
     private int mOffsetToNextIfd = 0;
     private static final int[] sIfds = {
             IfdId.TYPE_IFD_0, IfdId.TYPE_IFD_1, IfdId.TYPE_IFD_EXIF,
@@ -52,10 +57,24 @@ class IfdData {
     }
 
     /**
-     * Get a array the contains all {@link ExifTag} in this IFD.
+     * Get a array the contains all {@link ExifTag} in this IFD, sorted by
+     * tag ID.
      */
     protected ExifTag[] getAllTags() {
-        return mExifTags.values().toArray(new ExifTag[mExifTags.size()]);
+        return Arrays.copyOf(mTags, mTagCount);
+    }
+
+    /**
+     * Gets the tag at the given index, from 0 to {@link #getTagCount()} - 1.
+     * Tags are sorted by tag ID. Together with getTagCount(), this allows
+     * iterating over the tags without allocating, as long as the IFD is not
+     * modified meanwhile.
+     */
+    protected ExifTag getTagAt(int index) {
+        if (index >= mTagCount) {
+            throw new IndexOutOfBoundsException("Index " + index + " of " + mTagCount);
+        }
+        return mTags[index];
     }
 
     /**
@@ -76,7 +95,8 @@ class IfdData {
      * such tag.
      */
     protected ExifTag getTag(short tagId) {
-        return mExifTags.get(tagId);
+        int index = indexOf(tagId);
+        return index >= 0 ? mTags[index] : null;
     }
 
     /**
@@ -84,25 +104,73 @@ class IfdData {
      */
     protected ExifTag setTag(ExifTag tag) {
         tag.setIfd(mIfdId);
-        return mExifTags.put(tag.getTagId(), tag);
+        short tagId = tag.getTagId();
+        int index = indexOf(tagId);
+        if (index >= 0) {
+            ExifTag old = mTags[index];
+            mTags[index] = tag;
+            return old;
+        }
+        index = -index - 1;
+        if (mTagCount == mTagIds.length) {
+            mTagIds = Arrays.copyOf(mTagIds, mTagCount * 2);
+            mTags = Arrays.copyOf(mTags, mTagCount * 2);
+        }
+        System.arraycopy(mTagIds, index, mTagIds, index + 1, mTagCount - index);
+        System.arraycopy(mTags, index, mTags, index + 1, mTagCount - index);
+        mTagIds[index] = tagId;
+        mTags[index] = tag;
+        mTagCount++;
+        return null;
     }
 
     protected boolean checkCollision(short tagId) {
-        return mExifTags.get(tagId) != null;
+        return indexOf(tagId) >= 0;
     }
 
     /**
      * Removes the tag of the given ID
      */
     protected void removeTag(short tagId) {
-        mExifTags.remove(tagId);
+        int index = indexOf(tagId);
+        if (index < 0) {
+            return;
+        }
+        mTagCount--;
+        System.arraycopy(mTagIds, index + 1, mTagIds, index, mTagCount - index);
+        System.arraycopy(mTags, index + 1, mTags, index, mTagCount - index);
+        mTags[mTagCount] = null;
     }
 
     /**
      * Gets the tags count in the IFD.
      */
     protected int getTagCount() {
-        return mExifTags.size();
+        return mTagCount;
+    }
+
+    /**
+     * Binary search for a tag ID, comparing IDs as unsigned.
+     *
+     * @return the index of the tag, or (-(insertion point) - 1) if there is
+     *         no tag with that ID
+     */
+    private int indexOf(short tagId) {
+        int key = tagId & 0xffff;
+        int low = 0;
+        int high = mTagCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midKey = mTagIds[mid] & 0xffff;
+            if (midKey < key) {
+                low = mid + 1;
+            } else if (midKey > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
     }
 
     /**
@@ -134,12 +202,12 @@ class IfdData {
         if (obj instanceof IfdData) {
             IfdData data = (IfdData) obj;
             if (data.getId() == mIfdId && data.getTagCount() == getTagCount()) {
-                ExifTag[] tags = data.getAllTags();
-                for (ExifTag tag : tags) {
+                for (int i = 0, n = data.getTagCount(); i < n; i++) {
+                    ExifTag tag = data.getTagAt(i);
                     if (ExifInterface.isOffsetTag(tag.getTagId())) {
                         continue;
                     }
-                    ExifTag tag2 = mExifTags.get(tag.getTagId());
+                    ExifTag tag2 = getTag(tag.getTagId());
                     if (!tag.equals(tag2)) {
                         return false;
                     }
@@ -29,6 +29,16 @@ class OrderedDataOutputStream extends FilterOutputStream {
         super(out);
     }
 
+    /**
+     * Writes the bytes in one call to the underlying stream, rather than
+     * one byte at a time as FilterOutputStream does; tag values such as
+     * maker notes and thumbnails can be tens of kilobytes.
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+    }
+
     public OrderedDataOutputStream setByteOrder(ByteOrder order) {
         mByteBuffer.order(order);
         return this;
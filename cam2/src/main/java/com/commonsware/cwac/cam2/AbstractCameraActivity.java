@@ -125,9 +125,10 @@ abstract public class AbstractCameraActivity extends Activity {
     public static final String EXTRA_FORCE_CLASSIC = "cwac_cam2_force_classic";
 
     /**
-     * If set to a CameraEngine.ID value (CLASSIC or CAMERA2), will
-     * force the use of that engine. If left null/unset, the default
-     * is based on what device we are running on.
+     * If set to a CameraEngine.ID value (CLASSIC, CAMERA2, or
+     * SYNTHETIC), will force the use of that engine. If left
+     * null/unset, the default is based on what device we are
+     * running on.
      */
     public static final String EXTRA_FORCE_ENGINE = "cwac_cam2_force_engine";
 
@@ -37,4 +37,32 @@ abstract public class AbstractImageProcessor implements ImageProcessor {
   protected Context getContext() {
     return(ctxt);
   }
+
+  /**
+   * Gives each picture of a burst its own file, by inserting
+   * the burst index ahead of the extension (e.g., foo.jpg
+   * becomes foo-3.jpg). Pictures not taken in a burst keep
+   * the path as-is. Only file outputs can be handled this way;
+   * each picture of a burst overwrites a content Uri output.
+   *
+   * @param path the output path, including the extension
+   * @param extension the extension, including the leading dot
+   * @param burstIndex the value of getBurstIndex() for the
+   *                   picture being written
+   * @return the path to write this picture to
+   */
+  protected static String getBurstPath(String path, String extension,
+                                       int burstIndex) {
+    if (burstIndex<0) {
+      return(path);
+    }
+
+    int dot=path.lastIndexOf(extension);
+
+    if (dot<0) {
+      return(path+"-"+burstIndex);
+    }
+
+    return(path.substring(0, dot)+"-"+burstIndex+path.substring(dot));
+  }
 }
@@ -60,6 +60,7 @@ public class CameraController implements CameraView.StateCallback {
   private final boolean isVideo;
   private FlashModePlugin flashModePlugin;
   private int zoomLevel=0;
+  private ZoomScheduler zoomScheduler;
   private int quality=0;
   private final ResultReceiver onError;
 
@@ -68,6 +69,11 @@ public class CameraController implements CameraView.StateCallback {
     private ImageSizeChooser previewImageSizeChooser;
 
     private int jpegQuality = 100;
+  private int imageReaderDepth=SizeAndFormatPlugin.DEFAULT_MAX_IMAGES;
+  private boolean zeroShutterLag=false;
+  private long maxFocusWait=CameraSession.DEFAULT_MAX_FOCUS_WAIT;
+  private FrameProcessor frameProcessor;
+  private int frameProcessorThreads=1;
 
     public CameraController(FocusMode focusMode,
                           ResultReceiver onError,
@@ -101,6 +107,7 @@ public class CameraController implements CameraView.StateCallback {
   public void setEngine(CameraEngine engine,
                         CameraSelectionCriteria criteria) {
     this.engine=engine;
+    zoomScheduler=new ZoomScheduler(engine);
 
     AbstractCameraActivity.BUS.register(this);
 
@@ -140,6 +147,7 @@ public class CameraController implements CameraView.StateCallback {
       CameraSession temp=session;
 
       session=null;
+      zoomScheduler.reset();
       engine.close(temp);
       // session.destroy(); -- moved into engines
     }
@@ -229,6 +237,21 @@ public class CameraController implements CameraView.StateCallback {
     }
   }
 
+  /**
+   * Takes a burst of pictures, in accordance with the details
+   * supplied in the PictureTransaction. Subscribe to the
+   * BurstFrameTakenEvent to get the results of each picture.
+   *
+   * @param xact a PictureTransaction describing what should be taken
+   * @param count the number of pictures to take
+   */
+  public void takeBurst(PictureTransaction xact, int count) {
+    if (session!=null) {
+      AbstractCameraActivity.BUS.post(new PictureCaptureStartEvent());
+      engine.takeBurst(session, count, xact);
+    }
+  }
+
   public void recordVideo(VideoTransaction xact) throws Exception {
     if (session!=null) {
       engine.recordVideo(session, xact);
@@ -251,6 +274,57 @@ public class CameraController implements CameraView.StateCallback {
     this.quality=quality;
   }
 
+  /**
+   * Sets how many pictures the camera2 ImageReader can hold at
+   * once. Raise this if you use takeBurst(). Takes effect the
+   * next time a camera is opened.
+   *
+   * @param imageReaderDepth the maximum number of images
+   */
+  public void setImageReaderDepth(int imageReaderDepth) {
+    this.imageReaderDepth=imageReaderDepth;
+  }
+
+  /**
+   * Sets whether pictures should come from a buffer of recent
+   * full-resolution frames, for near-zero shutter lag. See
+   * setZeroShutterLag() on CameraSession. Takes effect the next
+   * time a camera is opened. Raises the ImageReader depth to
+   * SizeAndFormatPlugin.MIN_ZERO_SHUTTER_LAG_MAX_IMAGES if
+   * setImageReaderDepth() asked for less.
+   *
+   * @param zeroShutterLag true to use zero-shutter-lag capture,
+   *                       false otherwise
+   */
+  public void setZeroShutterLag(boolean zeroShutterLag) {
+    this.zeroShutterLag=zeroShutterLag;
+  }
+
+  /**
+   * Sets how long to wait for focus and exposure to settle before
+   * taking a picture anyway. See setMaxFocusWait() on
+   * CameraSession. Takes effect the next time a camera is opened.
+   *
+   * @param maxFocusWait the maximum wait, in milliseconds
+   */
+  public void setMaxFocusWait(long maxFocusWait) {
+    this.maxFocusWait=maxFocusWait;
+  }
+
+  /**
+   * Registers a FrameProcessor to receive preview frames. See
+   * setFrameProcessor() on CameraSession. Takes effect the next
+   * time a camera is opened.
+   *
+   * @param frameProcessor the FrameProcessor, or null for none
+   * @param threadCount how many frames to process in parallel
+   */
+  public void setFrameProcessor(FrameProcessor frameProcessor,
+                                int threadCount) {
+    this.frameProcessor=frameProcessor;
+    this.frameProcessorThreads=threadCount;
+  }
+
     public void setOutputImageSizeChooser(ImageSizeChooser imageSizeChooser) {
         this.outputImageSizeChooser = imageSizeChooser;
     }
@@ -277,6 +351,21 @@ public class CameraController implements CameraView.StateCallback {
     return (currentCamera);
   }
 
+  /**
+   * @return startup time and frame pacing for the current
+   * camera's preview, or null if there is no preview yet. These
+   * are also posted periodically as FramePacingMonitor.StatsEvent.
+   */
+  public FramePacingMonitor.Stats getFramePacingStats() {
+    if (cameras==null) {
+      return (null);
+    }
+
+    CameraView cv=previews.get(cameras.get(currentCamera));
+
+    return (cv==null ? null : cv.getFramePacingMonitor().getStats());
+  }
+
   public void setCurrentCamera(int currentCamera) {
     this.currentCamera=currentCamera;
   }
@@ -301,7 +390,7 @@ public class CameraController implements CameraView.StateCallback {
       zoomLevel=100;
     }
 
-    return (engine.zoomTo(session, zoomLevel));
+    return (zoomScheduler.request(session, zoomLevel));
   }
 
   private CameraView getPreview(CameraDescriptor camera) {
@@ -370,7 +459,11 @@ public class CameraController implements CameraView.StateCallback {
         session=engine
           .buildSession(cv.getContext(), camera)
           .addPlugin(new SizeAndFormatPlugin(previewSize,
-            pictureSize, ImageFormat.JPEG, jpegQuality))
+            pictureSize, ImageFormat.JPEG, jpegQuality,
+            zeroShutterLag ?
+              Math.max(imageReaderDepth,
+                SizeAndFormatPlugin.MIN_ZERO_SHUTTER_LAG_MAX_IMAGES) :
+              imageReaderDepth))
           .addPlugin(new OrientationPlugin(cv.getContext()))
           .addPlugin(
             new FocusModePlugin(cv.getContext(), focusMode, isVideo))
@@ -378,6 +471,10 @@ public class CameraController implements CameraView.StateCallback {
           .build();
 
         session.setPreviewSize(previewSize);
+        session.setZeroShutterLag(zeroShutterLag);
+        session.setMaxFocusWait(maxFocusWait);
+        session.setFrameProcessor(frameProcessor, frameProcessorThreads);
+        cv.getFramePacingMonitor().onOpen();
         engine.open(session, texture);
       }
     }
@@ -458,6 +555,13 @@ public class CameraController implements CameraView.StateCallback {
     }
   }
 
+  @SuppressWarnings("unused")
+  @Subscribe(threadMode=ThreadMode.MAIN)
+  public void onEventMainThread(
+    CameraEngine.SmoothZoomCompletedEvent event) {
+    zoomScheduler.onSmoothZoomCompleted();
+  }
+
   @SuppressWarnings("unused")
   @Subscribe(threadMode=ThreadMode.MAIN)
   public void onEventMainThread(CameraEngine.DeepImpactEvent event) {
@@ -22,9 +22,7 @@ import org.greenrobot.eventbus.EventBus;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 
 /**
  * Base class for camera engines, which abstract out camera
@@ -32,15 +30,13 @@ import java.util.concurrent.TimeUnit;
  * android.hardware.camera2.*).
  */
 abstract public class CameraEngine {
-  private static final int CORE_POOL_SIZE=1;
-  private static final int MAX_POOL_SIZE=Runtime.getRuntime().availableProcessors();
-  private static final int KEEP_ALIVE_SECONDS=60;
   private static volatile CameraEngine singletonClassic=null;
   private static volatile CameraEngine singletonTwo=null;
+  private static volatile CameraEngine singletonSynthetic=null;
   private EventBus bus=AbstractCameraActivity.BUS;
   private boolean isDebug=false;
-  private LinkedBlockingQueue<Runnable> queue=new LinkedBlockingQueue<Runnable>();
-  private ThreadPoolExecutor pool;
+  private CameraScheduler scheduler;
+  private final CaptureHistogram captureHistogram=new CaptureHistogram();
   private File savePreviewFile=null;
   protected List<FlashMode> preferredFlashModes;
   protected ArrayList<FlashMode> eligibleFlashModes=
@@ -48,7 +44,13 @@ abstract public class CameraEngine {
 
   public enum ID {
     CLASSIC,
-    CAMERA2
+    CAMERA2,
+
+    /**
+     * No camera at all; see SyntheticCameraEngine. Only used
+     * if requested explicitly.
+     */
+    SYNTHETIC
   }
 
   private static class CrashableEvent {
@@ -142,8 +144,30 @@ abstract public class CameraEngine {
     }
   }
 
+  /**
+   * Event raised when the device has been turned to a new
+   * orientation. Raised once per 90-degree change, not once per
+   * sensor reading.
+   */
   public static class OrientationChangedEvent {
+    private final int rotation;
+
+    public OrientationChangedEvent() {
+      this(-1);
+    }
 
+    public OrientationChangedEvent(int rotation) {
+      this.rotation=rotation;
+    }
+
+    /**
+     * @return the device orientation, in degrees (0, 90, 180,
+     * or 270), as reported by OrientationEventListener and
+     * rounded to the nearest quadrant, or -1 if unknown
+     */
+    public int getRotation() {
+      return(rotation);
+    }
   }
 
   public static class SmoothZoomCompletedEvent {
@@ -158,6 +182,8 @@ abstract public class CameraEngine {
   public static class PictureTakenEvent extends CrashableEvent {
     private ImageContext imageContext;
     private PictureTransaction xact;
+    private long captureLatency=-1;
+    private CaptureTimeline timeline;
 
     public PictureTakenEvent(PictureTransaction xact,
                              ImageContext imageContext) {
@@ -166,10 +192,98 @@ abstract public class CameraEngine {
       this.imageContext=imageContext;
     }
 
+    public PictureTakenEvent(PictureTransaction xact,
+                             ImageContext imageContext,
+                             long captureLatency) {
+      this(xact, imageContext);
+      this.captureLatency=captureLatency;
+    }
+
+    public PictureTakenEvent(PictureTransaction xact,
+                             ImageContext imageContext,
+                             CaptureTimeline timeline) {
+      this(xact, imageContext,
+        timeline.getElapsedMillis(CaptureTimeline.Phase.IMAGE_AVAILABLE));
+      this.timeline=timeline;
+    }
+
     public PictureTakenEvent(Exception exception) {
       super(exception);
     }
 
+    /**
+     * @return milliseconds from the takePicture() call to the
+     * picture arriving from the camera, before any ImageProcessors
+     * ran, or -1 if this is not known
+     */
+    public long getCaptureLatency() {
+      return(captureLatency);
+    }
+
+    /**
+     * @return timestamps for the phases of this capture, or null
+     * if the engine did not record them
+     */
+    public CaptureTimeline getCaptureTimeline() {
+      return(timeline);
+    }
+
+    public ImageContext getImageContext() {
+      return(imageContext);
+    }
+
+    /**
+     * @return per-ImageProcessor timings for this picture, or null
+     * if they are not available
+     */
+    public ProcessingStats getProcessingStats() {
+      return(imageContext==null ? null : imageContext.getProcessingStats());
+    }
+
+    public PictureTransaction getPictureTransaction() {
+      return(xact);
+    }
+  }
+
+  /**
+   * Event raised for each frame of a burst, as a result of a
+   * takeBurst() call, once that frame has been through the
+   * PictureTransaction's chain of ImageProcessors. May include
+   * an exception if there was an exception accessing the camera,
+   * in which case no further frames of that burst will arrive.
+   */
+  public static class BurstFrameTakenEvent extends CrashableEvent {
+    private ImageContext imageContext;
+    private PictureTransaction xact;
+    private final int index;
+    private final int count;
+    private final boolean isLastFrame;
+
+    public BurstFrameTakenEvent(PictureTransaction xact,
+                                ImageContext imageContext,
+                                int index, int count) {
+      this(xact, imageContext, index, count, index==count-1);
+    }
+
+    public BurstFrameTakenEvent(PictureTransaction xact,
+                                ImageContext imageContext,
+                                int index, int count,
+                                boolean isLastFrame) {
+      super();
+      this.xact=xact;
+      this.imageContext=imageContext;
+      this.index=index;
+      this.count=count;
+      this.isLastFrame=isLastFrame;
+    }
+
+    public BurstFrameTakenEvent(Exception exception) {
+      super(exception);
+      this.index=-1;
+      this.count=0;
+      this.isLastFrame=true;
+    }
+
     public ImageContext getImageContext() {
       return(imageContext);
     }
@@ -177,6 +291,30 @@ abstract public class CameraEngine {
     public PictureTransaction getPictureTransaction() {
       return(xact);
     }
+
+    /**
+     * @return the 0-based position of this frame in the burst
+     */
+    public int getIndex() {
+      return(index);
+    }
+
+    /**
+     * @return the number of frames requested for the burst
+     */
+    public int getCount() {
+      return(count);
+    }
+
+    /**
+     * Frames may be processed in parallel, so this is not
+     * necessarily the frame with the highest index.
+     *
+     * @return true if no more frames of this burst will arrive
+     */
+    public boolean isLastFrame() {
+      return(exception!=null || isLastFrame);
+    }
   }
 
   /**
@@ -296,6 +434,23 @@ abstract public class CameraEngine {
   abstract public void takePicture(CameraSession session,
                                    PictureTransaction xact);
 
+  /**
+   * Takes a burst of pictures, as fast as the camera can deliver
+   * them, without going through a focus/exposure cycle per
+   * picture. Each frame is run through the supplied transaction's
+   * chain of ImageProcessors as it arrives, and a
+   * BurstFrameTakenEvent is posted for each.
+   *
+   * With camera2, how many frames can be in flight at once is
+   * limited by the ImageReader depth (see SizeAndFormatPlugin).
+   *
+   * @param session the session for the camera of interest
+   * @param count the number of pictures to take
+   * @param xact the configuration of the pictures to take
+   */
+  abstract public void takeBurst(CameraSession session, int count,
+                                 PictureTransaction xact);
+
   abstract public void recordVideo(CameraSession session,
       VideoTransaction xact) throws Exception;
 
@@ -340,6 +495,14 @@ abstract public class CameraEngine {
     CameraEngine result;
     boolean useCameraTwo;
 
+    if (forcedEngineId==ID.SYNTHETIC) {
+      if (singletonSynthetic==null) {
+        singletonSynthetic=new SyntheticCameraEngine(ctxt);
+      }
+
+      return(singletonSynthetic);
+    }
+
     if (forcedEngineId==ID.CLASSIC) {
       useCameraTwo=false;
     }
@@ -416,17 +579,66 @@ abstract public class CameraEngine {
     return(savePreviewFile);
   }
 
-  public ThreadPoolExecutor getThreadPool() {
-    if (pool==null) {
-      pool=new ThreadPoolExecutor(CORE_POOL_SIZE, MAX_POOL_SIZE,
-          KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, queue);
+  /**
+   * @return the scheduler that this engine uses for its
+   * background work
+   */
+  synchronized public CameraScheduler getScheduler() {
+    if (scheduler==null) {
+      scheduler=new CameraScheduler();
     }
 
-    return(pool);
+    return(scheduler);
   }
 
+  /**
+   * Replaces the scheduler that this engine uses for its
+   * background work. Call before using the engine.
+   *
+   * @param scheduler the scheduler to use
+   */
+  synchronized public void setScheduler(CameraScheduler scheduler) {
+    this.scheduler=scheduler;
+  }
+
+  /**
+   * @return aggregate capture timings for every picture taken
+   * by this engine
+   */
+  public CaptureHistogram getCaptureHistogram() {
+    return(captureHistogram);
+  }
+
+  /**
+   * Marks the timeline as delivered and adds it to the
+   * histogram. Call once posting the PictureTakenEvent has
+   * returned.
+   *
+   * @param timeline the timeline of a completed capture
+   */
+  void recordCaptureTimeline(CaptureTimeline timeline) {
+    timeline.mark(CaptureTimeline.Phase.DELIVERED);
+    captureHistogram.record(timeline);
+  }
+
+  /**
+   * @return the executor for the scheduler's CONTROL lane
+   * @deprecated use getScheduler()
+   */
+  @Deprecated
+  public ThreadPoolExecutor getThreadPool() {
+    return(getScheduler().getExecutor(CameraScheduler.Lane.CONTROL));
+  }
+
+  /**
+   * Replaces the executor for the scheduler's CONTROL lane.
+   *
+   * @param pool the executor to use
+   * @deprecated use getScheduler().setExecutor()
+   */
+  @Deprecated
   public void setThreadPool(ThreadPoolExecutor pool) {
-    this.pool=pool;
+    getScheduler().setExecutor(CameraScheduler.Lane.CONTROL, pool);
   }
 
   public void setPreferredFlashModes(List<FlashMode> flashModes) {
@@ -0,0 +1,235 @@
+/***
+ Copyright (c) 2017 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.commonsware.cwac.cam2;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs camera engine work on separate lanes, so that work of
+ * one kind cannot hold up work of another. In particular,
+ * opening the camera or taking the next picture (CONTROL) never
+ * waits on processing the previous picture (CPU) or on a direct
+ * write of it (IO).
+ *
+ * Each lane tracks how deep its queue is and how long tasks
+ * wait before they start, for diagnosing stalls.
+ */
+public class CameraScheduler {
+  private static final int KEEP_ALIVE_SECONDS=60;
+
+  public enum Lane {
+    /**
+     * Latency-sensitive camera control: open, capture
+     * requests, and the like. Single-threaded, so tasks run
+     * in the order they were submitted.
+     */
+    CONTROL,
+
+    /**
+     * Image processing, such as running the ImageProcessor
+     * chain, including any writer at the end of it. One thread
+     * per core, at background priority. Tasks may run in
+     * parallel and complete in any order.
+     */
+    CPU,
+
+    /**
+     * Disk and other blocking I/O that is not part of the
+     * ImageProcessor chain, such as writing a picture straight
+     * from its camera buffer. Single-threaded, at background
+     * priority.
+     */
+    IO
+  }
+
+  private final ThreadPoolExecutor[] executors=
+    new ThreadPoolExecutor[Lane.values().length];
+  private final AtomicLong[] started=new AtomicLong[executors.length];
+  private final AtomicLong[] totalWaitNanos=new AtomicLong[executors.length];
+  private final AtomicLong[] maxWaitNanos=new AtomicLong[executors.length];
+
+  public CameraScheduler() {
+    this(android.os.Process.THREAD_PRIORITY_DEFAULT,
+      android.os.Process.THREAD_PRIORITY_BACKGROUND,
+      android.os.Process.THREAD_PRIORITY_BACKGROUND);
+  }
+
+  /**
+   * Constructor for custom thread priorities. Pass the result
+   * to setScheduler() on the CameraEngine.
+   *
+   * @param controlPriority a Process.THREAD_PRIORITY_* value for
+   *                        the CONTROL lane
+   * @param cpuPriority a Process.THREAD_PRIORITY_* value for the
+   *                    CPU lane
+   * @param ioPriority a Process.THREAD_PRIORITY_* value for the
+   *                   IO lane
+   */
+  public CameraScheduler(int controlPriority, int cpuPriority,
+                         int ioPriority) {
+    executors[Lane.CONTROL.ordinal()]=buildExecutor("Control", 1,
+      controlPriority);
+    executors[Lane.CPU.ordinal()]=buildExecutor("CPU",
+      Runtime.getRuntime().availableProcessors(), cpuPriority);
+    executors[Lane.IO.ordinal()]=buildExecutor("IO", 1, ioPriority);
+
+    for (int i=0; i<executors.length; i++) {
+      started[i]=new AtomicLong();
+      totalWaitNanos[i]=new AtomicLong();
+      maxWaitNanos[i]=new AtomicLong();
+    }
+  }
+
+  /**
+   * Runs the task on the given lane.
+   *
+   * @param lane which lane to use
+   * @param task the work to do
+   */
+  public void execute(Lane lane, Runnable task) {
+    executors[lane.ordinal()].execute(new TimedTask(lane, task));
+  }
+
+  /**
+   * @param lane which lane to inspect
+   * @return the executor backing the lane
+   */
+  public ThreadPoolExecutor getExecutor(Lane lane) {
+    return(executors[lane.ordinal()]);
+  }
+
+  /**
+   * Replaces the executor backing a lane, such as to adjust
+   * its thread count or priority. Tasks already submitted to
+   * the old executor still run there.
+   *
+   * @param lane which lane to replace
+   * @param executor the new executor for the lane
+   */
+  public void setExecutor(Lane lane, ThreadPoolExecutor executor) {
+    executors[lane.ordinal()]=executor;
+  }
+
+  /**
+   * @param lane which lane to inspect
+   * @return the number of tasks waiting to start
+   */
+  public int getQueueDepth(Lane lane) {
+    return(executors[lane.ordinal()].getQueue().size());
+  }
+
+  /**
+   * @param lane which lane to inspect
+   * @return the number of tasks that have started since
+   * creation or the last resetMetrics()
+   */
+  public long getStartedTaskCount(Lane lane) {
+    return(started[lane.ordinal()].get());
+  }
+
+  /**
+   * @param lane which lane to inspect
+   * @return the average time, in milliseconds, that tasks
+   * waited in the queue before starting, or 0 if none have
+   */
+  public long getAverageWaitMillis(Lane lane) {
+    long count=started[lane.ordinal()].get();
+
+    if (count==0) {
+      return(0);
+    }
+
+    return(TimeUnit.NANOSECONDS.toMillis(
+      totalWaitNanos[lane.ordinal()].get()/count));
+  }
+
+  /**
+   * @param lane which lane to inspect
+   * @return the longest time, in milliseconds, that a task
+   * waited in the queue before starting
+   */
+  public long getMaxWaitMillis(Lane lane) {
+    return(TimeUnit.NANOSECONDS.toMillis(
+      maxWaitNanos[lane.ordinal()].get()));
+  }
+
+  /**
+   * Zeroes the task counts and wait times for all lanes.
+   */
+  public void resetMetrics() {
+    for (int i=0; i<executors.length; i++) {
+      started[i].set(0);
+      totalWaitNanos[i].set(0);
+      maxWaitNanos[i].set(0);
+    }
+  }
+
+  private void recordWait(Lane lane, long waitNanos) {
+    int i=lane.ordinal();
+    long max;
+
+    started[i].incrementAndGet();
+    totalWaitNanos[i].addAndGet(waitNanos);
+
+    do {
+      max=maxWaitNanos[i].get();
+    } while (waitNanos>max && !maxWaitNanos[i].compareAndSet(max, waitNanos));
+  }
+
+  private static ThreadPoolExecutor buildExecutor(final String name,
+                                                  int threadCount,
+                                                  final int priority) {
+    ThreadPoolExecutor result=new ThreadPoolExecutor(threadCount,
+      threadCount, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+      new LinkedBlockingQueue<Runnable>(),
+      new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable r) {
+          return(new Thread(new Runnable() {
+            @Override
+            public void run() {
+              android.os.Process.setThreadPriority(priority);
+              r.run();
+            }
+          }, "CWAC-Cam2-"+name));
+        }
+      });
+
+    result.allowCoreThreadTimeOut(true);
+
+    return(result);
+  }
+
+  private class TimedTask implements Runnable {
+    private final Lane lane;
+    private final Runnable task;
+    private final long queuedAt=System.nanoTime();
+
+    TimedTask(Lane lane, Runnable task) {
+      this.lane=lane;
+      this.task=task;
+    }
+
+    @Override
+    public void run() {
+      recordWait(lane, System.nanoTime()-queuedAt);
+      task.run();
+    }
+  }
+}
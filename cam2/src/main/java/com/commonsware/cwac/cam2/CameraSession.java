@@ -32,11 +32,20 @@ import java.util.ArrayList;
  * by a call to build() to give you the actual CameraSession.
  */
 public class CameraSession {
+  /**
+   * Default value for getMaxFocusWait(), in milliseconds
+   */
+  public static final long DEFAULT_MAX_FOCUS_WAIT=3000;
   private final CameraDescriptor descriptor;
   private Context ctxt;
   private final ArrayList<CameraPlugin> plugins=new ArrayList<CameraPlugin>();
   private Size previewSize;
   private FlashMode currentFlashMode;
+  private boolean zeroShutterLag=false;
+  private long maxFocusWait=DEFAULT_MAX_FOCUS_WAIT;
+  private FrameProcessor frameProcessor;
+  private int frameProcessorThreads=1;
+  private volatile FrameDispatcher frameDispatcher;
 
   /**
    * Constructor.
@@ -75,6 +84,8 @@ public class CameraSession {
     for (CameraPlugin plugin : getPlugins()) {
       plugin.destroy();
     }
+
+    setFrameDispatcher(null);
   }
 
   public Size getPreviewSize() {
@@ -93,6 +104,108 @@ public class CameraSession {
     this.currentFlashMode=currentFlashMode;
   }
 
+  /**
+   * @return true if pictures should come from a buffer of
+   * recent preview-time frames, false otherwise
+   */
+  public boolean isZeroShutterLag() {
+    return(zeroShutterLag);
+  }
+
+  /**
+   * Requests zero-shutter-lag capture: full-resolution frames are
+   * captured continuously alongside the preview, and taking a
+   * picture picks the best recent one rather than starting a new
+   * capture. Only CameraTwoEngine supports this; other engines
+   * ignore it. Must be called before the session is opened.
+   *
+   * The buffer holds two fewer frames than the ImageReader depth
+   * (see SizeAndFormatPlugin), so that depth needs to be at least
+   * SizeAndFormatPlugin.MIN_ZERO_SHUTTER_LAG_MAX_IMAGES; opening
+   * the camera fails with an OpenedEvent exception otherwise.
+   *
+   * @param zeroShutterLag true to use zero-shutter-lag capture,
+   *                       false otherwise
+   */
+  public void setZeroShutterLag(boolean zeroShutterLag) {
+    this.zeroShutterLag=zeroShutterLag;
+  }
+
+  /**
+   * @return how long, in milliseconds, to wait for focus and
+   * exposure to settle before taking the picture anyway
+   */
+  public long getMaxFocusWait() {
+    return(maxFocusWait);
+  }
+
+  /**
+   * Sets how long to wait for focus and exposure to settle when
+   * taking a picture, after which the picture is taken anyway.
+   * Only used by CameraTwoEngine, and only if the preview did not
+   * already show focus and exposure as settled.
+   *
+   * @param maxFocusWait the maximum wait, in milliseconds
+   */
+  public void setMaxFocusWait(long maxFocusWait) {
+    this.maxFocusWait=maxFocusWait;
+  }
+
+  /**
+   * @return the FrameProcessor for preview frames, or null if
+   * there is none
+   */
+  public FrameProcessor getFrameProcessor() {
+    return(frameProcessor);
+  }
+
+  /**
+   * @return the number of threads to use for the FrameProcessor
+   */
+  public int getFrameProcessorThreads() {
+    return(frameProcessorThreads);
+  }
+
+  /**
+   * Registers a FrameProcessor to receive preview frames. Must be
+   * called before the session is opened. Frames arriving while
+   * all threads are busy are dropped.
+   *
+   * @param frameProcessor the FrameProcessor, or null for none
+   * @param threadCount how many frames to process in parallel
+   */
+  public void setFrameProcessor(FrameProcessor frameProcessor,
+                                int threadCount) {
+    if (threadCount<1) {
+      throw new IllegalArgumentException("threadCount must be at least 1");
+    }
+
+    this.frameProcessor=frameProcessor;
+    this.frameProcessorThreads=threadCount;
+  }
+
+  /**
+   * @return how many preview frames have been dropped because
+   * the FrameProcessor was busy
+   */
+  public long getDroppedFrameCount() {
+    FrameDispatcher dispatcher=frameDispatcher;
+
+    return(dispatcher==null ? 0 : dispatcher.getDroppedFrameCount());
+  }
+
+  FrameDispatcher getFrameDispatcher() {
+    return(frameDispatcher);
+  }
+
+  void setFrameDispatcher(FrameDispatcher frameDispatcher) {
+    if (this.frameDispatcher!=null) {
+      this.frameDispatcher.shutdown();
+    }
+
+    this.frameDispatcher=frameDispatcher;
+  }
+
   /**
    * Class to build an instance of a CameraSession. Get an instance
    * from buildSession() on your chosen CameraEngine.
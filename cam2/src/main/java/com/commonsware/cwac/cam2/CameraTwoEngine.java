@@ -36,18 +36,25 @@ import android.media.MediaActionSound;
 import android.os.Build;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.Surface;
+import com.commonsware.cwac.cam2.plugin.SizeAndFormatPlugin;
 import com.commonsware.cwac.cam2.util.Size;
 import org.greenrobot.eventbus.EventBus;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Implementation of a CameraEngine that supports the
@@ -61,10 +68,15 @@ public class CameraTwoEngine extends CameraEngine {
   final private HandlerThread handlerThread=new HandlerThread(getClass().getSimpleName(),
       android.os.Process.THREAD_PRIORITY_BACKGROUND);
   final private Handler handler;
+  final private HandlerThread imageHandlerThread=
+    new HandlerThread(getClass().getSimpleName()+"-Images",
+      android.os.Process.THREAD_PRIORITY_BACKGROUND);
+  final private Handler imageHandler;
   final private Semaphore lock=new Semaphore(1);
 //  private CountDownLatch closeLatch=null;
   private MediaActionSound shutter=new MediaActionSound();
   private List<Descriptor> descriptors=null;
+  private final DescriptorCache cache;
 
   /**
    * Standard constructor
@@ -75,11 +87,43 @@ public class CameraTwoEngine extends CameraEngine {
     this.ctxt=ctxt.getApplicationContext();
     mgr=(CameraManager)this.ctxt.
         getSystemService(Context.CAMERA_SERVICE);
+    cache=new DescriptorCache(this.ctxt, ID.CAMERA2);
     handlerThread.start();
     handler=new Handler(handlerThread.getLooper());
+    imageHandlerThread.start();
+    imageHandler=new Handler(imageHandlerThread.getLooper());
     shutter.load(MediaActionSound.SHUTTER_CLICK);
   }
 
+  /**
+   * Sets the priorities of this engine's threads. The camera
+   * thread handles device, session, and capture callbacks,
+   * including 3A convergence while taking a picture. The image
+   * thread receives Images from the ImageReaders and hands them
+   * off for processing (see getScheduler()). Both default to
+   * android.os.Process.THREAD_PRIORITY_BACKGROUND.
+   *
+   * @param cameraPriority a Process.THREAD_PRIORITY_* value for
+   *                       the camera thread
+   * @param imagePriority a Process.THREAD_PRIORITY_* value for
+   *                      the image thread
+   */
+  public void setThreadPriorities(final int cameraPriority,
+                                  final int imagePriority) {
+    handler.post(new Runnable() {
+      @Override
+      public void run() {
+        android.os.Process.setThreadPriority(cameraPriority);
+      }
+    });
+    imageHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        android.os.Process.setThreadPriority(imagePriority);
+      }
+    });
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -93,75 +137,23 @@ public class CameraTwoEngine extends CameraEngine {
    */
   @Override
   public void loadCameraDescriptors(final CameraSelectionCriteria criteria) {
-    getThreadPool().execute(new Runnable() {
+    getScheduler().execute(CameraScheduler.Lane.CONTROL, new Runnable() {
       @Override
       public void run() {
-        if (descriptors==null) {
-          List<Descriptor> result=new ArrayList<Descriptor>();
+        boolean isEnumerated=false;
 
-          try {
-            for (String cameraId : mgr.getCameraIdList()) {
-              CameraCharacteristics cc=
-                mgr.getCameraCharacteristics(cameraId);
-              Descriptor camera=new Descriptor(cameraId, cc);
-              StreamConfigurationMap map=cc.get(
-                CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
-              android.util.Size[] rawSizes=
-                map.getOutputSizes(SurfaceTexture.class);
-              CameraConstraints constraint=CameraConstraints.get();
-
-              camera.setFacingFront(
-                cc.get(CameraCharacteristics.LENS_FACING)==
-                  CameraCharacteristics.LENS_FACING_FRONT);
-
-              List<Size> sizes=null;
-
-              if (constraint!=null) {
-                if (camera.isFacingFront) {
-                  sizes=constraint.getPreviewFFCSizeWhitelist();
-                }
-                else {
-                  sizes=constraint.getPreviewRFCSizeWhitelist();
-                }
-              }
-
-              if (sizes==null) {
-                sizes=new ArrayList<Size>();
-
-                for (android.util.Size size : rawSizes) {
-                  if (size.getWidth()<2160 &&
-                    size.getHeight()<2160) {
-                    sizes.add(
-                      new Size(size.getWidth(), size.getHeight()));
-                  }
-                }
-              }
-
-              camera.setPreviewSizes(sizes);
-              sizes=null;
-
-              if (constraint!=null) {
-                if (camera.isFacingFront) {
-                  sizes=constraint.getPictureFFCSizeWhitelist();
-                }
-                else {
-                  sizes=constraint.getPictureRFCSizeWhitelist();
-                }
-              }
-
-              if (sizes==null) {
-                sizes=new ArrayList<>();
-
-                for (android.util.Size size : map.getOutputSizes(ImageFormat.JPEG)) {
-                  sizes.add(new Size(size.getWidth(), size.getHeight()));
-                }
-              }
+        if (descriptors==null) {
+          descriptors=loadCachedDescriptors();
 
-              camera.setPictureSizes(sizes);
-              result.add(camera);
-            }
+          if (descriptors!=null) {
+            refreshDescriptorCache();
+          }
+        }
 
-            descriptors=result;
+        if (descriptors==null) {
+          try {
+            descriptors=enumerateDescriptors();
+            isEnumerated=true;
           }
           catch (CameraAccessException e) {
             getBus().post(
@@ -171,6 +163,8 @@ public class CameraTwoEngine extends CameraEngine {
               Log.e(getClass().getSimpleName(),
                 "Exception accessing camera", e);
             }
+
+            return;
           }
         }
 
@@ -184,41 +178,210 @@ public class CameraTwoEngine extends CameraEngine {
           }
         }
 
-        Collections.sort(result,
-          new Comparator<CameraDescriptor>() {
-            @Override
-            public int compare(CameraDescriptor descriptor,
-                               CameraDescriptor t1) {
-              Descriptor lhs=(Descriptor)descriptor;
-              Descriptor rhs=(Descriptor)t1;
+        Collections.sort(result, new DescriptorComparator() {
+          @Override
+          int getScore(CameraDescriptor descriptor) {
+            return(((Descriptor)descriptor).getScore(criteria));
+          }
+        });
+
+        getBus().post(
+          new CameraEngine.CameraDescriptorsEvent(result));
 
-              // descending, so invert normal side-ness
+        if (isEnumerated) {
+          final List<DescriptorCache.Entry> entries=
+            toCacheEntries(descriptors);
 
-              return (Integer.compare(rhs.getScore(criteria),
-                lhs.getScore(criteria)));
+          getScheduler().execute(CameraScheduler.Lane.IO, new Runnable() {
+            @Override
+            public void run() {
+              cache.save(entries);
             }
           });
+        }
+      }
+    });
+  }
 
-        getBus().post(
-          new CameraEngine.CameraDescriptorsEvent(result));
+  private List<Descriptor> enumerateDescriptors()
+    throws CameraAccessException {
+    List<Descriptor> result=new ArrayList<Descriptor>();
+
+    for (String cameraId : mgr.getCameraIdList()) {
+      CameraCharacteristics cc=
+        mgr.getCameraCharacteristics(cameraId);
+      Descriptor camera=new Descriptor(cameraId, cc);
+      StreamConfigurationMap map=cc.get(
+        CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+      android.util.Size[] rawSizes=
+        map.getOutputSizes(SurfaceTexture.class);
+      CameraConstraints constraint=CameraConstraints.get();
+
+      camera.setFacingFront(
+        cc.get(CameraCharacteristics.LENS_FACING)==
+          CameraCharacteristics.LENS_FACING_FRONT);
+
+      List<Size> sizes=null;
+
+      if (constraint!=null) {
+        if (camera.isFacingFront) {
+          sizes=constraint.getPreviewFFCSizeWhitelist();
+        }
+        else {
+          sizes=constraint.getPreviewRFCSizeWhitelist();
+        }
+      }
+
+      if (sizes==null) {
+        sizes=new ArrayList<Size>();
+
+        for (android.util.Size size : rawSizes) {
+          if (size.getWidth()<2160 &&
+            size.getHeight()<2160) {
+            sizes.add(
+              new Size(size.getWidth(), size.getHeight()));
+          }
+        }
+      }
+
+      camera.setPreviewSizes(sizes);
+      sizes=null;
+
+      if (constraint!=null) {
+        if (camera.isFacingFront) {
+          sizes=constraint.getPictureFFCSizeWhitelist();
+        }
+        else {
+          sizes=constraint.getPictureRFCSizeWhitelist();
+        }
+      }
+
+      if (sizes==null) {
+        sizes=new ArrayList<>();
+
+        for (android.util.Size size : map.getOutputSizes(ImageFormat.JPEG)) {
+          sizes.add(new Size(size.getWidth(), size.getHeight()));
+        }
+      }
+
+      camera.setPictureSizes(sizes);
+      result.add(camera);
+    }
+
+    return(result);
+  }
+
+  /**
+   * Rebuilds descriptors from the on-disk cache, confirming only
+   * that the cached camera IDs still exist.
+   *
+   * @return the cached descriptors, or null if there are none
+   * or they are out of date
+   */
+  private List<Descriptor> loadCachedDescriptors() {
+    List<DescriptorCache.Entry> entries=cache.load();
+
+    if (entries==null) {
+      return(null);
+    }
+
+    try {
+      List<String> ids=Arrays.asList(mgr.getCameraIdList());
+      List<Descriptor> result=new ArrayList<Descriptor>();
+
+      for (DescriptorCache.Entry entry : entries) {
+        if (!ids.contains(entry.id)) {
+          cache.clear();
+
+          return(null);
+        }
+
+        Descriptor camera=new Descriptor(entry.id,
+          entry.facing==DescriptorCache.FACING_UNKNOWN ?
+            null : Integer.valueOf(entry.facing));
+
+        camera.setFacingFront(
+          entry.facing==CameraCharacteristics.LENS_FACING_FRONT);
+        camera.setPreviewSizes(entry.previewSizes);
+        camera.setPictureSizes(entry.pictureSizes);
+        result.add(camera);
+      }
+
+      return(result);
+    }
+    catch (CameraAccessException e) {
+      if (isDebug()) {
+        Log.e(getClass().getSimpleName(),
+          "Exception accessing camera", e);
+      }
+    }
+
+    return(null);
+  }
+
+  /**
+   * Re-enumerates the cameras on the IO lane, so opening the
+   * camera is not held up, and updates the on-disk cache if
+   * anything changed. Descriptors already handed out
+   * are left alone; the refreshed ones are used on the next
+   * process start.
+   */
+  private void refreshDescriptorCache() {
+    final List<DescriptorCache.Entry> cached=toCacheEntries(descriptors);
+
+    getScheduler().execute(CameraScheduler.Lane.IO, new Runnable() {
+      @Override
+      public void run() {
+        try {
+          List<DescriptorCache.Entry> fresh=
+            toCacheEntries(enumerateDescriptors());
+
+          if (!fresh.equals(cached)) {
+            cache.save(fresh);
+          }
+        }
+        catch (Exception e) {
+          if (isDebug()) {
+            Log.w(CameraTwoEngine.class.getSimpleName(),
+              "Exception refreshing camera descriptor cache", e);
+          }
+        }
       }
     });
   }
 
+  private static List<DescriptorCache.Entry> toCacheEntries(
+    List<Descriptor> descriptors) {
+    List<DescriptorCache.Entry> result=
+      new ArrayList<DescriptorCache.Entry>();
+
+    for (Descriptor camera : descriptors) {
+      // some HALs do not report LENS_FACING at all
+
+      int facing=(camera.facing==null ?
+        DescriptorCache.FACING_UNKNOWN : camera.facing);
+
+      result.add(new DescriptorCache.Entry(camera.getId(),
+        facing, camera.getPreviewSizes(), camera.getPictureSizes()));
+    }
+
+    return(result);
+  }
+
   /**
    * {@inheritDoc}
    */
   @Override
   public void open(final CameraSession session,
                    final SurfaceTexture texture) {
-    getThreadPool().execute(new Runnable() {
+    getScheduler().execute(CameraScheduler.Lane.CONTROL, new Runnable() {
       @Override
       public void run() {
         Descriptor camera=(Descriptor)session.getDescriptor();
 
         try {
           CameraCharacteristics cc=
-            mgr.getCameraCharacteristics(camera.getId());
+            ((Session)session).getCharacteristics(mgr);
 
           eligibleFlashModes.clear();
 
@@ -291,6 +454,11 @@ public class CameraTwoEngine extends CameraEngine {
         s.reader.close();
       }
 
+      if (s.frameReader!=null) {
+        s.frameReader.close();
+        s.frameReader=null;
+      }
+
       s.setClosed(true);
 
       Descriptor camera=(Descriptor)session.getDescriptor();
@@ -313,11 +481,50 @@ public class CameraTwoEngine extends CameraEngine {
   public void takePicture(CameraSession session,
                           PictureTransaction xact) {
     final Session s=(Session)session;
+    final TakePictureTransaction listener=
+      new TakePictureTransaction(session.getContext(), getBus(), xact);
 
-    s.reader.setOnImageAvailableListener(new TakePictureTransaction(session.getContext(), getBus(), xact),
-        handler);
+    if (s.zsl!=null) {
+      final long shutterTime=SystemClock.elapsedRealtimeNanos();
+
+      getScheduler().execute(CameraScheduler.Lane.CONTROL, new Runnable() {
+        @Override
+        public void run() {
+          if (!s.zsl.takePicture(listener, shutterTime)) {
+            requestCapture(s, listener.timeline);
+          }
+        }
+      });
+    }
+    else {
+      s.reader.setOnImageAvailableListener(listener, imageHandler);
+      requestCapture(s, listener.timeline);
+    }
+  }
 
-    getThreadPool().execute(new Runnable() {
+  private void requestCapture(final Session s,
+                              CaptureTimeline timeline) {
+    final RequestCaptureTransaction xact=
+      new RequestCaptureTransaction(s, timeline);
+    CaptureResult latest=
+      (s.previewCallback==null ? null : s.previewCallback.getLatestResult());
+
+    if (latest!=null && isConverged(latest) &&
+      s.getCurrentFlashMode()!=FlashMode.ALWAYS) {
+      // the preview says focus and exposure have already settled,
+      // so skip the AF trigger and precapture sequence
+
+      handler.post(new Runnable() {
+        @Override
+        public void run() {
+          xact.captureNow();
+        }
+      });
+
+      return;
+    }
+
+    getScheduler().execute(CameraScheduler.Lane.CONTROL, new Runnable() {
       @Override
       public void run() {
         try {
@@ -326,8 +533,9 @@ public class CameraTwoEngine extends CameraEngine {
               CameraMetadata.CONTROL_AF_TRIGGER_START);
           s.captureSession.setRepeatingRequest(
             s.previewRequestBuilder.build(),
-            new RequestCaptureTransaction(s),
+            xact,
             handler);
+          handler.postDelayed(xact.timeout, s.getMaxFocusWait());
         }
         catch (Exception e) {
           getBus().post(new PictureTakenEvent(e));
@@ -340,6 +548,87 @@ public class CameraTwoEngine extends CameraEngine {
     });
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void takeBurst(CameraSession session, final int count,
+                        PictureTransaction xact) {
+    final Session s=(Session)session;
+    final TakeBurstTransaction listener=
+      new TakeBurstTransaction(session.getContext(), xact, count);
+
+    if (s.zsl!=null) {
+      // the repeating request is already producing full-resolution
+      // frames, so the burst is just the next count of them
+
+      getScheduler().execute(CameraScheduler.Lane.CONTROL, new Runnable() {
+        @Override
+        public void run() {
+          s.zsl.takeBurst(listener);
+        }
+      });
+
+      return;
+    }
+
+    s.reader.setOnImageAvailableListener(listener, imageHandler);
+
+    getScheduler().execute(CameraScheduler.Lane.CONTROL, new Runnable() {
+      @Override
+      public void run() {
+        try {
+          // no AF trigger or precapture here: the preview's
+          // continuous AF/AE state is used for every frame, and
+          // the preview keeps running around the burst
+
+          CaptureRequest request=buildStillCaptureRequest(s);
+          List<CaptureRequest> requests=
+            new ArrayList<CaptureRequest>(count);
+
+          for (int i=0; i<count; i++) {
+            requests.add(request);
+          }
+
+          s.captureSession.captureBurst(requests,
+            new CaptureBurstTransaction(), handler);
+        }
+        catch (Exception e) {
+          getBus().post(new BurstFrameTakenEvent(e));
+
+          if (isDebug()) {
+            Log.e(getClass().getSimpleName(), "Exception taking burst", e);
+          }
+        }
+      }
+    });
+  }
+
+  private CaptureRequest buildStillCaptureRequest(Session s)
+    throws CameraAccessException {
+    CaptureRequest.Builder captureBuilder=
+        s.cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
+
+    captureBuilder.addTarget(s.reader.getSurface());
+    captureBuilder.set(CaptureRequest.CONTROL_AF_MODE,
+        CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+    captureBuilder.set(CaptureRequest.CONTROL_AE_MODE,
+        CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH);
+
+    Descriptor camera=(Descriptor)s.getDescriptor();
+    CameraCharacteristics cc=s.getCharacteristics(mgr);
+
+    if (s.getZoomRect()!=null) {
+      captureBuilder
+        .set(CaptureRequest.SCALER_CROP_REGION,
+          s.getZoomRect());
+    }
+
+    s.addToCaptureRequest(cc, camera.isFacingFront, captureBuilder);
+
+    return(captureBuilder.build());
+  }
+
   @Override
   public void handleOrientationChange(CameraSession session,
                                       OrientationChangedEvent event) {
@@ -367,11 +656,10 @@ public class CameraTwoEngine extends CameraEngine {
   @Override
   public boolean supportsZoom(CameraSession session) {
     boolean result=false;
-    Descriptor descriptor=(Descriptor)session.getDescriptor();
 
     try {
       CameraCharacteristics cc=
-        mgr.getCameraCharacteristics(descriptor.cameraId);
+        ((Session)session).getCharacteristics(mgr);
 
       float maxZoom=cc.get(
         CameraCharacteristics.SCALER_AVAILABLE_MAX_DIGITAL_ZOOM);
@@ -391,12 +679,9 @@ public class CameraTwoEngine extends CameraEngine {
     final Session s=(Session)session;
 
     if (session!=null) {
-      final Descriptor descriptor=(Descriptor)session.getDescriptor();
-
       if (s.previewRequest!=null) {
         try {
-          final CameraCharacteristics cc=
-            mgr.getCameraCharacteristics(descriptor.cameraId);
+          final CameraCharacteristics cc=s.getCharacteristics(mgr);
           final float maxZoom=
             cc.get(
               CameraCharacteristics.SCALER_AVAILABLE_MAX_DIGITAL_ZOOM);
@@ -411,7 +696,7 @@ public class CameraTwoEngine extends CameraEngine {
             s.setZoomRect(zoomRect);
             s.previewRequest=s.previewRequestBuilder.build();
             s.captureSession.setRepeatingRequest(s.previewRequest,
-              null, handler);
+              s.previewCallback, handler);
           }
         }
         catch (CameraAccessException e) {
@@ -423,6 +708,51 @@ public class CameraTwoEngine extends CameraEngine {
     return(false);
   }
 
+  /**
+   * Sets up a YUV ImageReader feeding the session's
+   * FrameProcessor, if it has one.
+   *
+   * @return true if the session now has a frameReader to be
+   * added to the preview, false otherwise
+   */
+  private boolean startFrameProcessing(Session s) {
+    FrameProcessor processor=s.getFrameProcessor();
+    Size previewSize=s.getPreviewSize();
+
+    if (processor==null || previewSize==null) {
+      return(false);
+    }
+
+    int threads=s.getFrameProcessorThreads();
+    final ArrayBlockingQueue<PreviewFrame> freeFrames=
+      new ArrayBlockingQueue<PreviewFrame>(threads+1);
+
+    // one buffer per worker, plus one to fill
+
+    for (int i=0; i<threads+1; i++) {
+      freeFrames.add(new PreviewFrame(
+        new byte[PreviewFrame.getBufferSize(previewSize.getWidth(),
+          previewSize.getHeight())],
+        previewSize.getWidth(), previewSize.getHeight()));
+    }
+
+    FrameDispatcher dispatcher=new FrameDispatcher(processor, threads,
+      new FrameDispatcher.Recycler() {
+        @Override
+        public void recycle(PreviewFrame frame) {
+          freeFrames.offer(frame);
+        }
+      });
+
+    s.setFrameDispatcher(dispatcher);
+    s.frameReader=ImageReader.newInstance(previewSize.getWidth(),
+      previewSize.getHeight(), ImageFormat.YUV_420_888, 2);
+    s.frameReader.setOnImageAvailableListener(
+      new PreviewFrameTransaction(dispatcher, freeFrames), imageHandler);
+
+    return(true);
+  }
+
   @TargetApi(Build.VERSION_CODES.LOLLIPOP)
   private static Rect cropRegionForZoom(CameraCharacteristics cc,
                                         float zoomTo) {
@@ -460,8 +790,16 @@ public class CameraTwoEngine extends CameraEngine {
       camera.setDevice(cameraDevice);
 
       try {
-        cameraDevice.createCaptureSession(
-            Arrays.asList(surface, s.reader.getSurface()),
+        List<Surface> outputs=new ArrayList<Surface>();
+
+        outputs.add(surface);
+        outputs.add(s.reader.getSurface());
+
+        if (startFrameProcessing(s)) {
+          outputs.add(s.frameReader.getSurface());
+        }
+
+        cameraDevice.createCaptureSession(outputs,
             new StartPreviewTransaction(s, surface), handler);
       }
       catch (CameraAccessException e) {
@@ -514,13 +852,16 @@ public class CameraTwoEngine extends CameraEngine {
 
           s.previewRequestBuilder=session.getDevice().createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
           s.previewRequestBuilder.addTarget(surface);
+
+          if (s.frameReader!=null) {
+            s.previewRequestBuilder.addTarget(s.frameReader.getSurface());
+          }
           s.previewRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE,
               CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
           s.previewRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE,
               CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH);
 
-          Descriptor camera=(Descriptor)s.getDescriptor();
-          CameraCharacteristics cc=mgr.getCameraCharacteristics(camera.cameraId);
+          CameraCharacteristics cc=s.getCharacteristics(mgr);
 
           if (s.getZoomRect()!=null) {
             s
@@ -531,9 +872,41 @@ public class CameraTwoEngine extends CameraEngine {
 
           s.addToPreviewRequest(cc, s.previewRequestBuilder);
 
+          s.previewCallback=new PreviewCallback();
+
+          if (s.isZeroShutterLag()) {
+            int maxImages=s.reader.getMaxImages();
+
+            if (maxImages<
+              SizeAndFormatPlugin.MIN_ZERO_SHUTTER_LAG_MAX_IMAGES) {
+              getBus().post(new OpenedEvent(new IllegalStateException(
+                "Zero-shutter-lag needs an ImageReader depth of at least "+
+                  SizeAndFormatPlugin.MIN_ZERO_SHUTTER_LAG_MAX_IMAGES+
+                  ", not "+maxImages)));
+
+              return;
+            }
+
+            boolean isRealtimeClock=false;
+
+            if (Build.VERSION.SDK_INT>=Build.VERSION_CODES.M) {
+              Integer source=
+                cc.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+
+              isRealtimeClock=(source!=null &&
+                source==CameraMetadata.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME);
+            }
+
+            s.zsl=new ZslRingBuffer(s, maxImages-2, isRealtimeClock);
+            s.reader.setOnImageAvailableListener(s.zsl, imageHandler);
+            s.previewRequestBuilder.addTarget(s.reader.getSurface());
+            s.previewCallback=s.zsl;
+          }
+
           s.previewRequest=s.previewRequestBuilder.build();
 
-          session.setRepeatingRequest(s.previewRequest, null, handler);
+          session.setRepeatingRequest(s.previewRequest,
+            s.previewCallback, handler);
 
           getBus().post(new OpenedEvent());
         }
@@ -556,12 +929,36 @@ public class CameraTwoEngine extends CameraEngine {
 
   private class RequestCaptureTransaction extends CameraCaptureSession.CaptureCallback {
     private final Session s;
+    private final CaptureTimeline timeline;
     boolean isWaitingForFocus=true;
     boolean isWaitingForPrecapture=false;
     boolean haveWeStartedCapture=false;
+    final Runnable timeout=new Runnable() {
+      @Override
+      public void run() {
+        // focus or exposure never settled, so go with what we have
 
-    RequestCaptureTransaction(CameraSession session) {
+        captureNow();
+      }
+    };
+
+    RequestCaptureTransaction(CameraSession session,
+                              CaptureTimeline timeline) {
       this.s=(Session)session;
+      this.timeline=timeline;
+    }
+
+    /**
+     * Takes the picture right away, if we have not already.
+     * Must be called on the handler thread.
+     */
+    void captureNow() {
+      if (!haveWeStartedCapture) {
+        isWaitingForFocus=false;
+        isWaitingForPrecapture=false;
+        haveWeStartedCapture=true;
+        capture(s);
+      }
     }
 
     @Override
@@ -589,6 +986,8 @@ public class CameraTwoEngine extends CameraEngine {
         if (autoFocusState!=null &&
             (CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED == autoFocusState ||
               CaptureResult.CONTROL_AF_STATE_NOT_FOCUSED_LOCKED == autoFocusState)) {
+          timeline.mark(CaptureTimeline.Phase.FOCUS_LOCKED);
+
           Integer state=result.get(CaptureResult.CONTROL_AE_STATE);
 
           if (state == null ||
@@ -616,6 +1015,7 @@ public class CameraTwoEngine extends CameraEngine {
 
         if (state == null ||
             state != CaptureResult.CONTROL_AE_STATE_PRECAPTURE) {
+          timeline.mark(CaptureTimeline.Phase.PRECAPTURE_DONE);
           haveWeStartedCapture=true;
           capture(s);
         }
@@ -639,30 +1039,14 @@ public class CameraTwoEngine extends CameraEngine {
     }
 
     private void capture(Session s) {
-      try {
-        CaptureRequest.Builder captureBuilder=
-            s.cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
-
-        captureBuilder.addTarget(s.reader.getSurface());
-        captureBuilder.set(CaptureRequest.CONTROL_AF_MODE,
-            CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
-        captureBuilder.set(CaptureRequest.CONTROL_AE_MODE,
-            CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH);
+      handler.removeCallbacks(timeout);
 
-        Descriptor camera=(Descriptor)s.getDescriptor();
-        CameraCharacteristics cc=mgr.getCameraCharacteristics(camera.cameraId);
-
-        if (s.getZoomRect()!=null) {
-          captureBuilder
-            .set(CaptureRequest.SCALER_CROP_REGION,
-              s.getZoomRect());
-        }
-
-        s.addToCaptureRequest(cc, camera.isFacingFront, captureBuilder);
+      try {
+        CaptureRequest request=buildStillCaptureRequest(s);
 
         s.captureSession.stopRepeating();
-        s.captureSession.capture(captureBuilder.build(),
-            new CapturePictureTransaction(s), null);
+        s.captureSession.capture(request,
+            new CapturePictureTransaction(s, timeline), handler);
       }
       catch (Exception e) {
         getBus().post(new PictureTakenEvent(e));
@@ -677,9 +1061,12 @@ public class CameraTwoEngine extends CameraEngine {
   private class CapturePictureTransaction
     extends CameraCaptureSession.CaptureCallback {
     private final Session s;
+    private final CaptureTimeline timeline;
 
-    CapturePictureTransaction(CameraSession session) {
+    CapturePictureTransaction(CameraSession session,
+                              CaptureTimeline timeline) {
       this.s=(Session)session;
+      this.timeline=timeline;
     }
 
     @Override
@@ -688,7 +1075,12 @@ public class CameraTwoEngine extends CameraEngine {
                                  long timestamp, long frameNumber) {
       super.onCaptureStarted(session, request, timestamp, frameNumber);
 
+      timeline.mark(CaptureTimeline.Phase.SHUTTER);
       shutter.play(MediaActionSound.SHUTTER_CLICK);
+
+      if (s.zsl!=null) {
+        s.zsl.onStillStarted(timestamp);
+      }
     }
 
     @Override
@@ -720,8 +1112,8 @@ public class CameraTwoEngine extends CameraEngine {
           if (session!=null) {
             session.capture(s.previewRequestBuilder.build(), null,
               handler);
-            session.setRepeatingRequest(s.previewRequest, null,
-              handler);
+            session.setRepeatingRequest(s.previewRequest,
+              s.previewCallback, handler);
           }
         }
       }
@@ -742,6 +1134,312 @@ public class CameraTwoEngine extends CameraEngine {
     }
   }
 
+  private class CaptureBurstTransaction
+    extends CameraCaptureSession.CaptureCallback {
+    private boolean haveWePlayedShutter=false;
+    private boolean hasFailed=false;
+
+    @Override
+    public void onCaptureStarted(CameraCaptureSession session,
+                                 CaptureRequest request,
+                                 long timestamp, long frameNumber) {
+      super.onCaptureStarted(session, request, timestamp, frameNumber);
+
+      if (!haveWePlayedShutter) {
+        haveWePlayedShutter=true;
+        shutter.play(MediaActionSound.SHUTTER_CLICK);
+      }
+    }
+
+    @Override
+    public void onCaptureFailed(CameraCaptureSession session,
+                                CaptureRequest request,
+                                CaptureFailure failure) {
+      if (!hasFailed) {
+        hasFailed=true;
+        getBus()
+          .post(new BurstFrameTakenEvent(new RuntimeException("generic camera2 capture failure")));
+      }
+    }
+  }
+
+  /**
+   * Callback for the repeating preview request, holding onto the
+   * most recent result, so takePicture() can tell whether focus
+   * and exposure have already settled.
+   */
+  private static class PreviewCallback
+    extends CameraCaptureSession.CaptureCallback {
+    private volatile CaptureResult latestResult;
+
+    @Override
+    public void onCaptureCompleted(CameraCaptureSession session,
+                                   CaptureRequest request,
+                                   TotalCaptureResult result) {
+      latestResult=result;
+    }
+
+    CaptureResult getLatestResult() {
+      return(latestResult);
+    }
+  }
+
+  /**
+   * Keeps the most recent full-resolution frames from the
+   * repeating request, along with their capture results, so
+   * takePicture() can use a frame that has already been captured.
+   * Capture results arrive on the camera thread, Images on the
+   * image thread, and picture and burst requests on the
+   * scheduler's CONTROL lane, so all access is synchronized.
+   */
+  private class ZslRingBuffer extends PreviewCallback
+    implements ImageReader.OnImageAvailableListener {
+    private final Session s;
+    private final int capacity;
+    private final boolean isRealtimeClock;
+    private final ArrayDeque<Image> frames=new ArrayDeque<Image>();
+    private final LinkedHashMap<Long, CaptureResult> results;
+    private TakePictureTransaction pendingStill;
+    private long pendingStillTimestamp=-1;
+    private TakeBurstTransaction pendingBurst;
+    private final AtomicInteger burstImagesHeld=new AtomicInteger();
+    private final AtomicInteger stillImagesHeld=new AtomicInteger();
+
+    ZslRingBuffer(Session s, final int capacity,
+                  boolean isRealtimeClock) {
+      this.s=s;
+      this.capacity=capacity;
+      this.isRealtimeClock=isRealtimeClock;
+
+      // results can arrive ahead of their images, so keep a few
+      // more than we have frames
+
+      results=new LinkedHashMap<Long, CaptureResult>() {
+        @Override
+        protected boolean removeEldestEntry(
+          Map.Entry<Long, CaptureResult> eldest) {
+          return(size()>capacity*2+2);
+        }
+      };
+    }
+
+    @Override
+    synchronized public void onCaptureCompleted(
+      CameraCaptureSession session, CaptureRequest request,
+      TotalCaptureResult result) {
+      Long timestamp=result.get(CaptureResult.SENSOR_TIMESTAMP);
+
+      super.onCaptureCompleted(session, request, result);
+
+      if (timestamp!=null) {
+        results.put(timestamp, result);
+      }
+    }
+
+    /*
+     * The ImageReader throws if we try to hold more than its
+     * maximum number of Images, so we make room before acquiring:
+     * besides the new Image, there may be one picked frame still
+     * being processed, plus whatever the buffer, any burst, and
+     * any stills handed off for processing are holding.
+     */
+    @Override
+    synchronized public void onImageAvailable(ImageReader imageReader) {
+      int limit=Math.max(0,
+        capacity-1-burstImagesHeld.get()-stillImagesHeld.get());
+
+      while (frames.size()>limit) {
+        frames.removeFirst().close();
+      }
+
+      final Image image=imageReader.acquireNextImage();
+
+      if (image==null) {
+        return;
+      }
+
+      if (pendingStill!=null &&
+        image.getTimestamp()==pendingStillTimestamp) {
+        deliverStill(image);
+      }
+      else if (pendingBurst!=null) {
+        final TakeBurstTransaction burst=pendingBurst;
+        final int frame=burst.nextFrame();
+
+        if (burst.isComplete()) {
+          pendingBurst=null;
+        }
+
+        burst.handOff(image, frame, burstImagesHeld,
+          capacity-1-stillImagesHeld.get());
+      }
+      else {
+        frames.addLast(image);
+      }
+    }
+
+    /**
+     * Hands the best buffered frame to the listener, processing
+     * it on the thread pool so the buffer keeps filling.
+     *
+     * @param listener where the picture goes
+     * @param shutterTime when the picture was requested, in the
+     *                    SystemClock.elapsedRealtimeNanos() timebase
+     * @return true if a frame was used, false if the caller
+     * needs to capture a new picture, whose Image will be routed
+     * to the listener
+     */
+    synchronized boolean takePicture(final TakePictureTransaction listener,
+                                     long shutterTime) {
+      if (frames.isEmpty() || isFlashNeeded()) {
+        pendingStill=listener;
+        pendingStillTimestamp=-1;
+
+        return(false);
+      }
+
+      final Image frame=pickFrame(shutterTime);
+
+      listener.timeline.mark(CaptureTimeline.Phase.SHUTTER);
+      listener.timeline.mark(CaptureTimeline.Phase.IMAGE_AVAILABLE);
+      shutter.play(MediaActionSound.SHUTTER_CLICK);
+      handOffStill(listener, frame);
+
+      return(true);
+    }
+
+    synchronized void takeBurst(TakeBurstTransaction listener) {
+      pendingBurst=listener;
+      shutter.play(MediaActionSound.SHUTTER_CLICK);
+    }
+
+    /**
+     * Called when a still capture requested because takePicture()
+     * returned false has started, so we can recognize its Image.
+     *
+     * @param timestamp the sensor timestamp of the still capture
+     */
+    synchronized void onStillStarted(long timestamp) {
+      if (pendingStill!=null) {
+        for (Image image : frames) {
+          if (image.getTimestamp()==timestamp) {
+            frames.remove(image);
+            deliverStill(image);
+
+            return;
+          }
+        }
+
+        pendingStillTimestamp=timestamp;
+      }
+    }
+
+    private void deliverStill(final Image image) {
+      final TakePictureTransaction listener=pendingStill;
+
+      pendingStill=null;
+      pendingStillTimestamp=-1;
+      listener.timeline.mark(CaptureTimeline.Phase.IMAGE_AVAILABLE);
+      handOffStill(listener, image);
+    }
+
+    /*
+     * Counts the Image as held until onImage() has closed it, so
+     * onImageAvailable() leaves room for it.
+     */
+    private void handOffStill(final TakePictureTransaction listener,
+                              final Image image) {
+      stillImagesHeld.incrementAndGet();
+      getScheduler().execute(CameraScheduler.Lane.IO, new Runnable() {
+        @Override
+        public void run() {
+          try {
+            listener.onImage(image);
+          }
+          finally {
+            stillImagesHeld.decrementAndGet();
+          }
+        }
+      });
+    }
+
+    private boolean isFlashNeeded() {
+      FlashMode flashMode=s.getCurrentFlashMode();
+
+      if (flashMode==FlashMode.ALWAYS) {
+        return(true);
+      }
+
+      CaptureResult latestResult=getLatestResult();
+
+      if ((flashMode==FlashMode.AUTO || flashMode==FlashMode.REDEYE) &&
+        latestResult!=null) {
+        Integer state=latestResult.get(CaptureResult.CONTROL_AE_STATE);
+
+        return(state!=null &&
+          state==CaptureResult.CONTROL_AE_STATE_FLASH_REQUIRED);
+      }
+
+      return(false);
+    }
+
+    /**
+     * Removes and returns the frame closest in time to the
+     * shutter press, preferring ones whose capture results say
+     * that focus and exposure had settled.
+     */
+    private Image pickFrame(long shutterTime) {
+      if (!isRealtimeClock) {
+        // sensor timestamps are not comparable to our clock, so
+        // treat the newest frame as "now"
+
+        shutterTime=frames.peekLast().getTimestamp();
+      }
+
+      Image best=null;
+      boolean isBestConverged=false;
+      long bestDelta=Long.MAX_VALUE;
+
+      for (Image image : frames) {
+        CaptureResult result=results.get(image.getTimestamp());
+        boolean isConverged=(result!=null && isConverged(result));
+        long delta=Math.abs(image.getTimestamp()-shutterTime);
+
+        if (best==null || (isConverged && !isBestConverged) ||
+          (isConverged==isBestConverged && delta<bestDelta)) {
+          best=image;
+          isBestConverged=isConverged;
+          bestDelta=delta;
+        }
+      }
+
+      frames.remove(best);
+
+      return(best);
+    }
+  }
+
+  /**
+   * @return true if the result shows focus and exposure as having
+   * settled (or not being reported at all), false otherwise
+   */
+  private static boolean isConverged(CaptureResult result) {
+    Integer afMode=result.get(CaptureResult.CONTROL_AF_MODE);
+    Integer afState=result.get(CaptureResult.CONTROL_AF_STATE);
+    Integer aeState=result.get(CaptureResult.CONTROL_AE_STATE);
+    boolean isFixedFocus=(afMode!=null &&
+      (afMode==CaptureResult.CONTROL_AF_MODE_OFF ||
+        afMode==CaptureResult.CONTROL_AF_MODE_EDOF));
+    boolean isFocused=(afState==null || isFixedFocus ||
+      afState==CaptureResult.CONTROL_AF_STATE_PASSIVE_FOCUSED ||
+      afState==CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED);
+    boolean isExposed=(aeState==null ||
+      aeState==CaptureResult.CONTROL_AE_STATE_CONVERGED ||
+      aeState==CaptureResult.CONTROL_AE_STATE_LOCKED);
+
+    return(isFocused && isExposed);
+  }
+
   private static class AreaComparator implements Comparator<Size> {
     @Override
     public int compare(Size lhs, Size rhs) {
@@ -761,8 +1459,12 @@ public class CameraTwoEngine extends CameraEngine {
     private final Integer facing;
 
     private Descriptor(String cameraId, CameraCharacteristics cc) {
+      this(cameraId, cc.get(CameraCharacteristics.LENS_FACING));
+    }
+
+    private Descriptor(String cameraId, Integer facing) {
       this.cameraId=cameraId;
-      facing=cc.get(CameraCharacteristics.LENS_FACING);
+      this.facing=facing;
     }
 
     public String getId() {
@@ -826,13 +1528,31 @@ public class CameraTwoEngine extends CameraEngine {
     CaptureRequest.Builder previewRequestBuilder=null;
     CaptureRequest previewRequest;
     ImageReader reader;
+    ImageReader frameReader;
+    ZslRingBuffer zsl;
+    PreviewCallback previewCallback;
     boolean isClosed=false;
     Rect zoomRect=null;
+    private CameraCharacteristics characteristics;
 
     private Session(Context ctxt, CameraDescriptor descriptor) {
       super(ctxt, descriptor);
     }
 
+    /**
+     * Characteristics are fixed for a given camera, so we only
+     * need to ask the CameraManager once per session.
+     */
+    synchronized CameraCharacteristics getCharacteristics(CameraManager mgr)
+      throws CameraAccessException {
+      if (characteristics==null) {
+        characteristics=mgr.getCameraCharacteristics(
+          ((Descriptor)getDescriptor()).getId());
+      }
+
+      return(characteristics);
+    }
+
     ImageReader buildImageReader() {
       ImageReader result=null;
 
@@ -895,10 +1615,11 @@ public class CameraTwoEngine extends CameraEngine {
     }
   }
 
-  private static class TakePictureTransaction implements ImageReader.OnImageAvailableListener {
+  private class TakePictureTransaction implements ImageReader.OnImageAvailableListener {
     private final EventBus bus;
     private final PictureTransaction xact;
     private final Context ctxt;
+    final CaptureTimeline timeline=new CaptureTimeline();
 
     TakePictureTransaction(Context ctxt, EventBus bus, PictureTransaction xact) {
       this.bus=bus;
@@ -906,17 +1627,346 @@ public class CameraTwoEngine extends CameraEngine {
       this.ctxt=ctxt.getApplicationContext();
     }
 
+    @Override
+    public void onImageAvailable(ImageReader imageReader) {
+      final Image image=imageReader.acquireNextImage();
+
+      if (image!=null) {
+        timeline.mark(CaptureTimeline.Phase.IMAGE_AVAILABLE);
+
+        // write off of the camera thread, so it is free for
+        // the next picture
+
+        getScheduler().execute(CameraScheduler.Lane.IO, new Runnable() {
+          @Override
+          public void run() {
+            onImage(image);
+          }
+        });
+      }
+    }
+
+    /**
+     * Writes the picture straight from its plane buffer if the
+     * transaction allows it, otherwise copies it out and hands
+     * the copy to the CPU lane for the processor chain. Closes
+     * the picture either way. Call this on the IO lane.
+     *
+     * @param image the picture
+     */
+    void onImage(Image image) {
+      ImageContext imageContext;
+      byte[] bytes;
+
+      try {
+        ByteBuffer buffer=image.getPlanes()[0].getBuffer();
+
+        imageContext=xact.processDirectly(ctxt, buffer, -1);
+
+        if (imageContext!=null) {
+          bytes=null;
+        }
+        else {
+          bytes=new byte[buffer.remaining()];
+          buffer.get(bytes);
+        }
+      }
+      catch (Exception e) {
+        onError(e);
+
+        return;
+      }
+      finally {
+        image.close();
+      }
+
+      if (bytes==null) {
+        onProcessed(imageContext);
+      }
+      else {
+        final byte[] copy=bytes;
+
+        getScheduler().execute(CameraScheduler.Lane.CPU, new Runnable() {
+          @Override
+          public void run() {
+            onBytes(copy);
+          }
+        });
+      }
+    }
+
+    private void onBytes(byte[] bytes) {
+      ImageContext imageContext;
+
+      try {
+        imageContext=xact.process(new ImageContext(ctxt, bytes),
+          getScheduler().getExecutor(CameraScheduler.Lane.CPU));
+      }
+      catch (Exception e) {
+        onError(e);
+
+        return;
+      }
+
+      onProcessed(imageContext);
+    }
+
+    private void onError(Exception e) {
+      bus.post(new PictureTakenEvent(e));
+
+      if (isDebug()) {
+        Log.e(getClass().getSimpleName(), "Exception processing picture", e);
+      }
+    }
+
+    private void onProcessed(ImageContext imageContext) {
+      timeline.mark(CaptureTimeline.Phase.PROCESSED);
+      bus.post(new PictureTakenEvent(xact, imageContext, timeline));
+      recordCaptureTimeline(timeline);
+    }
+  }
+
+  /**
+   * Copies preview frames out of the YUV ImageReader into recycled
+   * NV21 buffers and hands them to the FrameDispatcher, returning
+   * each Image to the reader right away.
+   */
+  private static class PreviewFrameTransaction
+    implements ImageReader.OnImageAvailableListener {
+    private final FrameDispatcher dispatcher;
+    private final ArrayBlockingQueue<PreviewFrame> freeFrames;
+    private byte[] uRow=new byte[0];
+    private byte[] vRow=new byte[0];
+
+    PreviewFrameTransaction(FrameDispatcher dispatcher,
+                            ArrayBlockingQueue<PreviewFrame> freeFrames) {
+      this.dispatcher=dispatcher;
+      this.freeFrames=freeFrames;
+    }
+
+    @Override
+    public void onImageAvailable(ImageReader imageReader) {
+      Image image=imageReader.acquireLatestImage();
+
+      if (image==null) {
+        return;
+      }
+
+      try {
+        PreviewFrame frame=freeFrames.poll();
+
+        if (frame==null) {
+          dispatcher.recordDroppedFrame();
+        }
+        else {
+          copyToNV21(image, frame.getData());
+          frame.setTimestamp(image.getTimestamp());
+          image.close();
+          image=null;
+          dispatcher.dispatch(frame);
+        }
+      }
+      finally {
+        if (image!=null) {
+          image.close();
+        }
+      }
+    }
+
+    private void copyToNV21(Image image, byte[] out) {
+      Image.Plane[] planes=image.getPlanes();
+      int width=image.getWidth();
+      int height=image.getHeight();
+      ByteBuffer y=planes[0].getBuffer();
+      int yStride=planes[0].getRowStride();
+      int pos=0;
+
+      for (int row=0; row<height; row++) {
+        y.position(row*yStride);
+        y.get(out, pos, width);
+        pos+=width;
+      }
+
+      // U and V are guaranteed to share row and pixel strides
+
+      ByteBuffer u=planes[1].getBuffer();
+      ByteBuffer v=planes[2].getBuffer();
+      int chromaStride=planes[1].getRowStride();
+      int chromaPixelStride=planes[1].getPixelStride();
+      int chromaWidth=(width+1)/2;
+      int chromaHeight=(height+1)/2;
+      int rowLength=(chromaWidth-1)*chromaPixelStride+1;
+
+      if (uRow.length<rowLength) {
+        uRow=new byte[rowLength];
+        vRow=new byte[rowLength];
+      }
+
+      for (int row=0; row<chromaHeight; row++) {
+        u.position(row*chromaStride);
+        u.get(uRow, 0, rowLength);
+        v.position(row*chromaStride);
+        v.get(vRow, 0, rowLength);
+
+        for (int col=0; col<rowLength; col+=chromaPixelStride) {
+          out[pos++]=vRow[col];
+          out[pos++]=uRow[col];
+        }
+      }
+    }
+  }
+
+  private class TakeBurstTransaction implements ImageReader.OnImageAvailableListener {
+    private final PictureTransaction xact;
+    private final Context ctxt;
+    private final int count;
+    private final AtomicInteger processed=new AtomicInteger();
+    private final AtomicInteger imagesHeld=new AtomicInteger();
+    private int index=0;
+
+    TakeBurstTransaction(Context ctxt, PictureTransaction xact, int count) {
+      this.xact=xact;
+      this.ctxt=ctxt.getApplicationContext();
+      this.count=count;
+    }
+
     @Override
     public void onImageAvailable(ImageReader imageReader) {
       Image image=imageReader.acquireNextImage();
-      ByteBuffer buffer=image.getPlanes()[0].getBuffer();
-      byte[] bytes=new byte[buffer.remaining()];
 
-      buffer.get(bytes);
-      image.close();
+      if (image!=null) {
+        handOff(image, nextFrame(), imagesHeld,
+          imageReader.getMaxImages()-1);
+      }
+    }
+
+    /**
+     * Gets the picture off of the thread that acquired it: runs
+     * it through onImage() on the IO lane, keeping the Image, if
+     * fewer than maxHeld Images are held that way, otherwise
+     * copies it out via onImageCopied() so the ImageReader does
+     * not run out of Images.
+     *
+     * @param image the picture
+     * @param frame the picture's index within the burst
+     * @param held count of Images held for the IO lane
+     * @param maxHeld how many Images may be held at once
+     */
+    void handOff(final Image image, final int frame,
+                 final AtomicInteger held, int maxHeld) {
+      if (held.get()<maxHeld) {
+        held.incrementAndGet();
+        getScheduler().execute(CameraScheduler.Lane.IO, new Runnable() {
+          @Override
+          public void run() {
+            try {
+              onImage(image, frame);
+            }
+            finally {
+              held.decrementAndGet();
+            }
+          }
+        });
+      }
+      else {
+        onImageCopied(image, frame);
+      }
+    }
+
+    /**
+     * @return the index of the next frame of the burst; call
+     * once per Image, from the thread that acquires them
+     */
+    int nextFrame() {
+      return(index++);
+    }
+
+    boolean isComplete() {
+      return(index>=count);
+    }
+
+    /**
+     * Runs the picture through the transaction as a frame of
+     * the burst and closes it.
+     *
+     * @param image the picture
+     * @param frame the picture's index within the burst
+     */
+    void onImage(Image image, final int frame) {
+      try {
+        ByteBuffer buffer=image.getPlanes()[0].getBuffer();
+        ImageContext imageContext=
+          xact.processDirectly(ctxt, buffer, frame);
+
+        if (imageContext!=null) {
+          getBus().post(new BurstFrameTakenEvent(xact, imageContext,
+            frame, count, processed.incrementAndGet()==count));
+        }
+        else {
+          // get the Image back to the ImageReader right away, so
+          // the camera can keep going, and run the chain elsewhere
+
+          Image copied=image;
+
+          image=null;
+          onImageCopied(copied, frame);
+        }
+      }
+      catch (Exception e) {
+        getBus().post(new BurstFrameTakenEvent(e));
+
+        if (isDebug()) {
+          Log.e(getClass().getSimpleName(), "Exception processing burst", e);
+        }
+      }
+      finally {
+        if (image!=null) {
+          image.close();
+        }
+      }
+    }
+
+    /**
+     * Copies the picture out of the Image, closes it, and runs
+     * the copy through the transaction on the CPU lane.
+     *
+     * @param image the picture
+     * @param frame the picture's index within the burst
+     */
+    void onImageCopied(Image image, final int frame) {
+      final byte[] bytes;
+
+      try {
+        ByteBuffer buffer=image.getPlanes()[0].getBuffer();
+
+        bytes=new byte[buffer.remaining()];
+        buffer.get(bytes);
+      }
+      finally {
+        image.close();
+      }
+
+      getScheduler().execute(CameraScheduler.Lane.CPU, new Runnable() {
+        @Override
+        public void run() {
+          try {
+            ImageContext imageContext=new ImageContext(ctxt, bytes);
+
+            imageContext.setBurstIndex(frame);
+            imageContext=xact.process(imageContext,
+              getScheduler().getExecutor(CameraScheduler.Lane.CPU));
+            getBus().post(new BurstFrameTakenEvent(xact, imageContext,
+              frame, count, processed.incrementAndGet()==count));
+          }
+          catch (Exception e) {
+            getBus().post(new BurstFrameTakenEvent(e));
 
-      bus.post(new PictureTakenEvent(xact,
-        xact.process(new ImageContext(ctxt, bytes))));
+            if (isDebug()) {
+              Log.e(getClass().getSimpleName(), "Exception processing burst", e);
+            }
+          }
+        }
+      });
     }
   }
 }
@@ -45,6 +45,8 @@ public class CameraView extends TextureView implements TextureView.SurfaceTextur
   private Size previewSize;
   private StateCallback stateCallback;
   private boolean mirror=false;
+  private final FramePacingMonitor frameMonitor=
+    new FramePacingMonitor(AbstractCameraActivity.BUS);
 
   /**
    * Constructor, used for creating instances from Java code.
@@ -142,6 +144,14 @@ public class CameraView extends TextureView implements TextureView.SurfaceTextur
     this.mirror=mirror;
   }
 
+  /**
+   * @return the monitor that tracks preview frames shown by this
+   * view
+   */
+  public FramePacingMonitor getFramePacingMonitor() {
+    return(frameMonitor);
+  }
+
   private void initListener() {
     setSurfaceTextureListener(this);
   }
@@ -175,7 +185,10 @@ public class CameraView extends TextureView implements TextureView.SurfaceTextur
 
   @Override
   public void onSurfaceTextureUpdated(SurfaceTexture surfaceTexture) {
+    // TextureView owns the SurfaceTexture's OnFrameAvailableListener,
+    // so count frames here, as each one is shown
 
+    frameMonitor.onFrame();
   }
 
   private void enterTheMatrix() {
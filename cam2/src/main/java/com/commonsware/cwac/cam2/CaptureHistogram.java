@@ -0,0 +1,153 @@
+/***
+ Copyright (c) 2017 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.commonsware.cwac.cam2;
+
+import java.util.Arrays;
+
+/**
+ * Aggregates CaptureTimelines from every picture taken by an
+ * engine, bucketing the time from the takePicture() call to each
+ * phase. Use this to compare shutter lag across devices, or to
+ * spot regressions, without having to keep every timeline.
+ *
+ * Buckets are fixed, with upper bounds (in milliseconds) given
+ * by getBucketBounds(); the last bucket holds everything slower
+ * than the largest bound.
+ */
+public class CaptureHistogram {
+  private static final long[] BOUNDS_MS=
+    {25, 50, 100, 150, 200, 300, 500, 750, 1000, 1500, 2000, 3000, 5000};
+  private final int phaseCount=CaptureTimeline.Phase.values().length;
+  private final long[][] buckets=new long[phaseCount][BOUNDS_MS.length+1];
+  private final long[] counts=new long[phaseCount];
+  private final long[] totals=new long[phaseCount];
+  private final long[] maximums=new long[phaseCount];
+
+  /**
+   * @return a copy of the upper bounds of the buckets, in
+   * milliseconds
+   */
+  public static long[] getBucketBounds() {
+    return(BOUNDS_MS.clone());
+  }
+
+  /**
+   * Adds a timeline to the histogram. Phases that were not
+   * recorded in the timeline are skipped.
+   *
+   * @param timeline the timeline of a completed capture
+   */
+  synchronized void record(CaptureTimeline timeline) {
+    for (CaptureTimeline.Phase phase : CaptureTimeline.Phase.values()) {
+      long elapsed=timeline.getElapsedMillis(phase);
+
+      if (elapsed>=0) {
+        int i=phase.ordinal();
+        int bucket=0;
+
+        while (bucket<BOUNDS_MS.length && elapsed>BOUNDS_MS[bucket]) {
+          bucket++;
+        }
+
+        buckets[i][bucket]++;
+        counts[i]++;
+        totals[i]+=elapsed;
+        maximums[i]=Math.max(maximums[i], elapsed);
+      }
+    }
+  }
+
+  /**
+   * @param phase a phase of the capture
+   * @return a copy of the bucket counts for the phase, one more
+   * than the number of bucket bounds
+   */
+  synchronized public long[] getBucketCounts(CaptureTimeline.Phase phase) {
+    return(buckets[phase.ordinal()].clone());
+  }
+
+  /**
+   * @param phase a phase of the capture
+   * @return how many captures recorded this phase
+   */
+  synchronized public long getCount(CaptureTimeline.Phase phase) {
+    return(counts[phase.ordinal()]);
+  }
+
+  /**
+   * @param phase a phase of the capture
+   * @return mean milliseconds from takePicture() to the phase,
+   * or -1 if no captures recorded the phase
+   */
+  synchronized public long getAverageMillis(CaptureTimeline.Phase phase) {
+    int i=phase.ordinal();
+
+    return(counts[i]==0 ? -1 : totals[i]/counts[i]);
+  }
+
+  /**
+   * @param phase a phase of the capture
+   * @return the slowest time from takePicture() to the phase,
+   * in milliseconds, or -1 if no captures recorded the phase
+   */
+  synchronized public long getMaxMillis(CaptureTimeline.Phase phase) {
+    int i=phase.ordinal();
+
+    return(counts[i]==0 ? -1 : maximums[i]);
+  }
+
+  /**
+   * Estimates a percentile as the upper bound of the bucket that
+   * holds it. For the overflow bucket, the maximum is returned.
+   *
+   * @param phase a phase of the capture
+   * @param percentile 0-100
+   * @return the estimate in milliseconds, or -1 if no captures
+   * recorded the phase
+   */
+  synchronized public long getPercentileMillis(CaptureTimeline.Phase phase,
+                                               double percentile) {
+    int i=phase.ordinal();
+
+    if (counts[i]==0) {
+      return(-1);
+    }
+
+    long target=(long)Math.ceil(counts[i]*percentile/100.0);
+    long seen=0;
+
+    for (int bucket=0; bucket<BOUNDS_MS.length; bucket++) {
+      seen+=buckets[i][bucket];
+
+      if (seen>=target) {
+        return(Math.min(BOUNDS_MS[bucket], maximums[i]));
+      }
+    }
+
+    return(maximums[i]);
+  }
+
+  /**
+   * Forgets everything recorded so far.
+   */
+  synchronized public void reset() {
+    for (int i=0; i<phaseCount; i++) {
+      Arrays.fill(buckets[i], 0);
+      counts[i]=0;
+      totals[i]=0;
+      maximums[i]=0;
+    }
+  }
+}
@@ -0,0 +1,152 @@
+/***
+ Copyright (c) 2017 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.commonsware.cwac.cam2;
+
+/**
+ * Timestamps for the phases of taking a single picture, from the
+ * takePicture() call to the PictureTakenEvent being posted. All
+ * timestamps are in the System.nanoTime() timebase. Phases that
+ * did not happen for this picture (e.g., no precapture was
+ * needed) or that the engine cannot observe are left unrecorded.
+ */
+public class CaptureTimeline {
+  public enum Phase {
+    /**
+     * takePicture() was called
+     */
+    REQUESTED,
+
+    /**
+     * autofocus reported that it was locked
+     */
+    FOCUS_LOCKED,
+
+    /**
+     * the auto-exposure precapture sequence finished
+     */
+    PRECAPTURE_DONE,
+
+    /**
+     * the shutter fired (ShutterCallback or onCaptureStarted())
+     */
+    SHUTTER,
+
+    /**
+     * the JPEG arrived from the camera
+     */
+    IMAGE_AVAILABLE,
+
+    /**
+     * the PictureTransaction finished its ImageProcessors
+     */
+    PROCESSED,
+
+    /**
+     * posting the PictureTakenEvent returned, so subscribers
+     * that run on the posting thread have handled it; marked
+     * after the event is posted, so those subscribers do not see
+     * this phase
+     */
+    DELIVERED
+  }
+
+  private final long[] timestamps=new long[Phase.values().length];
+
+  CaptureTimeline() {
+    for (int i=0; i<timestamps.length; i++) {
+      timestamps[i]=-1;
+    }
+
+    mark(Phase.REQUESTED);
+  }
+
+  /**
+   * Records the current time for the phase, if the phase has
+   * not been recorded already.
+   *
+   * @param phase the phase that just happened
+   */
+  synchronized void mark(Phase phase) {
+    if (timestamps[phase.ordinal()]<0) {
+      timestamps[phase.ordinal()]=System.nanoTime();
+    }
+  }
+
+  /**
+   * @param phase a phase of the capture
+   * @return the System.nanoTime() value when the phase happened,
+   * or -1 if it was not recorded
+   */
+  synchronized public long getTimestamp(Phase phase) {
+    return(timestamps[phase.ordinal()]);
+  }
+
+  /**
+   * @param phase a phase of the capture
+   * @return true if the phase was recorded, false otherwise
+   */
+  public boolean hasPhase(Phase phase) {
+    return(getTimestamp(phase)>=0);
+  }
+
+  /**
+   * @param from the earlier phase
+   * @param to the later phase
+   * @return nanoseconds between the two phases, or -1 if either
+   * was not recorded
+   */
+  synchronized public long getDurationNanos(Phase from, Phase to) {
+    long start=timestamps[from.ordinal()];
+    long end=timestamps[to.ordinal()];
+
+    if (start<0 || end<0) {
+      return(-1);
+    }
+
+    return(end-start);
+  }
+
+  /**
+   * @param phase a phase of the capture
+   * @return milliseconds from the takePicture() call to the
+   * phase, or -1 if the phase was not recorded
+   */
+  public long getElapsedMillis(Phase phase) {
+    long nanos=getDurationNanos(Phase.REQUESTED, phase);
+
+    return(nanos<0 ? -1 : nanos/1000000L);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder buf=new StringBuilder("CaptureTimeline{");
+    boolean first=true;
+
+    for (Phase phase : Phase.values()) {
+      long elapsed=getElapsedMillis(phase);
+
+      if (elapsed>=0) {
+        if (!first) {
+          buf.append(", ");
+        }
+
+        buf.append(phase.name()).append('=').append(elapsed).append("ms");
+        first=false;
+      }
+    }
+
+    return(buf.append('}').toString());
+  }
+}
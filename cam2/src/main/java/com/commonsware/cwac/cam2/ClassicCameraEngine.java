@@ -22,14 +22,17 @@ import android.graphics.YuvImage;
 import android.hardware.Camera;
 import android.media.MediaRecorder;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import com.commonsware.cwac.cam2.util.Size;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Implementation of a CameraEngine that supports the
@@ -40,14 +43,22 @@ public class ClassicCameraEngine extends CameraEngine
     implements MediaRecorder.OnInfoListener,
     Camera.PreviewCallback, Camera.OnZoomChangeListener {
   private final Context ctxt;
+  private final DescriptorCache cache;
   private List<Descriptor> descriptors=null;
   private MediaRecorder recorder;
   private VideoTransaction xact;
   private int previewWidth, previewHeight;
   private int previewFormat;
+  private final Camera.ShutterCallback shutter=new Camera.ShutterCallback() {
+    @Override
+    public void onShutter() {
+      // empty plays a sound -- go figure
+    }
+  };
 
   public ClassicCameraEngine(Context ctxt) {
     this.ctxt=ctxt.getApplicationContext();
+    cache=new DescriptorCache(this.ctxt, ID.CLASSIC);
   }
 
   /**
@@ -62,10 +73,16 @@ public class ClassicCameraEngine extends CameraEngine
    * {@inheritDoc}
    */
   public void loadCameraDescriptors(final CameraSelectionCriteria criteria) {
-    getThreadPool().execute(new Runnable() {
+    getScheduler().execute(CameraScheduler.Lane.CONTROL, new Runnable() {
       @Override
       public void run() {
         try {
+          boolean isEnumerated=false;
+
+          if (descriptors == null) {
+            descriptors=loadCachedDescriptors();
+          }
+
           if (descriptors == null) {
             int count=Camera.getNumberOfCameras();
             List<Descriptor> result=new ArrayList<Descriptor>();
@@ -147,6 +164,7 @@ public class ClassicCameraEngine extends CameraEngine
             }
 
             descriptors=result;
+            isEnumerated=true;
           }
 
           List<CameraDescriptor> result=
@@ -159,28 +177,26 @@ public class ClassicCameraEngine extends CameraEngine
             }
           }
 
-          Collections.sort(result,
-            new Comparator<CameraDescriptor>() {
-              @Override
-              public int compare(CameraDescriptor descriptor,
-                                 CameraDescriptor t1) {
-                Descriptor lhs=(Descriptor)descriptor;
-                Descriptor rhs=(Descriptor)t1;
-
-                // descending, so invert normal side-ness
+          Collections.sort(result, new DescriptorComparator() {
+            @Override
+            int getScore(CameraDescriptor descriptor) {
+              return(((Descriptor)descriptor).getScore(criteria));
+            }
+          });
 
-                int lhScore=rhs.getScore(criteria);
-                int rhScore=lhs.getScore(criteria);
+          getBus().post(
+            new CameraEngine.CameraDescriptorsEvent(result));
 
-                // from Integer.compare(), which is new to API Level 19
+          if (isEnumerated) {
+            List<DescriptorCache.Entry> entries=
+              new ArrayList<DescriptorCache.Entry>();
 
-                return (lhScore<rhScore ? -1 :
-                  (lhScore==rhScore ? 0 : 1));
-              }
-            });
+            for (Descriptor descriptor : descriptors) {
+              entries.add(descriptor.toCacheEntry());
+            }
 
-          getBus().post(
-            new CameraEngine.CameraDescriptorsEvent(result));
+            saveDescriptorCache(entries);
+          }
         }
         catch (Exception e) {
           getBus().post(new DeepImpactEvent(e));
@@ -193,6 +209,59 @@ public class ClassicCameraEngine extends CameraEngine
     });
   }
 
+  private void saveDescriptorCache(
+    final List<DescriptorCache.Entry> entries) {
+    getScheduler().execute(CameraScheduler.Lane.IO, new Runnable() {
+      @Override
+      public void run() {
+        cache.save(entries);
+      }
+    });
+  }
+
+  /**
+   * Rebuilds descriptors from the on-disk cache. Enumerating
+   * sizes requires opening each camera, so this avoids that
+   * entirely, checking only the (cheap) CameraInfo to confirm
+   * that the cameras are still the ones that were cached.
+   *
+   * @return the cached descriptors, or null if there are none
+   * or they are out of date
+   */
+  private List<Descriptor> loadCachedDescriptors() {
+    List<DescriptorCache.Entry> entries=cache.load();
+
+    if (entries==null) {
+      return(null);
+    }
+
+    int count=Camera.getNumberOfCameras();
+    List<Descriptor> result=new ArrayList<Descriptor>();
+    Camera.CameraInfo info=new Camera.CameraInfo();
+
+    for (DescriptorCache.Entry entry : entries) {
+      int cameraId=Integer.parseInt(entry.id);
+
+      if (cameraId<count) {
+        Camera.getCameraInfo(cameraId, info);
+      }
+
+      if (cameraId>=count || info.facing!=entry.facing) {
+        cache.clear();
+
+        return(null);
+      }
+
+      Descriptor descriptor=new Descriptor(cameraId, info);
+
+      descriptor.setPreviewSizes(entry.previewSizes);
+      descriptor.setPictureSizes(entry.pictureSizes);
+      result.add(descriptor);
+    }
+
+    return(result);
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -202,11 +271,16 @@ public class ClassicCameraEngine extends CameraEngine
     Camera camera=descriptor.getCamera();
 
     if (camera != null) {
+      if (session.getFrameDispatcher()!=null) {
+        camera.setPreviewCallbackWithBuffer(null);
+      }
+
       camera.stopPreview();
       camera.release();
       descriptor.setCamera(null);
     }
 
+    ((Session)session).invalidateParameters();
     session.destroy();
     getBus().post(new ClosedEvent());
   }
@@ -216,30 +290,34 @@ public class ClassicCameraEngine extends CameraEngine
    */
   @Override
   public void takePicture(final CameraSession session, final PictureTransaction xact) {
-    getThreadPool().execute(new Runnable() {
+    final TakePictureTransaction listener=
+      new TakePictureTransaction(session.getContext(), xact);
+
+    getScheduler().execute(CameraScheduler.Lane.CONTROL, new Runnable() {
       @Override
       public void run() {
         Descriptor descriptor=(Descriptor)session.getDescriptor();
         Camera camera=descriptor.getCamera();
 
-        if (savePreviewFile()!=null) {
+        // a one-shot callback would replace the FrameProcessor's,
+        // so skip the debug preview file in that case
+
+        if (savePreviewFile()!=null &&
+          session.getFrameDispatcher()==null) {
           camera.setOneShotPreviewCallback(ClassicCameraEngine.this);
 
-          Camera.Parameters parameters=camera.getParameters();
+          synchronized(session) {
+            Camera.Parameters parameters=
+              ((Session)session).getParameters();
 
-          previewWidth=parameters.getPreviewSize().width;
-          previewHeight=parameters.getPreviewSize().height;
-          previewFormat=parameters.getPreviewFormat();
+            previewWidth=parameters.getPreviewSize().width;
+            previewHeight=parameters.getPreviewSize().height;
+            previewFormat=parameters.getPreviewFormat();
+          }
         }
 
         try {
-          camera.takePicture(new Camera.ShutterCallback() {
-                               @Override
-                               public void onShutter() {
-                                 // empty plays a sound -- go figure
-                               }
-                             }, null,
-              new TakePictureTransaction(session.getContext(), xact));
+          camera.takePicture(listener, null, listener);
         }
         catch (Exception e) {
           getBus().post(new PictureTakenEvent(e));
@@ -252,13 +330,40 @@ public class ClassicCameraEngine extends CameraEngine
     });
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void takeBurst(final CameraSession session, final int count,
+                        final PictureTransaction xact) {
+    getScheduler().execute(CameraScheduler.Lane.CONTROL, new Runnable() {
+      @Override
+      public void run() {
+        Descriptor descriptor=(Descriptor)session.getDescriptor();
+        Camera camera=descriptor.getCamera();
+
+        try {
+          camera.takePicture(shutter, null,
+            new TakeBurstTransaction(session.getContext(), xact, count));
+        }
+        catch (Exception e) {
+          getBus().post(new BurstFrameTakenEvent(e));
+
+          if (isDebug()) {
+            Log.e(getClass().getSimpleName(), "Exception taking burst", e);
+          }
+        }
+      }
+    });
+  }
+
   /**
    * {@inheritDoc}
    */
   @Override
   public void open(final CameraSession session,
                    final SurfaceTexture texture) {
-    getThreadPool().execute(new Runnable() {
+    getScheduler().execute(CameraScheduler.Lane.CONTROL, new Runnable() {
       @Override
       public void run() {
         Descriptor descriptor=(Descriptor)session.getDescriptor();
@@ -269,8 +374,12 @@ public class ClassicCameraEngine extends CameraEngine
           descriptor.setCamera(camera);
         }
 
-        Camera.Parameters params=camera.getParameters();
-        List<String> rawFlashModes=params.getSupportedFlashModes();
+        List<String> rawFlashModes;
+
+        synchronized(session) {
+          rawFlashModes=
+            ((Session)session).getParameters().getSupportedFlashModes();
+        }
 
         eligibleFlashModes.clear();
 
@@ -300,9 +409,10 @@ public class ClassicCameraEngine extends CameraEngine
         }
 
         try {
-          camera.setParameters(((Session)session).configureStillCamera(
-            false));
+          ((Session)session).setParameters(
+            ((Session)session).configureStillCamera(false));
           camera.setPreviewTexture(texture);
+          startFrameProcessing(session, camera);
           camera.startPreview();
           getBus().post(new OpenedEvent());
         }
@@ -319,6 +429,61 @@ public class ClassicCameraEngine extends CameraEngine
     });
   }
 
+  private void startFrameProcessing(CameraSession session,
+                                   final Camera camera) {
+    FrameProcessor processor=session.getFrameProcessor();
+
+    if (processor==null) {
+      return;
+    }
+
+    Camera.Size size;
+
+    synchronized(session) {
+      size=((Session)session).getParameters().getPreviewSize();
+    }
+    int threads=session.getFrameProcessorThreads();
+    final IdentityHashMap<byte[], PreviewFrame> frames=
+      new IdentityHashMap<byte[], PreviewFrame>();
+
+    // one buffer per worker, plus two for the camera to fill
+
+    for (int i=0; i<threads+2; i++) {
+      PreviewFrame frame=new PreviewFrame(
+        new byte[PreviewFrame.getBufferSize(size.width, size.height)],
+        size.width, size.height);
+
+      frames.put(frame.getData(), frame);
+      camera.addCallbackBuffer(frame.getData());
+    }
+
+    final FrameDispatcher dispatcher=new FrameDispatcher(processor,
+      threads, new FrameDispatcher.Recycler() {
+        @Override
+        public void recycle(PreviewFrame frame) {
+          try {
+            camera.addCallbackBuffer(frame.getData());
+          }
+          catch (RuntimeException e) {
+            // camera was released while the frame was out
+          }
+        }
+      });
+
+    session.setFrameDispatcher(dispatcher);
+    camera.setPreviewCallbackWithBuffer(new Camera.PreviewCallback() {
+      @Override
+      public void onPreviewFrame(byte[] data, Camera camera) {
+        PreviewFrame frame=frames.get(data);
+
+        if (frame!=null) {
+          frame.setTimestamp(System.nanoTime());
+          dispatcher.dispatch(frame);
+        }
+      }
+    });
+  }
+
   @Override
   public void recordVideo(CameraSession session,
                           VideoTransaction xact) throws Exception {
@@ -370,6 +535,7 @@ public class ClassicCameraEngine extends CameraEngine
 
       if (!abandon) {
         camera.reconnect();
+        ((Session)session).invalidateParameters();
         camera.startPreview();
       }
     }
@@ -430,7 +596,7 @@ public class ClassicCameraEngine extends CameraEngine
 
   @Override
   public void onPreviewFrame(final byte[] data, final Camera camera) {
-    new Thread() {
+    getScheduler().execute(CameraScheduler.Lane.IO, new Runnable() {
       @Override
       public void run() {
         YuvImage yuv=new YuvImage(data, previewFormat,
@@ -455,7 +621,7 @@ public class ClassicCameraEngine extends CameraEngine
             "Exception saving preview frame", e);
         }
       }
-    }.start();
+    });
   }
 
   /**
@@ -468,29 +634,36 @@ public class ClassicCameraEngine extends CameraEngine
 
   @Override
   public boolean supportsZoom(CameraSession session) {
-    Descriptor descriptor=(Descriptor)session.getDescriptor();
-    Camera camera=descriptor.getCamera();
-    Camera.Parameters params=camera.getParameters();
-
-    return(params.isZoomSupported());
+    synchronized(session) {
+      return(((Session)session).getParameters().isZoomSupported());
+    }
   }
 
   @Override
   public boolean zoomTo(CameraSession session, int zoomLevel) {
+    Session s=(Session)session;
     Descriptor descriptor=(Descriptor)session.getDescriptor();
     Camera camera=descriptor.getCamera();
-    Camera.Parameters params=camera.getParameters();
-    int zoom=zoomLevel*params.getMaxZoom()/100;
     boolean result=false;
 
-    if (params.isSmoothZoomSupported()) {
-      camera.setZoomChangeListener(this);
-      camera.startSmoothZoom(zoom);
-      result=true;
-    }
-    else if (params.isZoomSupported()) {
-      params.setZoom(zoom);
-      camera.setParameters(params);
+    synchronized(s) {
+      Camera.Parameters params=s.getParameters();
+      int zoom=zoomLevel*params.getMaxZoom()/100;
+
+      if (params.isSmoothZoomSupported()) {
+        camera.setZoomChangeListener(this);
+        camera.startSmoothZoom(zoom);
+
+        // keep the snapshot in line with where the camera will
+        // end up, so later setParameters() calls do not undo it
+
+        params.setZoom(zoom);
+        result=true;
+      }
+      else if (params.isZoomSupported()) {
+        params.setZoom(zoom);
+        s.queueParameters();
+      }
     }
 
     return(result);
@@ -504,23 +677,116 @@ public class ClassicCameraEngine extends CameraEngine
     }
   }
 
-  private class TakePictureTransaction implements Camera.PictureCallback {
+  private class TakePictureTransaction
+    implements Camera.PictureCallback, Camera.ShutterCallback {
     private final PictureTransaction xact;
     private final Context ctxt;
+    private final CaptureTimeline timeline=new CaptureTimeline();
 
     TakePictureTransaction(Context ctxt, PictureTransaction xact) {
       this.ctxt=ctxt.getApplicationContext();
       this.xact=xact;
     }
 
+    @Override
+    public void onShutter() {
+      timeline.mark(CaptureTimeline.Phase.SHUTTER);
+    }
+
     @Override
     public void onPictureTaken(final byte[] bytes, final Camera camera) {
-      getThreadPool().execute(new Runnable() {
+      timeline.mark(CaptureTimeline.Phase.IMAGE_AVAILABLE);
+
+      // get the preview going again on the control lane, so the
+      // next picture need not wait for this one to be processed
+
+      getScheduler().execute(CameraScheduler.Lane.CONTROL, new Runnable() {
         @Override
         public void run() {
           camera.startPreview();
-          getBus().post(new PictureTakenEvent(xact,
-            xact.process(new ImageContext(ctxt, bytes))));
+        }
+      });
+
+      getScheduler().execute(CameraScheduler.Lane.CPU, new Runnable() {
+        @Override
+        public void run() {
+          try {
+            ImageContext imageContext=
+              xact.process(new ImageContext(ctxt, bytes),
+                getScheduler().getExecutor(CameraScheduler.Lane.CPU));
+
+            timeline.mark(CaptureTimeline.Phase.PROCESSED);
+            getBus().post(new PictureTakenEvent(xact, imageContext,
+              timeline));
+            recordCaptureTimeline(timeline);
+          }
+          catch (Exception e) {
+            getBus().post(new PictureTakenEvent(e));
+
+            if (isDebug()) {
+              Log.e(getClass().getSimpleName(), "Exception processing picture", e);
+            }
+          }
+        }
+      });
+    }
+  }
+
+  private class TakeBurstTransaction implements Camera.PictureCallback {
+    private final PictureTransaction xact;
+    private final Context ctxt;
+    private final int count;
+    private final AtomicInteger processed=new AtomicInteger();
+    private int index=0;
+
+    TakeBurstTransaction(Context ctxt, PictureTransaction xact,
+                         int count) {
+      this.ctxt=ctxt.getApplicationContext();
+      this.xact=xact;
+      this.count=count;
+    }
+
+    @Override
+    public void onPictureTaken(final byte[] bytes, final Camera camera) {
+      final int frame=index++;
+
+      // restart the preview and ask for the next frame right
+      // away, before processing this one
+
+      camera.startPreview();
+
+      if (index<count) {
+        try {
+          camera.takePicture(shutter, null, this);
+        }
+        catch (Exception e) {
+          getBus().post(new BurstFrameTakenEvent(e));
+
+          if (isDebug()) {
+            Log.e(getClass().getSimpleName(), "Exception taking burst", e);
+          }
+        }
+      }
+
+      getScheduler().execute(CameraScheduler.Lane.CPU, new Runnable() {
+        @Override
+        public void run() {
+          try {
+            ImageContext imageContext=new ImageContext(ctxt, bytes);
+
+            imageContext.setBurstIndex(frame);
+            imageContext=xact.process(imageContext,
+              getScheduler().getExecutor(CameraScheduler.Lane.CPU));
+            getBus().post(new BurstFrameTakenEvent(xact, imageContext,
+              frame, count, processed.incrementAndGet()==count));
+          }
+          catch (Exception e) {
+            getBus().post(new BurstFrameTakenEvent(e));
+
+            if (isDebug()) {
+              Log.e(getClass().getSimpleName(), "Exception processing burst", e);
+            }
+          }
         }
       });
     }
@@ -573,6 +839,11 @@ public class ClassicCameraEngine extends CameraEngine
       pictureSizes=sizes;
     }
 
+    private DescriptorCache.Entry toCacheEntry() {
+      return(new DescriptorCache.Entry(String.valueOf(cameraId), facing,
+        previewSizes, pictureSizes));
+    }
+
     private int getScore(CameraSelectionCriteria criteria) {
       int score=10;
 
@@ -590,11 +861,107 @@ public class ClassicCameraEngine extends CameraEngine
   }
 
   private static class Session extends CameraSession {
+    // roughly one preview frame at 30fps
+    private static final long PARAMETER_BATCH_MS=33;
+    private final Handler handler=new Handler(Looper.getMainLooper());
+    private Camera.Parameters params;
+    private boolean isFlushPending=false;
+    private final Runnable flush=new Runnable() {
+      @Override
+      public void run() {
+        flushParameters();
+      }
+    };
+
     private Session(Context ctxt, CameraDescriptor descriptor) {
       super(ctxt, descriptor);
     }
 
-    Camera.Parameters configureStillCamera(boolean noParams) {
+    /**
+     * getParameters() is an IPC that also has to parse the
+     * flattened parameter string, so we only do it once per
+     * open camera and hand out a shared snapshot afterwards.
+     * The snapshot is flushed to the camera from the main
+     * thread, so callers must hold this Session's lock while
+     * using it, and callers that modify it should then call
+     * setParameters() or queueParameters().
+     *
+     * @return the snapshot of the camera's parameters, or null
+     * if the camera is not open
+     */
+    synchronized Camera.Parameters getParameters() {
+      Camera camera=((Descriptor)getDescriptor()).getCamera();
+
+      if (params==null && camera!=null) {
+        params=camera.getParameters();
+      }
+
+      return(params);
+    }
+
+    /**
+     * Applies parameters to the camera immediately, replacing
+     * the snapshot and any queued changes.
+     *
+     * @param params the parameters to apply
+     */
+    synchronized void setParameters(Camera.Parameters params) {
+      this.params=params;
+      handler.removeCallbacks(flush);
+      isFlushPending=false;
+      ((Descriptor)getDescriptor()).getCamera().setParameters(params);
+    }
+
+    /**
+     * Applies the snapshot to the camera on the next frame.
+     * Any further changes made before then ride along on the
+     * same setParameters() call, so rapid-fire changes (e.g.,
+     * pinch-to-zoom) cost one IPC per frame, not one per
+     * change.
+     */
+    synchronized void queueParameters() {
+      if (!isFlushPending) {
+        isFlushPending=true;
+        handler.postDelayed(flush, PARAMETER_BATCH_MS);
+      }
+    }
+
+    /**
+     * Drops the snapshot and any queued changes, such as when
+     * the camera is closed or reconnected.
+     */
+    synchronized void invalidateParameters() {
+      handler.removeCallbacks(flush);
+      isFlushPending=false;
+      params=null;
+    }
+
+    private synchronized void flushParameters() {
+      Camera camera=((Descriptor)getDescriptor()).getCamera();
+
+      if (isFlushPending && camera!=null && params!=null) {
+        try {
+          camera.setParameters(params);
+        }
+        catch (RuntimeException e) {
+          // camera was released out from under us; the next
+          // open() will apply fresh parameters anyway
+        }
+      }
+
+      isFlushPending=false;
+    }
+
+    /**
+     * Lets the plugins configure the camera and, unless noParams
+     * is true, the parameter snapshot. Holds this Session's lock
+     * throughout, so the plugins' changes cannot be flushed to
+     * the camera half-done or collide with zoom changes.
+     *
+     * @param noParams true to skip configuring the parameters
+     * @return the configured snapshot, or null
+     */
+    synchronized Camera.Parameters configureStillCamera(boolean noParams) {
       final Descriptor descriptor=(Descriptor)getDescriptor();
       final Camera camera=descriptor.getCamera();
       Camera.Parameters params=null;
@@ -603,7 +970,7 @@ public class ClassicCameraEngine extends CameraEngine
         Camera.CameraInfo info=new Camera.CameraInfo();
 
         if (!noParams) {
-          params=camera.getParameters();
+          params=getParameters();
         }
 
         Camera.getCameraInfo(descriptor.getCameraId(), info);
@@ -0,0 +1,214 @@
+/***
+ Copyright (c) 2017 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.commonsware.cwac.cam2;
+
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+import com.commonsware.cwac.cam2.util.Size;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Persists the results of enumerating cameras, so that
+ * loadCameraDescriptors() does not need to query (or, for the
+ * classic engine, open) every camera on each process start.
+ *
+ * The cache is keyed by Build.FINGERPRINT and the engine ID, so
+ * a firmware update or a switch of engines invalidates it. Each
+ * engine is responsible for converting its own descriptors to
+ * and from Entry objects.
+ */
+class DescriptorCache {
+  /**
+   * Entry.facing value for a camera whose engine does not report
+   * which way it faces
+   */
+  static final int FACING_UNKNOWN=-1;
+  private static final int FORMAT_VERSION=1;
+  private final File file;
+  private final CameraEngine.ID engineId;
+
+  DescriptorCache(Context ctxt, CameraEngine.ID engineId) {
+    this.engineId=engineId;
+    this.file=new File(ctxt.getCacheDir(),
+      "cwac-cam2-descriptors-"+engineId.name().toLowerCase());
+  }
+
+  /**
+   * @return the cached entries, or null if there is no usable
+   * cache (missing, corrupt, or from another build)
+   */
+  List<Entry> load() {
+    if (!file.exists()) {
+      return(null);
+    }
+
+    try {
+      DataInputStream in=new DataInputStream(
+        new BufferedInputStream(new FileInputStream(file)));
+
+      try {
+        if (in.readInt()!=FORMAT_VERSION ||
+          !engineId.name().equals(in.readUTF()) ||
+          !String.valueOf(Build.FINGERPRINT).equals(in.readUTF())) {
+          return(null);
+        }
+
+        int count=in.readInt();
+        List<Entry> result=new ArrayList<Entry>(count);
+
+        for (int i=0; i<count; i++) {
+          String id=in.readUTF();
+          int facing=in.readInt();
+          List<Size> previewSizes=readSizes(in);
+          List<Size> pictureSizes=readSizes(in);
+
+          result.add(new Entry(id, facing, previewSizes, pictureSizes));
+        }
+
+        return(result);
+      }
+      finally {
+        in.close();
+      }
+    }
+    catch (IOException e) {
+      Log.w(getClass().getSimpleName(),
+        "Exception reading camera descriptor cache", e);
+      file.delete();
+    }
+
+    return(null);
+  }
+
+  /**
+   * Replaces the cache contents. Writes to a temporary file
+   * first, so a crash mid-write cannot leave a truncated cache
+   * behind.
+   *
+   * @param entries the entries to persist
+   */
+  void save(List<Entry> entries) {
+    File tmp=new File(file.getPath()+".tmp");
+
+    try {
+      DataOutputStream out=new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(tmp)));
+
+      try {
+        out.writeInt(FORMAT_VERSION);
+        out.writeUTF(engineId.name());
+        out.writeUTF(String.valueOf(Build.FINGERPRINT));
+        out.writeInt(entries.size());
+
+        for (Entry entry : entries) {
+          out.writeUTF(entry.id);
+          out.writeInt(entry.facing);
+          writeSizes(out, entry.previewSizes);
+          writeSizes(out, entry.pictureSizes);
+        }
+      }
+      finally {
+        out.close();
+      }
+
+      if (!tmp.renameTo(file)) {
+        throw new IOException("Could not rename "+tmp+" to "+file);
+      }
+    }
+    catch (IOException e) {
+      Log.w(getClass().getSimpleName(),
+        "Exception writing camera descriptor cache", e);
+      tmp.delete();
+    }
+  }
+
+  /**
+   * Removes the cache, such as when it no longer matches the
+   * cameras on the device.
+   */
+  void clear() {
+    file.delete();
+  }
+
+  private static List<Size> readSizes(DataInputStream in)
+    throws IOException {
+    int count=in.readInt();
+    List<Size> result=new ArrayList<Size>(count);
+
+    for (int i=0; i<count; i++) {
+      result.add(new Size(in.readInt(), in.readInt()));
+    }
+
+    return(result);
+  }
+
+  private static void writeSizes(DataOutputStream out, List<Size> sizes)
+    throws IOException {
+    out.writeInt(sizes.size());
+
+    for (Size size : sizes) {
+      out.writeInt(size.getWidth());
+      out.writeInt(size.getHeight());
+    }
+  }
+
+  /**
+   * The engine-neutral portion of a camera descriptor: the
+   * camera's ID (as a string), the engine's facing constant (or
+   * FACING_UNKNOWN), and the sizes the camera supports.
+   */
+  static class Entry {
+    final String id;
+    final int facing;
+    final List<Size> previewSizes;
+    final List<Size> pictureSizes;
+
+    Entry(String id, int facing, List<Size> previewSizes,
+          List<Size> pictureSizes) {
+      this.id=id;
+      this.facing=facing;
+      this.previewSizes=previewSizes;
+      this.pictureSizes=pictureSizes;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Entry)) {
+        return(false);
+      }
+
+      Entry other=(Entry)o;
+
+      return(id.equals(other.id) && facing==other.facing &&
+        previewSizes.equals(other.previewSizes) &&
+        pictureSizes.equals(other.pictureSizes));
+    }
+
+    @Override
+    public int hashCode() {
+      return(id.hashCode()*31+facing);
+    }
+  }
+}
@@ -0,0 +1,44 @@
+/***
+ Copyright (c) 2017 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.commonsware.cwac.cam2;
+
+import java.util.Comparator;
+
+/**
+ * Orders camera descriptors from best to worst match for some
+ * CameraSelectionCriteria, using a score that each engine
+ * computes for its own descriptors. Collections.sort() is
+ * stable, so equally-scored cameras keep their original order.
+ */
+abstract class DescriptorComparator
+  implements Comparator<CameraDescriptor> {
+  /**
+   * @param descriptor one of the engine's descriptors
+   * @return how well the camera matches, with higher being better
+   */
+  abstract int getScore(CameraDescriptor descriptor);
+
+  @Override
+  public int compare(CameraDescriptor descriptor, CameraDescriptor t1) {
+    // descending, so invert normal side-ness
+
+    int lhScore=getScore(t1);
+    int rhScore=getScore(descriptor);
+
+    // from Integer.compare(), which is new to API Level 19
+
+    return(lhScore<rhScore ? -1 : (lhScore==rhScore ? 0 : 1));
+  }
+}
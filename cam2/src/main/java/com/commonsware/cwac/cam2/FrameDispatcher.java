@@ -0,0 +1,118 @@
+/***
+ Copyright (c) 2017 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.commonsware.cwac.cam2;
+
+import android.util.Log;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands preview frames from a camera engine to a FrameProcessor
+ * on a fixed pool of worker threads, dropping frames when every
+ * worker is busy. Once a frame is processed (or dropped), it is
+ * given to the Recycler, so the engine can reuse its buffer.
+ */
+class FrameDispatcher {
+  interface Recycler {
+    void recycle(PreviewFrame frame);
+  }
+
+  private final FrameProcessor processor;
+  private final Recycler recycler;
+  private final Semaphore workers;
+  private final ThreadPoolExecutor pool;
+  private final AtomicLong droppedFrames=new AtomicLong();
+
+  FrameDispatcher(FrameProcessor processor, int threadCount,
+                  Recycler recycler) {
+    this.processor=processor;
+    this.recycler=recycler;
+    workers=new Semaphore(threadCount);
+    pool=new ThreadPoolExecutor(threadCount, threadCount, 60,
+      TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+      new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable r) {
+          return(new Thread(new Runnable() {
+            @Override
+            public void run() {
+              android.os.Process.setThreadPriority(
+                android.os.Process.THREAD_PRIORITY_BACKGROUND);
+              r.run();
+            }
+          }, "CWAC-Cam2-FrameProcessor"));
+        }
+      });
+  }
+
+  /**
+   * Processes the frame if a worker is free, otherwise drops it.
+   * Either way, the frame is recycled when we are done with it.
+   *
+   * @param frame the frame to process
+   * @return true if the frame will be processed, false if it
+   * was dropped
+   */
+  boolean dispatch(final PreviewFrame frame) {
+    if (pool.isShutdown() || !workers.tryAcquire()) {
+      droppedFrames.incrementAndGet();
+      recycler.recycle(frame);
+
+      return(false);
+    }
+
+    pool.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          processor.onFrame(frame);
+        }
+        catch (RuntimeException e) {
+          Log.e("CWAC-Cam2", "Exception in FrameProcessor", e);
+        }
+        finally {
+          workers.release();
+          recycler.recycle(frame);
+        }
+      }
+    });
+
+    return(true);
+  }
+
+  /**
+   * Counts a frame that the engine had to drop before it could
+   * even be dispatched (e.g., no free buffer).
+   */
+  void recordDroppedFrame() {
+    droppedFrames.incrementAndGet();
+  }
+
+  /**
+   * @return how many frames have been dropped because all
+   * workers were busy
+   */
+  long getDroppedFrameCount() {
+    return(droppedFrames.get());
+  }
+
+  void shutdown() {
+    pool.shutdown();
+  }
+}
@@ -0,0 +1,299 @@
+/***
+ Copyright (c) 2017 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.commonsware.cwac.cam2;
+
+import android.os.SystemClock;
+import java.util.Arrays;
+import org.greenrobot.eventbus.EventBus;
+
+/**
+ * Watches preview frames arriving at a CameraView, to measure
+ * how long the camera takes to show its first frame after being
+ * opened and how evenly frames arrive after that. Stats cover a
+ * rolling window of recent frames and are posted as a StatsEvent
+ * about once a second.
+ *
+ * A frame interval more than 1.5x the typical interval counts
+ * the frames that should have arrived in the gap as dropped.
+ * An interval more than twice the typical interval counts as
+ * jank. The typical interval is the window's median as of the
+ * last report, so the per-frame work stays constant.
+ */
+public class FramePacingMonitor {
+  private static final int WINDOW=120;
+  private static final long REPORT_INTERVAL_MS=1000;
+  private static final long[] BOUNDS_MS={8, 17, 25, 34, 50, 67, 100, 200};
+  private final long[] intervals=new long[WINDOW];
+  private final EventBus bus;
+  private int next=0;
+  private int filled=0;
+  private long openedAt=-1;
+  private long lastFrameAt=-1;
+  private long firstFrameLatency=-1;
+  private long frameCount=0;
+  private long droppedFrames=0;
+  private long jankFrames=0;
+  private long lastReportAt=0;
+  private long typicalInterval=-1;
+
+  FramePacingMonitor(EventBus bus) {
+    this.bus=bus;
+  }
+
+  /**
+   * Called when the camera is about to be opened, starting a
+   * fresh set of stats.
+   */
+  synchronized void onOpen() {
+    openedAt=SystemClock.elapsedRealtime();
+    lastFrameAt=-1;
+    firstFrameLatency=-1;
+    frameCount=0;
+    droppedFrames=0;
+    jankFrames=0;
+    next=0;
+    filled=0;
+    typicalInterval=-1;
+    lastReportAt=openedAt;
+  }
+
+  /**
+   * Called for each preview frame.
+   */
+  void onFrame() {
+    Stats stats=null;
+
+    synchronized(this) {
+      long now=SystemClock.elapsedRealtime();
+
+      if (lastFrameAt<0) {
+        if (openedAt>=0) {
+          firstFrameLatency=now-openedAt;
+        }
+      }
+      else {
+        long interval=now-lastFrameAt;
+
+        if (typicalInterval<0 && filled>=WINDOW/4) {
+          // seed the estimate once we have enough frames; after
+          // that, each report refreshes it
+
+          typicalInterval=percentile(sortWindow(), 50);
+        }
+
+        if (typicalInterval>0) {
+          if (interval*2>typicalInterval*3) {
+            droppedFrames+=Math.max(1,
+              Math.round((double)interval/typicalInterval)-1);
+          }
+
+          if (interval>typicalInterval*2) {
+            jankFrames++;
+          }
+        }
+
+        intervals[next]=interval;
+        next=(next+1)%WINDOW;
+        filled=Math.min(filled+1, WINDOW);
+      }
+
+      lastFrameAt=now;
+      frameCount++;
+
+      if (now-lastReportAt>=REPORT_INTERVAL_MS) {
+        lastReportAt=now;
+        stats=getStats();
+      }
+    }
+
+    if (stats!=null && bus!=null) {
+      bus.post(new StatsEvent(stats));
+    }
+  }
+
+  /**
+   * @return a snapshot of the current stats
+   */
+  synchronized public Stats getStats() {
+    long[] buckets=new long[BOUNDS_MS.length+1];
+    long total=0;
+    long max=0;
+
+    for (int i=0; i<filled; i++) {
+      int bucket=0;
+
+      while (bucket<BOUNDS_MS.length && intervals[i]>BOUNDS_MS[bucket]) {
+        bucket++;
+      }
+
+      buckets[bucket]++;
+      total+=intervals[i];
+      max=Math.max(max, intervals[i]);
+    }
+
+    long[] sorted=sortWindow();
+    long median=percentile(sorted, 50);
+
+    if (filled>=WINDOW/4) {
+      typicalInterval=median;
+    }
+
+    return(new Stats(firstFrameLatency, frameCount, droppedFrames,
+      jankFrames, filled==0 ? -1 : total/filled, median,
+      percentile(sorted, 90), percentile(sorted, 99),
+      filled==0 ? -1 : max, buckets));
+  }
+
+  private long[] sortWindow() {
+    long[] sorted=Arrays.copyOf(intervals, filled);
+
+    Arrays.sort(sorted);
+
+    return(sorted);
+  }
+
+  private static long percentile(long[] sorted, int percentile) {
+    if (sorted.length==0) {
+      return(-1);
+    }
+
+    return(sorted[Math.min(sorted.length-1,
+      sorted.length*percentile/100)]);
+  }
+
+  /**
+   * A snapshot of frame pacing. All times are in milliseconds,
+   * and are -1 if not known yet.
+   */
+  public static class Stats {
+    private final long firstFrameLatency;
+    private final long frameCount;
+    private final long droppedFrames;
+    private final long jankFrames;
+    private final long averageInterval;
+    private final long medianInterval;
+    private final long p90Interval;
+    private final long p99Interval;
+    private final long maxInterval;
+    private final long[] buckets;
+
+    Stats(long firstFrameLatency, long frameCount, long droppedFrames,
+          long jankFrames, long averageInterval, long medianInterval,
+          long p90Interval, long p99Interval, long maxInterval,
+          long[] buckets) {
+      this.firstFrameLatency=firstFrameLatency;
+      this.frameCount=frameCount;
+      this.droppedFrames=droppedFrames;
+      this.jankFrames=jankFrames;
+      this.averageInterval=averageInterval;
+      this.medianInterval=medianInterval;
+      this.p90Interval=p90Interval;
+      this.p99Interval=p99Interval;
+      this.maxInterval=maxInterval;
+      this.buckets=buckets;
+    }
+
+    /**
+     * @return time from opening the camera to the first preview
+     * frame
+     */
+    public long getFirstFrameLatency() {
+      return(firstFrameLatency);
+    }
+
+    /**
+     * @return frames seen since the camera was opened
+     */
+    public long getFrameCount() {
+      return(frameCount);
+    }
+
+    /**
+     * @return frames estimated to be missing since the camera
+     * was opened
+     */
+    public long getDroppedFrameCount() {
+      return(droppedFrames);
+    }
+
+    /**
+     * @return frames that arrived late enough to be visible
+     * stutter, since the camera was opened
+     */
+    public long getJankFrameCount() {
+      return(jankFrames);
+    }
+
+    public long getAverageInterval() {
+      return(averageInterval);
+    }
+
+    public long getMedianInterval() {
+      return(medianInterval);
+    }
+
+    public long get90thPercentileInterval() {
+      return(p90Interval);
+    }
+
+    public long get99thPercentileInterval() {
+      return(p99Interval);
+    }
+
+    public long getMaxInterval() {
+      return(maxInterval);
+    }
+
+    /**
+     * @return a copy of the upper bounds of the interval
+     * histogram buckets, in milliseconds
+     */
+    public long[] getBucketBounds() {
+      return(BOUNDS_MS.clone());
+    }
+
+    /**
+     * @return a copy of the interval histogram for the rolling
+     * window, with one more entry than getBucketBounds(), for
+     * intervals longer than the largest bound
+     */
+    public long[] getBucketCounts() {
+      return(buckets.clone());
+    }
+
+    @Override
+    public String toString() {
+      return("FramePacing{firstFrame="+firstFrameLatency+"ms, frames="+
+        frameCount+", dropped="+droppedFrames+", jank="+jankFrames+
+        ", median="+medianInterval+"ms, p90="+p90Interval+"ms, p99="+
+        p99Interval+"ms, max="+maxInterval+"ms}");
+    }
+  }
+
+  /**
+   * Posted periodically while the preview is running.
+   */
+  public static class StatsEvent {
+    private final Stats stats;
+
+    StatsEvent(Stats stats) {
+      this.stats=stats;
+    }
+
+    public Stats getStats() {
+      return(stats);
+    }
+  }
+}
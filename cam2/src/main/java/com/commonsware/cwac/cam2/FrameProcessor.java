@@ -0,0 +1,36 @@
+/***
+ Copyright (c) 2017 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.commonsware.cwac.cam2;
+
+/**
+ * Interface for a class that analyzes preview frames, such as for
+ * quality checks or barcode detection. Register one via
+ * setFrameProcessor() on CameraSession.
+ *
+ * Frames are delivered on a small pool of worker threads. If all
+ * of those threads are busy, new frames are dropped rather than
+ * queued, so a slow FrameProcessor sees fewer frames, not
+ * stale ones.
+ */
+public interface FrameProcessor {
+  /**
+   * Analyze a preview frame. The frame, and its byte[], are
+   * recycled once this method returns, so copy out anything
+   * that you need to hold onto.
+   *
+   * @param frame the preview frame
+   */
+  void onFrame(PreviewFrame frame);
+}
@@ -15,7 +15,9 @@
 package com.commonsware.cwac.cam2;
 
 import com.android.mms.exif.ExifInterface;
+import com.android.mms.exif.ExifSnapshot;
 import com.android.mms.exif.ExifTag;
+import com.commonsware.cwac.cam2.util.JPEGTransformer;
 
 import android.app.ActivityManager;
 import android.content.Context;
@@ -23,9 +25,11 @@ import android.content.pm.ApplicationInfo;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Matrix;
+import android.net.Uri;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * Represents a picture taken by the camera, to be passed through
@@ -36,22 +40,69 @@ import java.io.IOException;
  * call getBitmap(true) to force creation of a Bitmap for those
  * JPEG bytes, but this is memory-intensive and should be avoided
  * where possible.
+ *
+ * If the picture was written straight from the camera's buffer
+ * (see PictureTransaction.PROP_WRITE_DIRECTLY), the byte[] is only
+ * read back in from the output on the first call to getJpeg().
  */
 public class ImageContext {
   private static final double LOG_2=Math.log(2.0d);
   private Context ctxt;
   private byte[] jpegOriginal;
+  private Uri source;
   private Bitmap bmp;
   private Bitmap thumbnail;
   private ExifInterface exif;
+  private volatile ExifSnapshot exifSnapshot;
     private boolean alreadyNormalized = false;
     private int currentQuality = 100;
+  private int burstIndex=-1;
+  private ProcessingStats processingStats;
 
   ImageContext(Context ctxt, byte[] jpeg) {
     this.ctxt=ctxt.getApplicationContext();
     setJpeg(jpeg);
   }
 
+  /**
+   * Constructor for a picture that has already been written out
+   * (e.g., by JPEGWriter directly from the camera's buffer). The
+   * JPEG is only read back in if something asks for it.
+   *
+   * @param ctxt any Context will do
+   * @param source where the JPEG was written
+   */
+  ImageContext(Context ctxt, Uri source) {
+    this.ctxt=ctxt.getApplicationContext();
+    this.source=source;
+  }
+
+  /**
+   * Creates a copy that shares this picture's data until one of
+   * them changes it. The JPEG byte[] and any Bitmaps are shared,
+   * since they are replaced, not modified, when the picture
+   * changes, as is the immutable ExifSnapshot; the ExifInterface
+   * is not, since it is modified in place, so the copy parses its
+   * own if needed.
+   *
+   * @return the copy
+   */
+  ImageContext fork() {
+    return(new ImageContext(this));
+  }
+
+  private ImageContext(ImageContext original) {
+    ctxt=original.ctxt;
+    jpegOriginal=original.jpegOriginal;
+    source=original.source;
+    bmp=original.bmp;
+    thumbnail=original.thumbnail;
+    exifSnapshot=original.exifSnapshot;
+    alreadyNormalized=original.alreadyNormalized;
+    currentQuality=original.currentQuality;
+    burstIndex=original.burstIndex;
+  }
+
   /**
    * @return an Android Context suitable for use in cases where
    * you need filesystem paths and the like
@@ -60,10 +111,48 @@ public class ImageContext {
     return(ctxt);
   }
 
+  /**
+   * @return the 0-based position of this picture in a burst
+   * (see takeBurst() on CameraEngine), or -1 if it was taken
+   * on its own
+   */
+  public int getBurstIndex() {
+    return(burstIndex);
+  }
+
+  void setBurstIndex(int burstIndex) {
+    this.burstIndex=burstIndex;
+  }
+
+  /**
+   * @return timing and allocation details for the ImageProcessors
+   * that produced this picture, or null if it did not go through
+   * a PictureTransaction
+   */
+  public ProcessingStats getProcessingStats() {
+    return(processingStats);
+  }
+
+  void setProcessingStats(ProcessingStats processingStats) {
+    this.processingStats=processingStats;
+  }
+
+  /**
+   * @return the size of the JPEG held in memory, or -1 if it
+   * has not been loaded (this does not load it)
+   */
+  int getJpegSize() {
+    return(jpegOriginal==null ? -1 : jpegOriginal.length);
+  }
+
   /**
    * @return the byte[] of JPEG-encoded data for the picture
    */
   public byte[] getJpeg() {
+    if (jpegOriginal==null && source!=null) {
+      jpegOriginal=readSource();
+    }
+
     return(jpegOriginal);
   }
 
@@ -74,6 +163,8 @@ public class ImageContext {
    */
   public void setJpeg(byte[] jpeg) {
     this.jpegOriginal=jpeg;
+    this.exifSnapshot=null;
+    this.source=null;
     this.bmp=null;
     this.thumbnail=null;
   }
@@ -82,14 +173,46 @@ public class ImageContext {
     if (exif==null) {
       exif=new ExifInterface();
 
-      exif.readExif(jpegOriginal);
+      // JPEGs are replaced, never modified in place, so the tags
+      // can decode their values (e.g., maker notes) on demand
+      exif.setDecodeLazily(true);
+      exif.readExif(getJpeg());
     }
 
     return(exif);
   }
 
+  /**
+   * Unlike getExifInterface(), the snapshot is immutable, so
+   * processors running in parallel can all read it, and derive
+   * their own edited copies from it, without any locking. It
+   * is parsed from the JPEG on first use, separately from the
+   * ExifInterface, and is discarded when the JPEG changes.
+   *
+   * @return a snapshot of the EXIF of the current JPEG
+   */
+  public ExifSnapshot getExifSnapshot() throws IOException {
+    ExifSnapshot result=exifSnapshot;
+
+    if (result==null) {
+      // if two threads race here, both parse the same JPEG,
+      // and either result is fine
+
+      result=ExifSnapshot.read(getJpeg());
+      exifSnapshot=result;
+    }
+
+    return(result);
+  }
+
   public int getOrientation() throws IOException {
-    ExifTag tag=getExifInterface().getTag(ExifInterface.TAG_ORIENTATION);
+    if (exif==null) {
+      // no need to parse all of the EXIF just for this
+
+      return(ExifInterface.probeOrientation(getJpeg()));
+    }
+
+    ExifTag tag=exif.getTag(ExifInterface.TAG_ORIENTATION);
 
     return(tag==null ? -1 : tag.getValueAsInt(-1));
   }
@@ -99,17 +222,32 @@ public class ImageContext {
       try {
         int orientation=getOrientation();
 
+        if (needsNormalization(orientation) && currentQuality<=quality) {
+          // no re-encode needed, so try to avoid one entirely
+
+          byte[] rotated=rotateLosslessly(orientation);
+
+          if (rotated!=null) {
+            jpegOriginal=rotated;
+            exifSnapshot=null;
+            alreadyNormalized=true;
+          }
+        }
+
         if (needsNormalization(orientation)) {
           try {
             int requestedQuality = (currentQuality > quality) ? quality : currentQuality;
 
+            byte[] jpeg=getJpeg();
             Bitmap original=
-              BitmapFactory.decodeByteArray(jpegOriginal, 0,
-                jpegOriginal.length);
+              BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length);
             Bitmap rotated=rotateViaMatrix(original, orientation);
 
+            ExifInterface exif=getExifInterface();
+
             exif.setTagValue(ExifInterface.TAG_ORIENTATION, 1);
             jpegOriginal = recompressBitmap(exif, rotated, requestedQuality);
+            exifSnapshot = null;
             alreadyNormalized = true;
           }
           catch (OutOfMemoryError e) {
@@ -126,14 +264,46 @@ public class ImageContext {
 
     if (currentQuality > quality) {
         try {
-            jpegOriginal = recompressBitmap(exif, getBitmap(true, false), quality);
+            jpegOriginal = recompressBitmap(getExifInterface(), getBitmap(true, false), quality);
+            exifSnapshot = null;
         } catch (Exception e) {
             AbstractCameraActivity.BUS
                     .post(new CameraEngine.DeepImpactEvent(e));
         }
     }
 
-      return jpegOriginal;
+      return getJpeg();
+  }
+
+  /**
+   * Rotates the JPEG in the DCT domain, without decoding it,
+   * via JPEGTransformer.
+   *
+   * @param orientation the current EXIF orientation
+   * @return the rotated JPEG, or null if it could not be
+   * rotated losslessly (e.g., it is not MCU-aligned)
+   */
+  private byte[] rotateLosslessly(int orientation) throws IOException {
+    byte[] result=JPEGTransformer.transform(getJpeg(), orientation);
+
+    if (result!=null) {
+      ExifInterface exif=getExifInterface();
+
+      exif.setTagValue(ExifInterface.TAG_ORIENTATION, 1);
+
+      // the EXIF thumbnail was not rotated, so drop it, as
+      // recompressBitmap() would
+
+      if (exif.hasThumbnail()) {
+        ByteArrayOutputStream baos=new ByteArrayOutputStream(result.length);
+
+        exif.removeCompressedThumbnail();
+        exif.writeExif(result, baos);
+        result=baos.toByteArray();
+      }
+    }
+
+    return(result);
   }
 
   public byte[] recompressBitmap(ExifInterface exifInterface, Bitmap bitmap, int quality) {
@@ -148,7 +318,7 @@ public class ImageContext {
                   .post(new CameraEngine.DeepImpactEvent(e));
       }
 
-      return jpegOriginal;
+      return getJpeg();
   }
 
   /**
@@ -202,7 +372,7 @@ public class ImageContext {
 
   private Bitmap createBitmap(Bitmap inBitmap, int limit,
                               boolean normalizeOrientation) {
-    double ratio=(double)jpegOriginal.length * 10.0d / (double)limit;
+    double ratio=(double)getJpeg().length * 10.0d / (double)limit;
     int inSampleSize;
 
     if (ratio > 1.0d) {
@@ -226,8 +396,10 @@ public class ImageContext {
     Bitmap result;
 
     try {
+      byte[] jpeg=getJpeg();
+
       result=
-         BitmapFactory.decodeByteArray(jpegOriginal, 0, jpegOriginal.length, opts);
+         BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, opts);
 
       if (limit>0 && result.getByteCount()>limit) {
         return(createBitmap(inSampleSize+1, inBitmap,
@@ -257,6 +429,32 @@ public class ImageContext {
     return(result);
   }
 
+  private byte[] readSource() {
+    try {
+      InputStream in=ctxt.getContentResolver().openInputStream(source);
+      ByteArrayOutputStream out=new ByteArrayOutputStream();
+      byte[] buffer=new byte[8192];
+      int count;
+
+      try {
+        while ((count=in.read(buffer))>=0) {
+          out.write(buffer, 0, count);
+        }
+      }
+      finally {
+        in.close();
+      }
+
+      return(out.toByteArray());
+    }
+    catch (IOException e) {
+      AbstractCameraActivity.BUS.post(
+        new CameraEngine.DeepImpactEvent(e));
+    }
+
+    return(null);
+  }
+
   private void updateBitmap(boolean normalizeOrientation) {
     bmp=createBitmap(1, bmp, -1, normalizeOrientation); // no limit other than OOM
   }
@@ -14,13 +14,19 @@
 
 package com.commonsware.cwac.cam2;
 
+import com.android.mms.exif.ExifInterface;
+
 import android.content.Context;
 import android.media.MediaScannerConnection;
 import android.net.Uri;
+import android.os.ParcelFileDescriptor;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 import static com.commonsware.cwac.cam2.PictureTransaction.PROP_OUTPUT;
 import static com.commonsware.cwac.cam2.PictureTransaction.PROP_SKIP_ORIENTATION_NORMALIZATION;
@@ -71,12 +77,8 @@ public class JPEGWriter extends AbstractImageProcessor {
     if (output!=null) {
       try {
         if (output.getScheme().equals("file")) {
-          String path=output.getPath();
-
-            if (!path.contains(".jpg")) {
-                path = path + ".jpg";
-            }
-
+          String path=getOutputPath(output,
+            imageContext.getBurstIndex());
           File f=new File(path);
 
           f.getParentFile().mkdirs();
@@ -109,4 +111,102 @@ public class JPEGWriter extends AbstractImageProcessor {
     }
     return imageContext;
   }
+
+  /**
+   * Writes the JPEG straight from the camera's buffer to the
+   * output, via a FileChannel, if doing so would give the same
+   * results as process(): there is an output, no recompression
+   * is requested, and no orientation normalization is needed.
+   * Used for PictureTransaction.PROP_WRITE_DIRECTLY.
+   *
+   * @param xact the PictureTransaction, containing properties
+   * @param jpeg the JPEG; its position is not changed
+   * @param burstIndex position of the JPEG within a burst, or -1
+   * @return the Uri that was written, or null if the JPEG needs
+   * to go through process() instead
+   */
+  Uri writeDirectly(PictureTransaction xact, ByteBuffer jpeg,
+                    int burstIndex) {
+    Uri output=xact.getProperties().getParcelable(PROP_OUTPUT);
+    int jpgQuality=xact.getProperties().getInt(PROP_JPG_QUALITY, 100);
+    boolean normalizeOrientation=!xact
+      .getProperties()
+      .getBoolean(PROP_SKIP_ORIENTATION_NORMALIZATION, false);
+
+    if (output==null || jpgQuality<100) {
+      return(null);
+    }
+
+    try {
+      if (normalizeOrientation) {
+        int orientation=ExifInterface.probeOrientation(jpeg);
+
+        if (orientation==3 || orientation==6 || orientation==8) {
+          return(null);
+        }
+      }
+
+      if (output.getScheme().equals("file")) {
+        String path=getOutputPath(output, burstIndex);
+        File f=new File(path);
+
+        f.getParentFile().mkdirs();
+
+        FileOutputStream fos=new FileOutputStream(f);
+
+        try {
+          writeFully(fos.getChannel(), jpeg.duplicate());
+          fos.getFD().sync();
+        }
+        finally {
+          fos.close();
+        }
+
+        if (xact.getProperties().getBoolean(PROP_UPDATE_MEDIA_STORE, false)) {
+          MediaScannerConnection.scanFile(getContext(),
+            new String[]{path}, new String[]{"image/jpeg"},
+            null);
+        }
+
+        return(Uri.fromFile(f));
+      }
+
+      ParcelFileDescriptor pfd=
+        getContext().getContentResolver().openFileDescriptor(output, "w");
+      FileOutputStream fos=new FileOutputStream(pfd.getFileDescriptor());
+
+      try {
+        writeFully(fos.getChannel(), jpeg.duplicate());
+      }
+      finally {
+        fos.close();
+        pfd.close();
+      }
+
+      return(output);
+    }
+    catch (Exception e) {
+      // process() will try again with the byte[] and report
+      // anything that is still wrong
+
+      return(null);
+    }
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer src)
+    throws IOException {
+    while (src.hasRemaining()) {
+      channel.write(src);
+    }
+  }
+
+  private static String getOutputPath(Uri output, int burstIndex) {
+    String path=output.getPath();
+
+    if (!path.contains(".jpg")) {
+      path=path+".jpg";
+    }
+
+    return(getBurstPath(path, ".jpg", burstIndex));
+  }
 }
@@ -68,6 +68,9 @@ public class PNGWriter extends AbstractImageProcessor {
                         path = path + ".png";
                     }
 
+                    path = getBurstPath(path, ".png",
+                            imageContext.getBurstIndex());
+
                     File f = new File(path);
 
                     f.getParentFile().mkdirs();
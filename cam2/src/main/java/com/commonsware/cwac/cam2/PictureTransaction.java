@@ -16,9 +16,14 @@ package com.commonsware.cwac.cam2;
 
 import android.content.Context;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Debug;
+import android.os.Trace;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.concurrent.Executor;
 
 /**
  * Class encapsulating the information needed to take a picture
@@ -50,7 +55,37 @@ public class PictureTransaction {
     public static final String PROP_SKIP_ORIENTATION_NORMALIZATION
             = "skipOrientationNormalization";
 
+    /**
+     * Property key for boolean indicating if the JPEG may be written
+     * straight from the camera's buffer to PROP_OUTPUT, skipping
+     * the copy into a byte[]. This only happens if the chain
+     * consists solely of a JPEGWriter and that writer would not
+     * change the JPEG (no recompression, no rotation needed).
+     * Defaults to false.
+     */
+    public static final String PROP_WRITE_DIRECTLY = "writeDirectly";
+
+  /**
+   * Property key for boolean indicating if the bytes allocated
+   * by each ImageProcessor should be counted (see
+   * ProcessingStats). This turns on VM-wide allocation counting
+   * while processors run, which has a cost of its own.
+   * Defaults to false.
+   */
+  public static final String PROP_COUNT_ALLOCATIONS="countAllocations";
+
+  /**
+   * Property key for boolean indicating if each ImageProcessor
+   * should get its own android.os.Trace section, for viewing in
+   * systrace. Only works on API Level 18+. Defaults to false.
+   */
+  public static final String PROP_TRACE="trace";
+
+  private static int allocCounters=0;
+
   private ArrayList<ImageProcessor> processors=new ArrayList<ImageProcessor>();
+  private ArrayList<int[]> dependencies=new ArrayList<int[]>();
+  private boolean isGraph=false;
   private Bundle props=new Bundle();
 
   private PictureTransaction() {
@@ -58,14 +93,180 @@ public class PictureTransaction {
   }
 
   ImageContext process(ImageContext imageContext) {
+    ProcessingStats stats=new ProcessingStats();
+    long start=System.nanoTime();
 
     for (ImageProcessor processor : processors) {
-      imageContext = processor.process(this, imageContext);
+      imageContext = runProcessor(processor, imageContext, stats);
+    }
+
+    return(finish(imageContext, stats, start));
+  }
+
+  /**
+   * Runs the processors, concurrently where their dependencies
+   * allow (see Builder.appendAfter()), returning once all have
+   * finished.
+   *
+   * @param imageContext the picture
+   * @param executor where to run independent processors
+   * @return the output of the last processor appended
+   */
+  ImageContext process(ImageContext imageContext, Executor executor) {
+    if (!isGraph || processors.isEmpty()) {
+      return(process(imageContext));
+    }
+
+    ProcessingStats stats=new ProcessingStats();
+    long start=System.nanoTime();
+
+    imageContext=new ProcessorGraph(this, processors,
+      dependencies.toArray(new int[dependencies.size()][]),
+      imageContext, executor, stats).run();
+
+    return(finish(imageContext, stats, start));
+  }
+
+  /**
+   * Runs one processor, recording its stats.
+   */
+  ImageContext runProcessor(ImageProcessor processor,
+                            ImageContext imageContext,
+                            ProcessingStats stats) {
+    boolean trace=props.getBoolean(PROP_TRACE, false) &&
+      Build.VERSION.SDK_INT>=Build.VERSION_CODES.JELLY_BEAN_MR2;
+    boolean countAllocations=
+      props.getBoolean(PROP_COUNT_ALLOCATIONS, false);
+    int inputJpegSize=
+      (imageContext==null ? -1 : imageContext.getJpegSize());
+    long allocatedAtStart=0;
+    long allocated=-1;
+
+    if (trace) {
+      String name=processor.getTag();
+
+      // section names are limited to 127 characters
+
+      Trace.beginSection(name.length()>127 ?
+        name.substring(name.length()-127) : name);
+    }
+
+    if (countAllocations) {
+      startAllocCounting();
+      allocatedAtStart=Debug.getThreadAllocSize();
+    }
+
+    long cpuAtStart=Debug.threadCpuTimeNanos();
+    long start=System.nanoTime();
+    ImageContext result;
+
+    try {
+      result=processor.process(this, imageContext);
+    }
+    finally {
+      if (countAllocations) {
+        allocated=Debug.getThreadAllocSize()-allocatedAtStart;
+        stopAllocCounting();
+      }
+
+      if (trace) {
+        Trace.endSection();
+      }
+    }
+
+    long wallTime=System.nanoTime()-start;
+    long cpuAtEnd=Debug.threadCpuTimeNanos();
+
+    stats.add(new ProcessingStats.Entry(processor.getTag(), wallTime,
+      cpuAtStart<0 || cpuAtEnd<0 ? -1 : cpuAtEnd-cpuAtStart,
+      allocated, inputJpegSize,
+      result==null ? -1 : result.getJpegSize()));
+
+    return(result);
+  }
+
+  private static ImageContext finish(ImageContext imageContext,
+                                     ProcessingStats stats,
+                                     long start) {
+    stats.setTotalWallTimeNanos(System.nanoTime()-start);
+
+    if (imageContext!=null) {
+      imageContext.setProcessingStats(stats);
     }
 
     return(imageContext);
   }
 
+  /*
+   * Allocation counting is VM-wide, so keep it on while any
+   * transaction on any thread wants it.
+   */
+  private static synchronized void startAllocCounting() {
+    if (allocCounters++==0) {
+      Debug.resetThreadAllocSize();
+      Debug.startAllocCounting();
+    }
+  }
+
+  private static synchronized void stopAllocCounting() {
+    if (--allocCounters==0) {
+      Debug.stopAllocCounting();
+    }
+  }
+
+  /**
+   * Tries to handle the whole transaction by writing the JPEG
+   * straight out of the supplied buffer, per PROP_WRITE_DIRECTLY.
+   *
+   * @param ctxt any Context will do
+   * @param jpeg the JPEG from the camera; its position is not changed
+   * @param burstIndex position of the JPEG within a burst, or -1
+   * @return an ImageContext lazily backed by the written output,
+   * or null if the caller needs to run the regular process() chain
+   */
+  ImageContext processDirectly(Context ctxt, ByteBuffer jpeg,
+                               int burstIndex) {
+    if (!props.getBoolean(PROP_WRITE_DIRECTLY, false) ||
+      processors.size()!=1 ||
+      !(processors.get(0) instanceof JPEGWriter)) {
+      return(null);
+    }
+
+    ImageProcessor writer=processors.get(0);
+    int size=jpeg.remaining();
+    long cpuAtStart=Debug.threadCpuTimeNanos();
+    long start=System.nanoTime();
+    Uri written=((JPEGWriter)writer).writeDirectly(this, jpeg, burstIndex);
+
+    if (written==null) {
+      return(null);
+    }
+
+    long wallTime=System.nanoTime()-start;
+    long cpuAtEnd=Debug.threadCpuTimeNanos();
+    ProcessingStats stats=new ProcessingStats();
+    ImageContext result=new ImageContext(ctxt, written);
+
+    stats.add(new ProcessingStats.Entry(writer.getTag(), wallTime,
+      cpuAtStart<0 || cpuAtEnd<0 ? -1 : cpuAtEnd-cpuAtStart, -1, size,
+      size));
+    stats.setTotalWallTimeNanos(wallTime);
+    result.setBurstIndex(burstIndex);
+    result.setProcessingStats(stats);
+
+    return(result);
+  }
+
+  private int indexOfProcessor(String tag) {
+    for (int i=0; i<processors.size(); i++) {
+      if (processors.get(i).getTag().equals(tag)) {
+        return(i);
+      }
+    }
+
+    return(-1);
+  }
+
   ImageProcessor findProcessorByTag(String tag) {
     for (ImageProcessor processor : processors) {
       if (processor.getTag().equals(tag)) {
@@ -109,7 +310,95 @@ public class PictureTransaction {
      * @return the Builder, for more API calls
      */
     public Builder append(ImageProcessor processor) {
+      int count=result.processors.size();
+
+      result.processors.add(processor);
+      result.dependencies.add(count==0 ? new int[0] : new int[] {count-1});
+
+      return(this);
+    }
+
+    /**
+     * Adds an ImageProcessor that depends only on the named
+     * processors, rather than on whatever was appended before it.
+     * Processors that do not depend on one another (e.g., one
+     * writing the full-size picture and another building a
+     * smaller copy) then run concurrently.
+     *
+     * The processor receives the output of the first processor
+     * named, or the original picture if none are named; the rest
+     * only need to finish first. Branches that start from the
+     * same picture each get their own copy of its ImageContext,
+     * so they may modify it freely. The PictureTakenEvent is
+     * posted once every processor is done, with the output of the
+     * last processor appended.
+     *
+     * @param processor the ImageProcessor to add
+     * @param tags getTag() values of processors already appended
+     *             that must finish first
+     * @return the Builder, for more API calls
+     */
+    public Builder appendAfter(ImageProcessor processor,
+                               String... tags) {
+      int[] indices=new int[tags.length];
+
+      for (int i=0; i<tags.length; i++) {
+        indices[i]=result.indexOfProcessor(tags[i]);
+
+        if (indices[i]<0) {
+          throw new IllegalArgumentException(
+            "No processor with tag "+tags[i]+" has been appended");
+        }
+      }
+
       result.processors.add(processor);
+      result.dependencies.add(indices);
+      result.isGraph=true;
+
+      return(this);
+    }
+
+    /**
+     * Indicates whether the bytes allocated by each ImageProcessor
+     * should be counted. See PROP_COUNT_ALLOCATIONS.
+     *
+     * @param countAllocations true to count allocations, false
+     *                         otherwise
+     * @return the Builder, for more API calls
+     */
+    public Builder countAllocations(boolean countAllocations) {
+      result
+        .getProperties()
+        .putBoolean(PROP_COUNT_ALLOCATIONS, countAllocations);
+
+      return(this);
+    }
+
+    /**
+     * Indicates whether each ImageProcessor should be wrapped
+     * in an android.os.Trace section. See PROP_TRACE.
+     *
+     * @param trace true to add trace sections, false otherwise
+     * @return the Builder, for more API calls
+     */
+    public Builder trace(boolean trace) {
+      result.getProperties().putBoolean(PROP_TRACE, trace);
+
+      return(this);
+    }
+
+    /**
+     * Indicates whether the JPEG may be written straight from
+     * the camera's buffer, where possible. See PROP_WRITE_DIRECTLY.
+     *
+     * @param writeDirectly true to allow direct writes, false
+     *                      otherwise
+     * @return the Builder, for more API calls
+     */
+    public Builder writeDirectly(boolean writeDirectly) {
+      result
+        .getProperties()
+        .putBoolean(PROP_WRITE_DIRECTLY, writeDirectly);
 
       return(this);
     }
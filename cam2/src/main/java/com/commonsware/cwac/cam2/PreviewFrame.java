@@ -0,0 +1,87 @@
+/***
+ Copyright (c) 2017 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.commonsware.cwac.cam2;
+
+import android.graphics.ImageFormat;
+
+/**
+ * A preview frame, as handed to a FrameProcessor. The data is
+ * always in NV21 layout (a full-resolution Y plane, followed by
+ * interleaved V and U samples at half resolution in each
+ * direction), regardless of camera engine.
+ *
+ * Instances and their byte[] buffers are recycled, so they are
+ * only valid for the duration of the onFrame() call.
+ */
+public class PreviewFrame {
+  private final byte[] data;
+  private final int width;
+  private final int height;
+  private long timestamp;
+
+  PreviewFrame(byte[] data, int width, int height) {
+    this.data=data;
+    this.width=width;
+    this.height=height;
+  }
+
+  /**
+   * @return the number of bytes needed to hold an NV21 frame
+   * of the given size
+   */
+  static int getBufferSize(int width, int height) {
+    return(width*height+2*((width+1)/2)*((height+1)/2));
+  }
+
+  /**
+   * @return the NV21-encoded pixels of the frame
+   */
+  public byte[] getData() {
+    return(data);
+  }
+
+  /**
+   * @return the width of the frame, in pixels
+   */
+  public int getWidth() {
+    return(width);
+  }
+
+  /**
+   * @return the height of the frame, in pixels
+   */
+  public int getHeight() {
+    return(height);
+  }
+
+  /**
+   * @return ImageFormat.NV21
+   */
+  public int getFormat() {
+    return(ImageFormat.NV21);
+  }
+
+  /**
+   * @return when the frame was captured, in nanoseconds; only
+   * useful for comparing against other frames
+   */
+  public long getTimestamp() {
+    return(timestamp);
+  }
+
+  void setTimestamp(long timestamp) {
+    this.timestamp=timestamp;
+  }
+}
@@ -0,0 +1,163 @@
+/***
+ Copyright (c) 2017 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.commonsware.cwac.cam2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timings and sizes recorded while a picture went through the
+ * ImageProcessors of its PictureTransaction. Get one from
+ * getProcessingStats() on ImageContext or PictureTakenEvent.
+ */
+public class ProcessingStats {
+  private final ArrayList<Entry> entries=new ArrayList<Entry>();
+  private volatile long totalWallTimeNanos=-1;
+
+  /**
+   * @return stats for each processor, in the order they
+   * finished
+   */
+  synchronized public List<Entry> getEntries() {
+    return(Collections.unmodifiableList(new ArrayList<Entry>(entries)));
+  }
+
+  /**
+   * @param tag the getTag() value of a processor
+   * @return the stats for that processor, or null if it did
+   * not run
+   */
+  synchronized public Entry getEntry(String tag) {
+    for (Entry entry : entries) {
+      if (entry.getTag().equals(tag)) {
+        return(entry);
+      }
+    }
+
+    return(null);
+  }
+
+  /**
+   * @return nanoseconds from the start of processing until every
+   * processor had finished; with parallel branches, this can be
+   * less than the sum of the processors' wall times
+   */
+  public long getTotalWallTimeNanos() {
+    return(totalWallTimeNanos);
+  }
+
+  synchronized void add(Entry entry) {
+    entries.add(entry);
+  }
+
+  void setTotalWallTimeNanos(long totalWallTimeNanos) {
+    this.totalWallTimeNanos=totalWallTimeNanos;
+  }
+
+  @Override
+  synchronized public String toString() {
+    StringBuilder buf=new StringBuilder("total=")
+      .append(TimeUnit.NANOSECONDS.toMillis(totalWallTimeNanos))
+      .append("ms");
+
+    for (Entry entry : entries) {
+      buf.append(", ").append(entry);
+    }
+
+    return(buf.toString());
+  }
+
+  /**
+   * Stats for one ImageProcessor. Values that could not be
+   * measured are -1.
+   */
+  public static class Entry {
+    private final String tag;
+    private final long wallTimeNanos;
+    private final long cpuTimeNanos;
+    private final long allocatedBytes;
+    private final int inputJpegSize;
+    private final int outputJpegSize;
+
+    Entry(String tag, long wallTimeNanos, long cpuTimeNanos,
+          long allocatedBytes, int inputJpegSize,
+          int outputJpegSize) {
+      this.tag=tag;
+      this.wallTimeNanos=wallTimeNanos;
+      this.cpuTimeNanos=cpuTimeNanos;
+      this.allocatedBytes=allocatedBytes;
+      this.inputJpegSize=inputJpegSize;
+      this.outputJpegSize=outputJpegSize;
+    }
+
+    /**
+     * @return the getTag() value of the processor
+     */
+    public String getTag() {
+      return(tag);
+    }
+
+    /**
+     * @return elapsed nanoseconds for the processor's process()
+     * call
+     */
+    public long getWallTimeNanos() {
+      return(wallTimeNanos);
+    }
+
+    /**
+     * @return nanoseconds of CPU time used by the processor's
+     * thread during its process() call
+     */
+    public long getCpuTimeNanos() {
+      return(cpuTimeNanos);
+    }
+
+    /**
+     * @return bytes allocated by the processor's thread during
+     * its process() call; only measured if requested via
+     * countAllocations() on PictureTransaction.Builder
+     */
+    public long getAllocatedBytes() {
+      return(allocatedBytes);
+    }
+
+    /**
+     * @return the size of the JPEG handed to the processor, if
+     * it had been loaded into memory
+     */
+    public int getInputJpegSize() {
+      return(inputJpegSize);
+    }
+
+    /**
+     * @return the size of the JPEG the processor returned, if
+     * it is in memory
+     */
+    public int getOutputJpegSize() {
+      return(outputJpegSize);
+    }
+
+    @Override
+    public String toString() {
+      return(tag+": wall="+TimeUnit.NANOSECONDS.toMillis(wallTimeNanos)+
+        "ms cpu="+(cpuTimeNanos<0 ? -1 : TimeUnit.NANOSECONDS.toMillis(cpuTimeNanos))+
+        "ms alloc="+allocatedBytes+" jpeg="+inputJpegSize+"->"+
+        outputJpegSize);
+    }
+  }
+}
@@ -0,0 +1,243 @@
+/***
+ Copyright (c) 2017 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.commonsware.cwac.cam2;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs the ImageProcessors of a PictureTransaction whose
+ * processors declare dependencies (see appendAfter() on
+ * PictureTransaction.Builder). Processors whose dependencies
+ * are met run concurrently, spread across the supplied
+ * Executor and the calling thread.
+ *
+ * The calling thread always works through ready processors
+ * itself rather than just waiting, so the graph completes
+ * even if every Executor thread is busy (e.g., the caller is
+ * itself running on that Executor).
+ */
+class ProcessorGraph {
+  private final PictureTransaction xact;
+  private final List<ImageProcessor> processors;
+  private final int[][] dependencies;
+  private final int[][] dependents;
+  private final int[] remaining;
+  private final ImageContext[] outputs;
+  private final ImageContext input;
+  private final Executor executor;
+  private final ProcessingStats stats;
+  private final ArrayDeque<Integer> ready=new ArrayDeque<Integer>();
+  private int running=0;
+  private RuntimeException failure;
+  private final Runnable helper=new Runnable() {
+    @Override
+    public void run() {
+      runReady();
+    }
+  };
+
+  /**
+   * @param xact the transaction being processed
+   * @param processors the transaction's processors
+   * @param dependencies for each processor, the indices of the
+   *                     processors it depends on (all lower
+   *                     than its own index)
+   * @param input the picture to process
+   * @param executor where to run processors other than on the
+   *                 calling thread
+   */
+  ProcessorGraph(PictureTransaction xact,
+                 List<ImageProcessor> processors,
+                 int[][] dependencies, ImageContext input,
+                 Executor executor, ProcessingStats stats) {
+    int count=processors.size();
+    int[] dependentCounts=new int[count];
+
+    this.xact=xact;
+    this.processors=processors;
+    this.dependencies=dependencies;
+    this.input=input;
+    this.executor=executor;
+    this.stats=stats;
+    remaining=new int[count];
+    outputs=new ImageContext[count];
+    dependents=new int[count][];
+
+    for (int i=0; i<count; i++) {
+      remaining[i]=dependencies[i].length;
+
+      for (int dependency : dependencies[i]) {
+        dependentCounts[dependency]++;
+      }
+    }
+
+    for (int i=0; i<count; i++) {
+      dependents[i]=new int[dependentCounts[i]];
+      dependentCounts[i]=0;
+    }
+
+    for (int i=0; i<count; i++) {
+      for (int dependency : dependencies[i]) {
+        dependents[dependency][dependentCounts[dependency]++]=i;
+      }
+    }
+  }
+
+  /**
+   * Runs every processor, returning when all have finished.
+   *
+   * @return the output of the last processor in the transaction
+   */
+  ImageContext run() {
+    synchronized(this) {
+      for (int i=0; i<remaining.length; i++) {
+        if (remaining[i]==0) {
+          ready.add(i);
+        }
+      }
+
+      requestHelpers();
+    }
+
+    while (true) {
+      runReady();
+
+      synchronized(this) {
+        while (ready.isEmpty() && running>0) {
+          try {
+            wait();
+          }
+          catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+
+        if (ready.isEmpty()) {
+          break;
+        }
+      }
+    }
+
+    if (failure!=null) {
+      throw failure;
+    }
+
+    return(outputs[outputs.length-1]);
+  }
+
+  private void runReady() {
+    while (true) {
+      int index;
+
+      synchronized(this) {
+        if (ready.isEmpty()) {
+          return;
+        }
+
+        index=ready.poll();
+        running++;
+      }
+
+      ImageContext result=null;
+      RuntimeException error=null;
+
+      try {
+        ImageContext imageContext;
+
+        synchronized(this) {
+          imageContext=inputFor(index);
+        }
+
+        result=xact.runProcessor(processors.get(index), imageContext,
+          stats);
+      }
+      catch (RuntimeException e) {
+        error=e;
+      }
+
+      synchronized(this) {
+        running--;
+        outputs[index]=result;
+
+        if (error!=null) {
+          if (failure==null) {
+            failure=error;
+          }
+
+          ready.clear();
+        }
+        else if (failure==null) {
+          for (int dependent : dependents[index]) {
+            if (--remaining[dependent]==0) {
+              ready.add(dependent);
+            }
+          }
+
+          requestHelpers();
+        }
+
+        notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Processors that depend on nothing start from the original
+   * picture; others start from the output of their first
+   * dependency. If more than one processor starts from the same
+   * ImageContext, each gets its own fork, so one branch's
+   * changes do not leak into another.
+   */
+  private ImageContext inputFor(int index) {
+    int[] mine=dependencies[index];
+    ImageContext source;
+    int consumers;
+
+    if (mine.length==0) {
+      source=input;
+      consumers=0;
+
+      for (int[] theirs : dependencies) {
+        if (theirs.length==0) {
+          consumers++;
+        }
+      }
+    }
+    else {
+      source=outputs[mine[0]];
+      consumers=0;
+
+      for (int dependent : dependents[mine[0]]) {
+        if (dependencies[dependent][0]==mine[0]) {
+          consumers++;
+        }
+      }
+    }
+
+    return(consumers>1 && source!=null ? source.fork() : source);
+  }
+
+  /**
+   * Leaves one ready processor for the current thread and
+   * offers the rest to the executor.
+   */
+  private void requestHelpers() {
+    for (int i=1; i<ready.size(); i++) {
+      executor.execute(helper);
+    }
+  }
+}
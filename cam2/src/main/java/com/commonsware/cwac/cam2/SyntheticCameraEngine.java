@@ -0,0 +1,754 @@
+/***
+ Copyright (c) 2017 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.commonsware.cwac.cam2;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.util.Log;
+import android.view.Surface;
+import com.commonsware.cwac.cam2.util.Size;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Implementation of a CameraEngine that needs no camera.
+ * Descriptors, preview frames, and pictures come from a directory
+ * of fixture files, with configurable simulated latencies, so
+ * CameraController, PictureTransaction, and ImageProcessor chains
+ * can be exercised and benchmarked on emulators, build machines,
+ * and the like.
+ *
+ * The fixture directory has one subdirectory per camera, named
+ * "back" or "front". If it has neither, the directory itself is
+ * treated as a single back-facing camera. Each camera directory
+ * holds:
+ *
+ * - .jpg files: the pictures, handed out in name order, cycling
+ * back to the first after the last. Their dimensions are the
+ * camera's picture sizes.
+ *
+ * - .nv21 or .yuv files: NV21 preview frames, with names that
+ * start with their size (e.g., 640x480-office.nv21). Their sizes
+ * are the camera's preview sizes. If there are none, the camera
+ * offers a 640x480 preview of flat gray frames.
+ *
+ * Video recording is not supported.
+ */
+public class SyntheticCameraEngine extends CameraEngine {
+  /**
+   * Name of the directory, in getFilesDir(), used for fixtures
+   * unless setFixtureDirectory() is called
+   */
+  public static final String DEFAULT_FIXTURE_DIR="cwac-cam2-synthetic";
+  private static final Size DEFAULT_PREVIEW_SIZE=new Size(640, 480);
+  private static final Pattern PREVIEW_NAME=
+    Pattern.compile("^(\\d+)x(\\d+).*\\.(nv21|yuv)$");
+  private final ScheduledExecutorService timer=
+    Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread result=new Thread(r, "CWAC-Cam2-Synthetic");
+
+        // do not keep a JVM-hosted benchmark alive
+
+        result.setDaemon(true);
+
+        return(result);
+      }
+    });
+  private volatile File fixtureDir;
+  private volatile long openLatency=0;
+  private volatile long focusLatency=0;
+  private volatile long shutterLatency=0;
+  private volatile long imageLatency=0;
+  private volatile long frameInterval=33;
+  private volatile long burstFrameInterval=0;
+  private List<Descriptor> descriptors=null;
+
+  public SyntheticCameraEngine(Context ctxt) {
+    fixtureDir=new File(ctxt.getApplicationContext().getFilesDir(),
+      DEFAULT_FIXTURE_DIR);
+  }
+
+  /**
+   * @param fixtureDir the directory of fixtures to use; takes
+   *                   effect on the next loadCameraDescriptors()
+   */
+  synchronized public void setFixtureDirectory(File fixtureDir) {
+    this.fixtureDir=fixtureDir;
+    descriptors=null;
+  }
+
+  public File getFixtureDirectory() {
+    return(fixtureDir);
+  }
+
+  /**
+   * @param openLatency milliseconds from open() to the OpenedEvent
+   */
+  public void setOpenLatency(long openLatency) {
+    this.openLatency=openLatency;
+  }
+
+  /**
+   * @param focusLatency milliseconds from takePicture() to focus
+   *                     being locked
+   */
+  public void setFocusLatency(long focusLatency) {
+    this.focusLatency=focusLatency;
+  }
+
+  /**
+   * @param shutterLatency milliseconds from focus being locked
+   *                       to the shutter
+   */
+  public void setShutterLatency(long shutterLatency) {
+    this.shutterLatency=shutterLatency;
+  }
+
+  /**
+   * @param imageLatency milliseconds from the shutter to the JPEG
+   *                     being available
+   */
+  public void setImageLatency(long imageLatency) {
+    this.imageLatency=imageLatency;
+  }
+
+  /**
+   * @param frameInterval milliseconds between preview frames
+   */
+  public void setPreviewFrameInterval(long frameInterval) {
+    this.frameInterval=frameInterval;
+  }
+
+  /**
+   * @param burstFrameInterval milliseconds between frames of a
+   *                           burst
+   */
+  public void setBurstFrameInterval(long burstFrameInterval) {
+    this.burstFrameInterval=burstFrameInterval;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public CameraSession.Builder buildSession(Context ctxt,
+                                            CameraDescriptor descriptor) {
+    return(new SessionBuilder(ctxt, descriptor));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void loadCameraDescriptors(final CameraSelectionCriteria criteria) {
+    getScheduler().execute(CameraScheduler.Lane.CONTROL, new Runnable() {
+      @Override
+      public void run() {
+        try {
+          List<CameraDescriptor> result=new ArrayList<CameraDescriptor>();
+
+          for (Descriptor descriptor : getDescriptors()) {
+            if (criteria==null || !criteria.getFacingExactMatch() ||
+              descriptor.getScore(criteria)>0) {
+              result.add(descriptor);
+            }
+          }
+
+          Collections.sort(result, new DescriptorComparator() {
+            @Override
+            int getScore(CameraDescriptor descriptor) {
+              return(((Descriptor)descriptor).getScore(criteria));
+            }
+          });
+
+          getBus().post(new CameraDescriptorsEvent(result));
+        }
+        catch (Exception e) {
+          getBus().post(new CameraDescriptorsEvent(e));
+
+          if (isDebug()) {
+            Log.e(getClass().getSimpleName(),
+              "Exception loading fixtures", e);
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void open(final CameraSession session,
+                   final SurfaceTexture texture) {
+    timer.schedule(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          startPreview((Session)session, texture);
+          getBus().post(new OpenedEvent());
+        }
+        catch (Exception e) {
+          getBus().post(new OpenedEvent(e));
+
+          if (isDebug()) {
+            Log.e(getClass().getSimpleName(), "Exception opening camera", e);
+          }
+        }
+      }
+    }, openLatency, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void close(CameraSession session) {
+    final Surface surface=((Session)session).stopPreview();
+
+    if (surface!=null) {
+      // release on the timer thread, after any frame being drawn
+
+      timer.execute(new Runnable() {
+        @Override
+        public void run() {
+          surface.release();
+        }
+      });
+    }
+
+    session.destroy();
+    getBus().post(new ClosedEvent());
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void takePicture(final CameraSession session,
+                          final PictureTransaction xact) {
+    final CaptureTimeline timeline=new CaptureTimeline();
+    final Descriptor descriptor=(Descriptor)session.getDescriptor();
+
+    markLater(timeline, CaptureTimeline.Phase.FOCUS_LOCKED, focusLatency);
+    markLater(timeline, CaptureTimeline.Phase.SHUTTER,
+      focusLatency+shutterLatency);
+    timer.schedule(new Runnable() {
+      @Override
+      public void run() {
+        final byte[] jpeg;
+
+        try {
+          jpeg=descriptor.nextPicture();
+        }
+        catch (IOException e) {
+          getBus().post(new PictureTakenEvent(e));
+
+          if (isDebug()) {
+            Log.e(getClass().getSimpleName(), "Exception taking picture", e);
+          }
+
+          return;
+        }
+
+        timeline.mark(CaptureTimeline.Phase.IMAGE_AVAILABLE);
+        getScheduler().execute(CameraScheduler.Lane.CPU, new Runnable() {
+          @Override
+          public void run() {
+            try {
+              ImageContext imageContext=
+                xact.process(new ImageContext(session.getContext(), jpeg),
+                  getScheduler().getExecutor(CameraScheduler.Lane.CPU));
+
+              timeline.mark(CaptureTimeline.Phase.PROCESSED);
+              getBus().post(new PictureTakenEvent(xact, imageContext,
+                timeline));
+              recordCaptureTimeline(timeline);
+            }
+            catch (Exception e) {
+              getBus().post(new PictureTakenEvent(e));
+
+              if (isDebug()) {
+                Log.e(getClass().getSimpleName(), "Exception processing picture", e);
+              }
+            }
+          }
+        });
+      }
+    }, focusLatency+shutterLatency+imageLatency, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void takeBurst(final CameraSession session, final int count,
+                        final PictureTransaction xact) {
+    final Descriptor descriptor=(Descriptor)session.getDescriptor();
+    final AtomicInteger processed=new AtomicInteger();
+    long firstFrame=shutterLatency+imageLatency;
+
+    for (int i=0; i<count; i++) {
+      final int frame=i;
+
+      timer.schedule(new Runnable() {
+        @Override
+        public void run() {
+          final byte[] jpeg;
+
+          try {
+            jpeg=descriptor.nextPicture();
+          }
+          catch (IOException e) {
+            getBus().post(new BurstFrameTakenEvent(e));
+
+            if (isDebug()) {
+              Log.e(getClass().getSimpleName(), "Exception taking burst", e);
+            }
+
+            return;
+          }
+
+          getScheduler().execute(CameraScheduler.Lane.CPU, new Runnable() {
+            @Override
+            public void run() {
+              try {
+                ImageContext imageContext=
+                  new ImageContext(session.getContext(), jpeg);
+
+                imageContext.setBurstIndex(frame);
+                imageContext=xact.process(imageContext,
+                  getScheduler().getExecutor(CameraScheduler.Lane.CPU));
+                getBus().post(new BurstFrameTakenEvent(xact, imageContext,
+                  frame, count, processed.incrementAndGet()==count));
+              }
+              catch (Exception e) {
+                getBus().post(new BurstFrameTakenEvent(e));
+
+                if (isDebug()) {
+                  Log.e(getClass().getSimpleName(), "Exception processing burst", e);
+                }
+              }
+            }
+          });
+        }
+      }, firstFrame+i*burstFrameInterval, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void recordVideo(CameraSession session, VideoTransaction xact)
+    throws Exception {
+    getBus().post(new VideoTakenEvent(
+      new IllegalStateException("The synthetic engine does not record video")));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void stopVideoRecording(CameraSession session,
+                                 boolean abandon) throws Exception {
+    // nothing is ever recording
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void handleOrientationChange(CameraSession session,
+                                      OrientationChangedEvent event) {
+    // fixtures have a fixed orientation
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean supportsDynamicFlashModes() {
+    return(false);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean supportsZoom(CameraSession session) {
+    return(true);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean zoomTo(CameraSession session, int zoomLevel) {
+    ((Session)session).zoomLevel=zoomLevel;
+
+    return(false);
+  }
+
+  synchronized private List<Descriptor> getDescriptors()
+    throws IOException {
+    if (descriptors==null) {
+      File dir=fixtureDir;
+
+      if (!dir.isDirectory()) {
+        throw new FileNotFoundException("No fixture directory at "+dir);
+      }
+
+      List<Descriptor> result=new ArrayList<Descriptor>();
+      File back=new File(dir, "back");
+      File front=new File(dir, "front");
+
+      if (back.isDirectory()) {
+        result.add(new Descriptor(Facing.BACK, back));
+      }
+
+      if (front.isDirectory()) {
+        result.add(new Descriptor(Facing.FRONT, front));
+      }
+
+      if (result.isEmpty()) {
+        result.add(new Descriptor(Facing.BACK, dir));
+      }
+
+      descriptors=result;
+    }
+
+    return(descriptors);
+  }
+
+  private void markLater(final CaptureTimeline timeline,
+                         final CaptureTimeline.Phase phase, long delay) {
+    timer.schedule(new Runnable() {
+      @Override
+      public void run() {
+        timeline.mark(phase);
+      }
+    }, delay, TimeUnit.MILLISECONDS);
+  }
+
+  private void startPreview(final Session session,
+                            SurfaceTexture texture) throws IOException {
+    Descriptor descriptor=(Descriptor)session.getDescriptor();
+    Size size=session.getPreviewSize();
+
+    if (size==null) {
+      size=descriptor.getPreviewSizes().get(0);
+    }
+
+    final byte[] pixels=descriptor.getPreviewFrame(size);
+    final FrameDispatcher dispatcher;
+    final LinkedBlockingQueue<PreviewFrame> free=
+      new LinkedBlockingQueue<PreviewFrame>();
+    FrameProcessor processor=session.getFrameProcessor();
+
+    if (processor==null) {
+      dispatcher=null;
+    }
+    else {
+      int threads=session.getFrameProcessorThreads();
+
+      // one buffer per worker, plus two for the "camera" to fill
+
+      for (int i=0; i<threads+2; i++) {
+        free.add(new PreviewFrame(new byte[pixels.length],
+          size.getWidth(), size.getHeight()));
+      }
+
+      dispatcher=new FrameDispatcher(processor, threads,
+        new FrameDispatcher.Recycler() {
+          @Override
+          public void recycle(PreviewFrame frame) {
+            free.offer(frame);
+          }
+        });
+    }
+
+    session.setFrameDispatcher(dispatcher);
+    session.surface=(texture==null ? null : new Surface(texture));
+    session.preview=timer.scheduleAtFixedRate(new Runnable() {
+      @Override
+      public void run() {
+        Surface surface=session.surface;
+
+        if (surface!=null) {
+          try {
+            Canvas canvas=surface.lockCanvas(null);
+
+            canvas.drawColor(Color.GRAY);
+            surface.unlockCanvasAndPost(canvas);
+          }
+          catch (RuntimeException e) {
+            // surface went away, so just skip drawing
+          }
+        }
+
+        if (dispatcher!=null) {
+          PreviewFrame frame=free.poll();
+
+          if (frame==null) {
+            dispatcher.recordDroppedFrame();
+          }
+          else {
+            System.arraycopy(pixels, 0, frame.getData(), 0, pixels.length);
+            frame.setTimestamp(System.nanoTime());
+            dispatcher.dispatch(frame);
+          }
+        }
+      }
+    }, 0, Math.max(1, frameInterval), TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Reads the dimensions from a JPEG's start-of-frame marker,
+   * without decoding it.
+   */
+  static Size readJpegSize(File jpeg) throws IOException {
+    DataInputStream in=
+      new DataInputStream(new BufferedInputStream(new FileInputStream(jpeg)));
+
+    try {
+      if (in.readUnsignedShort()!=0xFFD8) {
+        throw new IOException("Not a JPEG: "+jpeg);
+      }
+
+      while (true) {
+        int marker=in.readUnsignedShort();
+
+        while (marker==0xFFFF) {
+          marker=0xFF00 | in.readUnsignedByte(); // fill bytes
+        }
+
+        int length=in.readUnsignedShort();
+
+        if (marker>=0xFFC0 && marker<=0xFFCF && marker!=0xFFC4 &&
+          marker!=0xFFC8 && marker!=0xFFCC) {
+          in.readUnsignedByte(); // sample precision
+
+          int height=in.readUnsignedShort();
+          int width=in.readUnsignedShort();
+
+          return(new Size(width, height));
+        }
+
+        in.readFully(new byte[length-2]);
+      }
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  private static byte[] readFully(File file) throws IOException {
+    byte[] result=new byte[(int)file.length()];
+    DataInputStream in=new DataInputStream(new FileInputStream(file));
+
+    try {
+      in.readFully(result);
+    }
+    finally {
+      in.close();
+    }
+
+    return(result);
+  }
+
+  static class Descriptor implements CameraDescriptor {
+    private final Facing facing;
+    private final File[] pictures;
+    private final byte[][] pictureBytes;
+    private final List<Size> pictureSizes=new ArrayList<Size>();
+    private final List<Size> previewSizes=new ArrayList<Size>();
+    private final HashMap<Size, File> previewFiles=new HashMap<Size, File>();
+    private int nextPicture=0;
+
+    private Descriptor(Facing facing, File dir) throws IOException {
+      ArrayList<File> jpegs=new ArrayList<File>();
+      File[] files=dir.listFiles();
+
+      this.facing=facing;
+
+      if (files==null) {
+        files=new File[0];
+      }
+
+      Arrays.sort(files);
+
+      for (File file : files) {
+        String name=file.getName().toLowerCase();
+        Matcher m=PREVIEW_NAME.matcher(name);
+
+        if (name.endsWith(".jpg") || name.endsWith(".jpeg")) {
+          Size size=readJpegSize(file);
+
+          jpegs.add(file);
+
+          if (!pictureSizes.contains(size)) {
+            pictureSizes.add(size);
+          }
+        }
+        else if (m.matches()) {
+          Size size=new Size(Integer.parseInt(m.group(1)),
+            Integer.parseInt(m.group(2)));
+
+          if (file.length()!=
+            PreviewFrame.getBufferSize(size.getWidth(), size.getHeight())) {
+            throw new IOException("Wrong size for an NV21 frame: "+file);
+          }
+
+          if (!previewFiles.containsKey(size)) {
+            previewFiles.put(size, file);
+            previewSizes.add(size);
+          }
+        }
+      }
+
+      if (jpegs.isEmpty()) {
+        throw new FileNotFoundException("No JPEG fixtures in "+dir);
+      }
+
+      if (previewSizes.isEmpty()) {
+        previewSizes.add(DEFAULT_PREVIEW_SIZE);
+      }
+
+      pictures=jpegs.toArray(new File[jpegs.size()]);
+      pictureBytes=new byte[pictures.length][];
+    }
+
+    @Override
+    public List<Size> getPreviewSizes() {
+      return(previewSizes);
+    }
+
+    @Override
+    public List<Size> getPictureSizes() {
+      return(pictureSizes);
+    }
+
+    @Override
+    public boolean isPictureFormatSupported(int format) {
+      return(format==ImageFormat.JPEG);
+    }
+
+    public Facing getFacing() {
+      return(facing);
+    }
+
+    /**
+     * @return a copy of the next picture; each fixture is read
+     * from disk only once, so file I/O does not skew timings
+     */
+    synchronized byte[] nextPicture() throws IOException {
+      int i=nextPicture;
+
+      nextPicture=(nextPicture+1)%pictures.length;
+
+      if (pictureBytes[i]==null) {
+        pictureBytes[i]=readFully(pictures[i]);
+      }
+
+      return(pictureBytes[i].clone());
+    }
+
+    byte[] getPreviewFrame(Size size) throws IOException {
+      File file=previewFiles.get(size);
+
+      if (file!=null) {
+        return(readFully(file));
+      }
+
+      byte[] result=
+        new byte[PreviewFrame.getBufferSize(size.getWidth(), size.getHeight())];
+
+      // mid-gray luma, neutral chroma
+
+      Arrays.fill(result, (byte)128);
+
+      return(result);
+    }
+
+    private int getScore(CameraSelectionCriteria criteria) {
+      if (criteria!=null && criteria.getFacing()!=null &&
+        criteria.getFacing()!=facing) {
+        return(0);
+      }
+
+      return(10);
+    }
+  }
+
+  private static class Session extends CameraSession {
+    private volatile ScheduledFuture<?> preview;
+    private volatile Surface surface;
+    private volatile int zoomLevel=0;
+
+    private Session(Context ctxt, CameraDescriptor descriptor) {
+      super(ctxt, descriptor);
+    }
+
+    /**
+     * Stops delivering preview frames.
+     *
+     * @return the Surface that the preview was drawn on, which
+     * the caller needs to release, or null
+     */
+    private Surface stopPreview() {
+      ScheduledFuture<?> current=preview;
+      Surface result=surface;
+
+      preview=null;
+      surface=null;
+
+      if (current!=null) {
+        current.cancel(false);
+      }
+
+      return(result);
+    }
+  }
+
+  private static class SessionBuilder extends CameraSession.Builder {
+    private SessionBuilder(Context ctxt, CameraDescriptor descriptor) {
+      super(new Session(ctxt, descriptor));
+    }
+  }
+}
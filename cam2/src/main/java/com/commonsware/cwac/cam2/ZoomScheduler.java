@@ -0,0 +1,133 @@
+/***
+ Copyright (c) 2017 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.commonsware.cwac.cam2;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Sits between CameraController and CameraEngine.zoomTo(),
+ * so a stream of pinch or SeekBar events does not turn into a
+ * stream of camera reconfigurations. Requests that arrive
+ * faster than once per preview frame are coalesced, and only
+ * the most recent level is applied. While a smooth zoom is in
+ * progress, requests are held, and only the latest one (if it
+ * differs from where the smooth zoom ended) is applied once
+ * the zoom completes.
+ *
+ * All methods should be called on the main application thread.
+ */
+class ZoomScheduler {
+  // roughly one preview frame at 30fps
+  private static final long FRAME_INTERVAL_MS=33;
+  private static final int NONE=-1;
+  private final Handler handler=new Handler(Looper.getMainLooper());
+  private final CameraEngine engine;
+  private CameraSession session;
+  private int pendingLevel=NONE;
+  private int appliedLevel=NONE;
+  private long lastAppliedAt=0;
+  private boolean isSmoothZooming=false;
+  private boolean isFlushScheduled=false;
+  private final Runnable flush=new Runnable() {
+    @Override
+    public void run() {
+      isFlushScheduled=false;
+
+      if (!isSmoothZooming) {
+        apply();
+      }
+    }
+  };
+
+  ZoomScheduler(CameraEngine engine) {
+    this.engine=engine;
+  }
+
+  /**
+   * Requests a zoom level, applying it now if nothing has been
+   * applied in the past frame, or else on the next frame.
+   *
+   * @param session the session to zoom
+   * @param zoomLevel 0-100, 100=max zoom
+   * @return true if a smooth zoom is in progress (and so the
+   * caller should not request zoom until complete), false
+   * otherwise
+   */
+  boolean request(CameraSession session, int zoomLevel) {
+    this.session=session;
+    pendingLevel=zoomLevel;
+
+    if (isSmoothZooming) {
+      return(true);
+    }
+
+    if (isFlushScheduled) {
+      return(false);
+    }
+
+    long nextFrameAt=lastAppliedAt+FRAME_INTERVAL_MS;
+
+    if (SystemClock.uptimeMillis()>=nextFrameAt) {
+      return(apply());
+    }
+
+    isFlushScheduled=true;
+    handler.postAtTime(flush, nextFrameAt);
+
+    return(false);
+  }
+
+  /**
+   * Call when the engine reports that a smooth zoom finished
+   * (SmoothZoomCompletedEvent). Applies whatever level was
+   * requested most recently in the meantime, if any.
+   */
+  void onSmoothZoomCompleted() {
+    isSmoothZooming=false;
+    apply();
+  }
+
+  /**
+   * Drops any pending request, such as when the session is
+   * closed. The next request is applied immediately.
+   */
+  void reset() {
+    handler.removeCallbacks(flush);
+    isFlushScheduled=false;
+    isSmoothZooming=false;
+    pendingLevel=NONE;
+    appliedLevel=NONE;
+    lastAppliedAt=0;
+    session=null;
+  }
+
+  private boolean apply() {
+    int level=pendingLevel;
+
+    pendingLevel=NONE;
+
+    if (level==NONE || level==appliedLevel || session==null) {
+      return(false);
+    }
+
+    appliedLevel=level;
+    lastAppliedAt=SystemClock.uptimeMillis();
+    isSmoothZooming=engine.zoomTo(session, level);
+
+    return(isSmoothZooming);
+  }
+}
@@ -21,6 +21,8 @@ import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CaptureRequest;
 import android.media.MediaRecorder;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.OrientationEventListener;
 import android.view.Surface;
 import android.view.WindowManager;
@@ -40,9 +42,37 @@ import com.commonsware.cwac.cam2.VideoTransaction;
  * and pictures.
  */
 public class OrientationPlugin implements CameraPlugin {
+  /**
+   * How far past the halfway point between two quadrants the
+   * device has to turn before we consider it to be in the new
+   * quadrant, so that holding the device near 45 degrees does
+   * not flip back and forth.
+   */
+  private static final int HYSTERESIS_DEGREES=20;
+
+  /**
+   * How long the device has to stay in a new quadrant before we
+   * announce it.
+   */
+  private static final long DEBOUNCE_MS=250;
+
   private final Context ctxt;
+  private final Handler handler=new Handler(Looper.getMainLooper());
   private OrientationEventListener orientationEventListener;
-  private int lastOrientation=OrientationEventListener.ORIENTATION_UNKNOWN;
+  // written on the main thread and read by the sensor callbacks,
+  // and vice versa
+  private volatile int rotation=OrientationEventListener.ORIENTATION_UNKNOWN;
+  private volatile int pendingRotation=OrientationEventListener.ORIENTATION_UNKNOWN;
+  private final Runnable commitRotation=new Runnable() {
+    @Override
+    public void run() {
+      int newRotation=pendingRotation;
+
+      rotation=newRotation;
+      AbstractCameraActivity.BUS
+        .post(new CameraEngine.OrientationChangedEvent(newRotation));
+    }
+  };
 
   public OrientationPlugin(Context ctxt) {
     this.ctxt=ctxt.getApplicationContext();
@@ -50,12 +80,22 @@ public class OrientationPlugin implements CameraPlugin {
     orientationEventListener=new OrientationEventListener(ctxt) {
       @Override
       public void onOrientationChanged(int orientation) {
-        if (lastOrientation!=orientation) {
-          AbstractCameraActivity.BUS
-            .post(new CameraEngine.OrientationChangedEvent());
+        if (orientation==ORIENTATION_UNKNOWN) {
+          return; // e.g., device is flat; keep what we had
         }
 
-        lastOrientation=orientation;
+        int quadrant=quantize(rotation, orientation);
+
+        if (quadrant==rotation) {
+          // came back before the debounce window expired
+          handler.removeCallbacks(commitRotation);
+          pendingRotation=rotation;
+        }
+        else if (quadrant!=pendingRotation) {
+          pendingRotation=quadrant;
+          handler.removeCallbacks(commitRotation);
+          handler.postDelayed(commitRotation, DEBOUNCE_MS);
+        }
       }
     };
 
@@ -93,12 +133,39 @@ public class OrientationPlugin implements CameraPlugin {
    */
   @Override
   public void destroy() {
+    handler.removeCallbacks(commitRotation);
+
     if (orientationEventListener!=null) {
       orientationEventListener.disable();
       orientationEventListener=null;
     }
   }
 
+  /**
+   * Maps a raw OrientationEventListener angle to a quadrant
+   * (0, 90, 180, or 270), sticking with the current quadrant
+   * until the angle is HYSTERESIS_DEGREES beyond the boundary.
+   *
+   * @param current the current quadrant, or ORIENTATION_UNKNOWN
+   * @param orientation the raw angle, 0-359
+   * @return the quadrant for that angle
+   */
+  static int quantize(int current, int orientation) {
+    if (current!=OrientationEventListener.ORIENTATION_UNKNOWN) {
+      int delta=Math.abs(orientation-current)%360;
+
+      if (delta>180) {
+        delta=360-delta;
+      }
+
+      if (delta<45+HYSTERESIS_DEGREES) {
+        return(current);
+      }
+    }
+
+    return(((orientation+45)/90*90)%360);
+  }
+
   class Classic extends SimpleClassicCameraConfigurator {
     /**
      * {@inheritDoc}
@@ -256,9 +323,9 @@ public class OrientationPlugin implements CameraPlugin {
 
       int pictureOrientation=0;
 
-      if (lastOrientation!=android.view.OrientationEventListener.ORIENTATION_UNKNOWN) {
+      if (rotation!=android.view.OrientationEventListener.ORIENTATION_UNKNOWN) {
         int sensorOrientation=cc.get(CameraCharacteristics.SENSOR_ORIENTATION);
-        int deviceOrientation=(lastOrientation + 45) / 90 * 90;
+        int deviceOrientation=rotation;
 
         if (facingFront) {
           deviceOrientation = -deviceOrientation;
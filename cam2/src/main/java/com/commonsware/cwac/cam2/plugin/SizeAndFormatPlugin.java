@@ -38,10 +38,22 @@ import android.os.Build;
  * needs to be in the plugin chain for the CameraSession.
  */
 public class SizeAndFormatPlugin implements CameraPlugin {
+  /**
+   * Default number of pictures that the camera2 ImageReader
+   * can hold at once.
+   */
+  public static final int DEFAULT_MAX_IMAGES=2;
+  /**
+   * Smallest ImageReader depth that zero-shutter-lag capture can
+   * use: one frame being processed, one in the buffer, and one
+   * arriving from the camera.
+   */
+  public static final int MIN_ZERO_SHUTTER_LAG_MAX_IMAGES=3;
   final private Size pictureSize;
   final private Size previewSize;
   private final int pictureFormat;
     private final int jpegQuality;
+  private final int maxImages;
 
   /**
    * Constructor.
@@ -54,10 +66,36 @@ public class SizeAndFormatPlugin implements CameraPlugin {
    * @param jpegQuality if pictureFormat is jpeg, sets the jpeg quality
    */
   public SizeAndFormatPlugin(Size previewSize, Size pictureSize, int pictureFormat, int jpegQuality) {
+    this(previewSize, pictureSize, pictureFormat, jpegQuality,
+      DEFAULT_MAX_IMAGES);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param previewSize the size of preview images
+   * @param pictureSize the size of pictures to be taken
+   * @param pictureFormat the format of pictures to be taken, in
+   *                      the form of an ImageFormat constant
+   *                      (e.g., ImageFormat.JPEG)
+   * @param jpegQuality if pictureFormat is jpeg, sets the jpeg quality
+   * @param maxImages how many pictures the camera2 ImageReader
+   *                  can hold before the camera has to wait on us;
+   *                  raise this for bursts (see takeBurst() on
+   *                  CameraEngine), at the cost of memory
+   */
+  public SizeAndFormatPlugin(Size previewSize, Size pictureSize,
+                             int pictureFormat, int jpegQuality,
+                             int maxImages) {
+    if (maxImages<1) {
+      throw new IllegalArgumentException("maxImages must be at least 1");
+    }
+
     this.previewSize=previewSize;
     this.pictureSize=pictureSize;
     this.pictureFormat=pictureFormat;
       this.jpegQuality = jpegQuality;
+    this.maxImages=maxImages;
   }
 
   /**
@@ -162,7 +200,7 @@ public class SizeAndFormatPlugin implements CameraPlugin {
     @Override
     public ImageReader buildImageReader() {
       return(ImageReader.newInstance(pictureSize.getWidth(),
-          pictureSize.getHeight(), pictureFormat, 2));
+          pictureSize.getHeight(), pictureFormat, maxImages));
     }
   }
 }
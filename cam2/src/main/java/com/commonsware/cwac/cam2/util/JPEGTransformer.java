@@ -0,0 +1,1196 @@
+/***
+ Copyright (c) 2015 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.commonsware.cwac.cam2.util;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Lossless rotation of baseline JPEG images, in the spirit of
+ * jpegtran. Rather than decoding to pixels, rotating, and
+ * re-encoding (slow, memory-hungry, and lossy), this entropy-decodes
+ * the quantized DCT coefficients, rearranges and sign-flips them
+ * block by block, and entropy-encodes the result again.
+ *
+ * Only baseline (and extended sequential) Huffman-coded 8-bit
+ * JPEGs with a single interleaved scan are supported, which covers
+ * what camera hardware emits. Also, the image needs to be a whole
+ * number of MCUs along any axis that gets mirrored by the rotation;
+ * otherwise, the partial edge blocks would wind up on the wrong
+ * side of the picture. In any of those cases, transform() returns
+ * null, and the caller should fall back to some other approach.
+ */
+public class JPEGTransformer {
+  private static final int M_SOF0=0xC0;
+  private static final int M_SOF1=0xC1;
+  private static final int M_DHT=0xC4;
+  private static final int M_SOI=0xD8;
+  private static final int M_EOI=0xD9;
+  private static final int M_SOS=0xDA;
+  private static final int M_DQT=0xDB;
+  private static final int M_DRI=0xDD;
+  private static final int M_APP1=0xE1;
+  private static final int TAG_ORIENTATION=0x0112;
+
+  private static final int[] ZIGZAG={
+    0, 1, 8, 16, 9, 2, 3, 10,
+    17, 24, 32, 25, 18, 11, 4, 5,
+    12, 19, 26, 33, 40, 48, 41, 34,
+    27, 20, 13, 6, 7, 14, 21, 28,
+    35, 42, 49, 56, 57, 50, 43, 36,
+    29, 22, 15, 23, 30, 37, 44, 51,
+    58, 59, 52, 45, 38, 31, 39, 46,
+    53, 60, 61, 54, 47, 55, 62, 63
+  };
+
+  // Huffman tables from Annex K of the JPEG spec; these cover
+  // every symbol an 8-bit baseline image can need, so we can
+  // re-encode any rearranged coefficients with them
+
+  private static final int[] DC_LUMA_BITS=
+    {0, 1, 5, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0, 0, 0};
+  private static final int[] DC_LUMA_VALS=
+    {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11};
+  private static final int[] DC_CHROMA_BITS=
+    {0, 3, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0};
+  private static final int[] DC_CHROMA_VALS=
+    {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11};
+  private static final int[] AC_LUMA_BITS=
+    {0, 2, 1, 3, 3, 2, 4, 3, 5, 5, 4, 4, 0, 0, 1, 0x7d};
+  private static final int[] AC_LUMA_VALS={
+    0x01, 0x02, 0x03, 0x00, 0x04, 0x11, 0x05, 0x12,
+    0x21, 0x31, 0x41, 0x06, 0x13, 0x51, 0x61, 0x07,
+    0x22, 0x71, 0x14, 0x32, 0x81, 0x91, 0xa1, 0x08,
+    0x23, 0x42, 0xb1, 0xc1, 0x15, 0x52, 0xd1, 0xf0,
+    0x24, 0x33, 0x62, 0x72, 0x82, 0x09, 0x0a, 0x16,
+    0x17, 0x18, 0x19, 0x1a, 0x25, 0x26, 0x27, 0x28,
+    0x29, 0x2a, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39,
+    0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48, 0x49,
+    0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59,
+    0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69,
+    0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79,
+    0x7a, 0x83, 0x84, 0x85, 0x86, 0x87, 0x88, 0x89,
+    0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98,
+    0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5, 0xa6, 0xa7,
+    0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6,
+    0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3, 0xc4, 0xc5,
+    0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4,
+    0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda, 0xe1, 0xe2,
+    0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea,
+    0xf1, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+    0xf9, 0xfa
+  };
+  private static final int[] AC_CHROMA_BITS=
+    {0, 2, 1, 2, 4, 4, 3, 4, 7, 5, 4, 4, 0, 1, 2, 0x77};
+  private static final int[] AC_CHROMA_VALS={
+    0x00, 0x01, 0x02, 0x03, 0x11, 0x04, 0x05, 0x21,
+    0x31, 0x06, 0x12, 0x41, 0x51, 0x07, 0x61, 0x71,
+    0x13, 0x22, 0x32, 0x81, 0x08, 0x14, 0x42, 0x91,
+    0xa1, 0xb1, 0xc1, 0x09, 0x23, 0x33, 0x52, 0xf0,
+    0x15, 0x62, 0x72, 0xd1, 0x0a, 0x16, 0x24, 0x34,
+    0xe1, 0x25, 0xf1, 0x17, 0x18, 0x19, 0x1a, 0x26,
+    0x27, 0x28, 0x29, 0x2a, 0x35, 0x36, 0x37, 0x38,
+    0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48,
+    0x49, 0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58,
+    0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68,
+    0x69, 0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78,
+    0x79, 0x7a, 0x82, 0x83, 0x84, 0x85, 0x86, 0x87,
+    0x88, 0x89, 0x8a, 0x92, 0x93, 0x94, 0x95, 0x96,
+    0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5,
+    0xa6, 0xa7, 0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4,
+    0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3,
+    0xc4, 0xc5, 0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2,
+    0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda,
+    0xe2, 0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9,
+    0xea, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+    0xf9, 0xfa
+  };
+
+  /**
+   * Rotates the supplied JPEG losslessly, so that its pixels
+   * match the supplied EXIF orientation, and sets the EXIF
+   * orientation tag (if there is one) to 1.
+   *
+   * @param jpeg the original JPEG
+   * @param orientation the EXIF orientation value: 3, 6, and 8
+   *                    are handled (180, 90, and 270 degrees
+   *                    clockwise, respectively)
+   * @return the rotated JPEG, or null if this JPEG cannot be
+   * rotated losslessly
+   */
+  public static byte[] transform(byte[] jpeg, int orientation) {
+    Transform op=Transform.forOrientation(orientation);
+
+    if (op==null) {
+      return(null);
+    }
+
+    try {
+      Frame frame=Frame.parse(jpeg);
+
+      if (frame==null || !frame.canTransform(op)) {
+        return(null);
+      }
+
+      frame.decode();
+
+      return(frame.write(op));
+    }
+    catch (RuntimeException e) {
+      // malformed or unsupported stream; let the caller fall back
+
+      return(null);
+    }
+  }
+
+  /**
+   * @param jpeg a JPEG image
+   * @param orientation the EXIF orientation value
+   * @return true if transform() should be able to handle this
+   * image, false otherwise
+   */
+  public static boolean canTransform(byte[] jpeg, int orientation) {
+    Transform op=Transform.forOrientation(orientation);
+
+    if (op==null) {
+      return(false);
+    }
+
+    try {
+      Frame frame=Frame.parse(jpeg);
+
+      return(frame!=null && frame.canTransform(op));
+    }
+    catch (RuntimeException e) {
+      return(false);
+    }
+  }
+
+  private enum Transform {
+    ROTATE_90(true, true, false),
+    ROTATE_180(false, true, true),
+    ROTATE_270(true, false, true);
+
+    final boolean transpose;
+    final boolean mirrorX;
+    final boolean mirrorY;
+
+    Transform(boolean transpose, boolean mirrorX, boolean mirrorY) {
+      this.transpose=transpose;
+      this.mirrorX=mirrorX;
+      this.mirrorY=mirrorY;
+    }
+
+    static Transform forOrientation(int orientation) {
+      switch (orientation) {
+        case 3:
+          return(ROTATE_180);
+
+        case 6:
+          return(ROTATE_90);
+
+        case 8:
+          return(ROTATE_270);
+      }
+
+      return(null);
+    }
+  }
+
+  private static class Component {
+    int id;
+    int h;
+    int v;
+    int tq;
+    int td;
+    int ta;
+    int blocksWide;
+    int blocksHigh;
+    short[] coefs;
+  }
+
+  private static class Frame {
+    final byte[] jpeg;
+    int sofMarker;
+    int width;
+    int height;
+    int maxH=1;
+    int maxV=1;
+    int restartInterval=0;
+    int scanStart;
+    Component[] components;
+    final int[][] qtables=new int[4][];
+    final HuffmanDecoder[] dcTables=new HuffmanDecoder[4];
+    final HuffmanDecoder[] acTables=new HuffmanDecoder[4];
+    final ByteArrayOutputStream preamble=new ByteArrayOutputStream();
+
+    private Frame(byte[] jpeg) {
+      this.jpeg=jpeg;
+    }
+
+    /**
+     * Walks the markers up through the start of the scan,
+     * collecting what we need. Returns null if this is not
+     * a JPEG that we can handle.
+     */
+    static Frame parse(byte[] jpeg) {
+      if (jpeg==null || jpeg.length<4 ||
+        (jpeg[0] & 0xFF)!=0xFF || (jpeg[1] & 0xFF)!=M_SOI) {
+        return(null);
+      }
+
+      Frame result=new Frame(jpeg);
+      int pos=2;
+
+      while (pos+4<=jpeg.length) {
+        if ((jpeg[pos] & 0xFF)!=0xFF) {
+          return(null);
+        }
+
+        int marker=jpeg[pos+1] & 0xFF;
+
+        if (marker==0xFF) {
+          pos++; // fill byte
+          continue;
+        }
+
+        if (marker==M_EOI) {
+          return(null);
+        }
+
+        if ((marker>=0xD0 && marker<=0xD7) || marker==0x01) {
+          pos+=2; // standalone marker, no length
+          continue;
+        }
+
+        int length=readUnsignedShort(jpeg, pos+2);
+        int segStart=pos+4;
+        int segEnd=pos+2+length;
+
+        if (length<2 || segEnd>jpeg.length) {
+          return(null);
+        }
+
+        if (marker==M_SOF0 || marker==M_SOF1) {
+          if (!result.parseFrameHeader(marker, segStart)) {
+            return(null);
+          }
+        }
+        else if (marker>=0xC2 && marker<=0xCF &&
+          marker!=M_DHT && marker!=0xC8) {
+          return(null); // progressive, lossless, arithmetic
+        }
+        else if (marker==M_DHT) {
+          result.parseHuffmanTables(segStart, segEnd);
+        }
+        else if (marker==M_DQT) {
+          result.parseQuantizationTables(segStart, segEnd);
+        }
+        else if (marker==M_DRI) {
+          result.restartInterval=readUnsignedShort(jpeg, segStart);
+        }
+        else if (marker==M_SOS) {
+          if (result.components==null ||
+            !result.parseScanHeader(segStart)) {
+            return(null);
+          }
+
+          result.scanStart=segEnd;
+
+          return(result);
+        }
+        else if ((marker>=0xE0 && marker<=0xEF) || marker==0xFE) {
+          result.preamble.write(jpeg, pos, length+2);
+        }
+
+        pos=segEnd;
+      }
+
+      return(null);
+    }
+
+    boolean parseFrameHeader(int marker, int pos) {
+      if ((jpeg[pos] & 0xFF)!=8) {
+        return(false); // 12-bit precision
+      }
+
+      sofMarker=marker;
+      height=readUnsignedShort(jpeg, pos+1);
+      width=readUnsignedShort(jpeg, pos+3);
+
+      int count=jpeg[pos+5] & 0xFF;
+
+      if (width==0 || height==0 || count==0 || count>4) {
+        return(false);
+      }
+
+      components=new Component[count];
+
+      for (int i=0; i<count; i++) {
+        Component c=new Component();
+        int offset=pos+6+i*3;
+
+        c.id=jpeg[offset] & 0xFF;
+        c.h=(jpeg[offset+1]>>4) & 0x0F;
+        c.v=jpeg[offset+1] & 0x0F;
+        c.tq=jpeg[offset+2] & 0x0F;
+
+        if (c.h<1 || c.h>4 || c.v<1 || c.v>4 || c.tq>3) {
+          return(false);
+        }
+
+        maxH=Math.max(maxH, c.h);
+        maxV=Math.max(maxV, c.v);
+        components[i]=c;
+      }
+
+      int mcusWide=ceilDiv(width, 8*maxH);
+      int mcusHigh=ceilDiv(height, 8*maxV);
+
+      for (Component c : components) {
+        if (count==1) {
+          c.blocksWide=ceilDiv(width, 8);
+          c.blocksHigh=ceilDiv(height, 8);
+        }
+        else {
+          c.blocksWide=mcusWide*c.h;
+          c.blocksHigh=mcusHigh*c.v;
+        }
+      }
+
+      return(true);
+    }
+
+    void parseHuffmanTables(int pos, int end) {
+      while (pos<end) {
+        int tc=(jpeg[pos]>>4) & 0x0F;
+        int th=jpeg[pos] & 0x0F;
+        int[] bits=new int[16];
+        int total=0;
+
+        for (int i=0; i<16; i++) {
+          bits[i]=jpeg[pos+1+i] & 0xFF;
+          total+=bits[i];
+        }
+
+        int[] vals=new int[total];
+
+        for (int i=0; i<total; i++) {
+          vals[i]=jpeg[pos+17+i] & 0xFF;
+        }
+
+        if (th>3) {
+          throw new IllegalArgumentException("Invalid Huffman table ID");
+        }
+
+        if (tc==0) {
+          dcTables[th]=new HuffmanDecoder(bits, vals);
+        }
+        else {
+          acTables[th]=new HuffmanDecoder(bits, vals);
+        }
+
+        pos+=17+total;
+      }
+    }
+
+    void parseQuantizationTables(int pos, int end) {
+      while (pos<end) {
+        int pq=(jpeg[pos]>>4) & 0x0F;
+        int tq=jpeg[pos] & 0x0F;
+        int[] table=new int[64];
+
+        pos++;
+
+        for (int i=0; i<64; i++) {
+          if (pq==0) {
+            table[ZIGZAG[i]]=jpeg[pos++] & 0xFF;
+          }
+          else {
+            table[ZIGZAG[i]]=readUnsignedShort(jpeg, pos);
+            pos+=2;
+          }
+        }
+
+        if (tq>3) {
+          throw new IllegalArgumentException("Invalid quantization table ID");
+        }
+
+        qtables[tq]=table;
+      }
+    }
+
+    boolean parseScanHeader(int pos) {
+      int count=jpeg[pos] & 0xFF;
+
+      if (count!=components.length) {
+        return(false); // non-interleaved, multi-scan
+      }
+
+      for (int i=0; i<count; i++) {
+        int id=jpeg[pos+1+i*2] & 0xFF;
+        int tables=jpeg[pos+2+i*2] & 0xFF;
+        Component c=components[i];
+
+        if (c.id!=id) {
+          return(false);
+        }
+
+        c.td=(tables>>4) & 0x0F;
+        c.ta=tables & 0x0F;
+
+        if (c.td>3 || c.ta>3 || dcTables[c.td]==null ||
+          acTables[c.ta]==null || qtables[c.tq]==null) {
+          return(false);
+        }
+      }
+
+      int offset=pos+1+count*2;
+      int ss=jpeg[offset] & 0xFF;
+      int se=jpeg[offset+1] & 0xFF;
+      int ahal=jpeg[offset+2] & 0xFF;
+
+      return(ss==0 && se==63 && ahal==0);
+    }
+
+    /**
+     * The rotation moves the trailing edge of the image to the
+     * leading edge along whichever axes get mirrored, so those
+     * axes must not have any partial MCUs.
+     */
+    boolean canTransform(Transform op) {
+      int mcuWidth=8*maxH;
+      int mcuHeight=8*maxV;
+      boolean xAligned=(width%mcuWidth)==0;
+      boolean yAligned=(height%mcuHeight)==0;
+
+      if (op.transpose) {
+        // the source Y axis becomes the output X axis, and vice versa
+
+        return((!op.mirrorX || yAligned) && (!op.mirrorY || xAligned));
+      }
+
+      return((!op.mirrorX || xAligned) && (!op.mirrorY || yAligned));
+    }
+
+    void decode() {
+      for (Component c : components) {
+        c.coefs=new short[c.blocksWide*c.blocksHigh*64];
+      }
+
+      BitReader in=new BitReader(jpeg, scanStart);
+      int[] predictors=new int[components.length];
+      int mcusWide;
+      int mcusHigh;
+
+      if (components.length==1) {
+        mcusWide=components[0].blocksWide;
+        mcusHigh=components[0].blocksHigh;
+      }
+      else {
+        mcusWide=ceilDiv(width, 8*maxH);
+        mcusHigh=ceilDiv(height, 8*maxV);
+      }
+
+      int totalMcus=mcusWide*mcusHigh;
+      int mcu=0;
+
+      for (int mcuY=0; mcuY<mcusHigh; mcuY++) {
+        for (int mcuX=0; mcuX<mcusWide; mcuX++) {
+          if (restartInterval>0 && mcu>0 && mcu%restartInterval==0) {
+            in.restart();
+
+            for (int i=0; i<predictors.length; i++) {
+              predictors[i]=0;
+            }
+          }
+
+          for (int i=0; i<components.length; i++) {
+            Component c=components[i];
+            int h=(components.length==1 ? 1 : c.h);
+            int v=(components.length==1 ? 1 : c.v);
+
+            for (int y=0; y<v; y++) {
+              for (int x=0; x<h; x++) {
+                int blockX=mcuX*h+x;
+                int blockY=mcuY*v+y;
+
+                predictors[i]=decodeBlock(in, c, predictors[i],
+                  (blockY*c.blocksWide+blockX)*64);
+              }
+            }
+          }
+
+          mcu++;
+        }
+      }
+
+      if (mcu!=totalMcus) {
+        throw new IllegalStateException("Incomplete scan");
+      }
+    }
+
+    private int decodeBlock(BitReader in, Component c,
+                            int predictor, int offset) {
+      short[] coefs=c.coefs;
+      int t=dcTables[c.td].decode(in);
+      int dc=predictor;
+
+      if (t>0) {
+        dc+=extend(in.readBits(t), t);
+      }
+
+      coefs[offset]=(short)dc;
+
+      HuffmanDecoder ac=acTables[c.ta];
+
+      for (int k=1; k<64; k++) {
+        int rs=ac.decode(in);
+        int r=rs>>4;
+        int s=rs & 0x0F;
+
+        if (s==0) {
+          if (r!=15) {
+            break; // end of block
+          }
+
+          k+=15;
+        }
+        else {
+          k+=r;
+
+          if (k>63) {
+            throw new IllegalStateException("Coefficient index out of range");
+          }
+
+          coefs[offset+ZIGZAG[k]]=(short)extend(in.readBits(s), s);
+        }
+      }
+
+      return(dc);
+    }
+
+    byte[] write(Transform op) {
+      BitWriter out=new BitWriter(jpeg.length+1024);
+      byte[] header=preamble.toByteArray();
+
+      patchExifOrientation(header);
+      out.writeMarker(M_SOI);
+      out.writeRaw(header, 0, header.length);
+
+      int outWidth=op.transpose ? height : width;
+      int outHeight=op.transpose ? width : height;
+
+      // quantization tables (transposed along with the blocks)
+
+      boolean needsSixteenBits=false;
+
+      for (int tq=0; tq<4; tq++) {
+        if (qtables[tq]!=null) {
+          for (int q : qtables[tq]) {
+            if (q>255) {
+              needsSixteenBits=true;
+            }
+          }
+        }
+      }
+
+      for (int tq=0; tq<4; tq++) {
+        int[] table=qtables[tq];
+
+        if (table!=null) {
+          out.writeMarker(M_DQT);
+          out.writeShort(2+1+(needsSixteenBits ? 128 : 64));
+          out.writeByte((needsSixteenBits ? 0x10 : 0)|tq);
+
+          for (int i=0; i<64; i++) {
+            int natural=ZIGZAG[i];
+
+            if (op.transpose) {
+              natural=transposeIndex(natural);
+            }
+
+            if (needsSixteenBits) {
+              out.writeShort(table[natural]);
+            }
+            else {
+              out.writeByte(table[natural]);
+            }
+          }
+        }
+      }
+
+      // frame header, with the sampling factors swapped if needed
+
+      out.writeMarker(needsSixteenBits ? M_SOF1 : sofMarker);
+      out.writeShort(8+components.length*3);
+      out.writeByte(8);
+      out.writeShort(outHeight);
+      out.writeShort(outWidth);
+      out.writeByte(components.length);
+
+      for (Component c : components) {
+        int h=op.transpose ? c.v : c.h;
+        int v=op.transpose ? c.h : c.v;
+
+        out.writeByte(c.id);
+        out.writeByte((h<<4)|v);
+        out.writeByte(c.tq);
+      }
+
+      HuffmanEncoder dcLuma=new HuffmanEncoder(DC_LUMA_BITS, DC_LUMA_VALS);
+      HuffmanEncoder acLuma=new HuffmanEncoder(AC_LUMA_BITS, AC_LUMA_VALS);
+      HuffmanEncoder dcChroma=null;
+      HuffmanEncoder acChroma=null;
+
+      out.writeHuffmanTable(0x00, DC_LUMA_BITS, DC_LUMA_VALS);
+      out.writeHuffmanTable(0x10, AC_LUMA_BITS, AC_LUMA_VALS);
+
+      if (components.length>1) {
+        dcChroma=new HuffmanEncoder(DC_CHROMA_BITS, DC_CHROMA_VALS);
+        acChroma=new HuffmanEncoder(AC_CHROMA_BITS, AC_CHROMA_VALS);
+        out.writeHuffmanTable(0x01, DC_CHROMA_BITS, DC_CHROMA_VALS);
+        out.writeHuffmanTable(0x11, AC_CHROMA_BITS, AC_CHROMA_VALS);
+      }
+
+      out.writeMarker(M_SOS);
+      out.writeShort(6+components.length*2);
+      out.writeByte(components.length);
+
+      for (int i=0; i<components.length; i++) {
+        out.writeByte(components[i].id);
+        out.writeByte(i==0 ? 0x00 : 0x11);
+      }
+
+      out.writeByte(0);
+      out.writeByte(63);
+      out.writeByte(0);
+
+      // entropy-coded data
+
+      int mcusWide;
+      int mcusHigh;
+
+      if (components.length==1) {
+        Component c=components[0];
+
+        mcusWide=op.transpose ? c.blocksHigh : c.blocksWide;
+        mcusHigh=op.transpose ? c.blocksWide : c.blocksHigh;
+      }
+      else {
+        int mcuWidth=8*(op.transpose ? maxV : maxH);
+        int mcuHeight=8*(op.transpose ? maxH : maxV);
+
+        mcusWide=ceilDiv(outWidth, mcuWidth);
+        mcusHigh=ceilDiv(outHeight, mcuHeight);
+      }
+
+      int[] predictors=new int[components.length];
+      short[] block=new short[64];
+
+      for (int mcuY=0; mcuY<mcusHigh; mcuY++) {
+        for (int mcuX=0; mcuX<mcusWide; mcuX++) {
+          for (int i=0; i<components.length; i++) {
+            Component c=components[i];
+            int h=1;
+            int v=1;
+
+            if (components.length>1) {
+              h=op.transpose ? c.v : c.h;
+              v=op.transpose ? c.h : c.v;
+            }
+
+            for (int y=0; y<v; y++) {
+              for (int x=0; x<h; x++) {
+                transformBlock(op, c, mcuX*h+x, mcuY*v+y, block);
+
+                if (i==0) {
+                  predictors[i]=out.encodeBlock(block, predictors[i],
+                    dcLuma, acLuma);
+                }
+                else {
+                  predictors[i]=out.encodeBlock(block, predictors[i],
+                    dcChroma, acChroma);
+                }
+              }
+            }
+          }
+        }
+      }
+
+      out.flushBits();
+      out.writeMarker(M_EOI);
+
+      return(out.toByteArray());
+    }
+
+    /**
+     * Fills in the output block at (outX, outY) from the
+     * corresponding source block. Mirroring an axis reverses the
+     * block order along it and negates the odd frequencies along
+     * it; transposing swaps the block coordinates and the
+     * coefficient indices.
+     */
+    private void transformBlock(Transform op, Component c,
+                                int outX, int outY, short[] block) {
+      int outBlocksWide=op.transpose ? c.blocksHigh : c.blocksWide;
+      int outBlocksHigh=op.transpose ? c.blocksWide : c.blocksHigh;
+      int mirroredX=op.mirrorX ? outBlocksWide-1-outX : outX;
+      int mirroredY=op.mirrorY ? outBlocksHigh-1-outY : outY;
+      int srcX=op.transpose ? mirroredY : mirroredX;
+      int srcY=op.transpose ? mirroredX : mirroredY;
+      int offset=(srcY*c.blocksWide+srcX)*64;
+      short[] coefs=c.coefs;
+
+      for (int v=0; v<8; v++) {
+        for (int u=0; u<8; u++) {
+          int value=op.transpose ?
+            coefs[offset+u*8+v] : coefs[offset+v*8+u];
+
+          if ((op.mirrorX && (u & 1)!=0) ^ (op.mirrorY && (v & 1)!=0)) {
+            value=-value;
+          }
+
+          block[v*8+u]=(short)value;
+        }
+      }
+    }
+
+    /**
+     * Sets IFD0's orientation tag to 1 (normal), in place, in any
+     * EXIF APP1 segment found in the copied-through header bytes.
+     */
+    private void patchExifOrientation(byte[] header) {
+      int pos=0;
+
+      while (pos+4<=header.length) {
+        int marker=header[pos+1] & 0xFF;
+        int length=readUnsignedShort(header, pos+2);
+
+        if (marker==M_APP1 && length>=16 &&
+          header[pos+4]=='E' && header[pos+5]=='x' &&
+          header[pos+6]=='i' && header[pos+7]=='f' &&
+          header[pos+8]==0 && header[pos+9]==0) {
+          patchTiffOrientation(header, pos+10, pos+2+length);
+        }
+
+        pos+=length+2;
+      }
+    }
+
+    private void patchTiffOrientation(byte[] buf, int tiff, int end) {
+      boolean littleEndian;
+
+      if (buf[tiff]=='I' && buf[tiff+1]=='I') {
+        littleEndian=true;
+      }
+      else if (buf[tiff]=='M' && buf[tiff+1]=='M') {
+        littleEndian=false;
+      }
+      else {
+        return;
+      }
+
+      long ifdOffset=readInt(buf, tiff+4, littleEndian) & 0xFFFFFFFFL;
+      int ifd=tiff+(int)Math.min(ifdOffset, Integer.MAX_VALUE-tiff);
+
+      if (ifdOffset<8 || ifd+2>end) {
+        return;
+      }
+
+      int count=readShort(buf, ifd, littleEndian);
+
+      for (int i=0; i<count; i++) {
+        int entry=ifd+2+i*12;
+
+        if (entry+12>end) {
+          return;
+        }
+
+        if (readShort(buf, entry, littleEndian)==TAG_ORIENTATION &&
+          readShort(buf, entry+2, littleEndian)==3) {
+          if (littleEndian) {
+            buf[entry+8]=1;
+            buf[entry+9]=0;
+          }
+          else {
+            buf[entry+8]=0;
+            buf[entry+9]=1;
+          }
+
+          return;
+        }
+      }
+    }
+  }
+
+  private static class HuffmanDecoder {
+    private static final int LOOKAHEAD=9;
+    private final int[] lookup=new int[1<<LOOKAHEAD];
+    private final int[] maxCode=new int[18];
+    private final int[] valOffset=new int[17];
+    private final int[] vals;
+
+    HuffmanDecoder(int[] bits, int[] vals) {
+      this.vals=vals;
+
+      int code=0;
+      int k=0;
+
+      for (int len=1; len<=16; len++) {
+        valOffset[len]=k-code;
+
+        for (int i=0; i<bits[len-1]; i++) {
+          if (len<=LOOKAHEAD) {
+            int shift=LOOKAHEAD-len;
+            int base=code<<shift;
+
+            for (int j=0; j<(1<<shift); j++) {
+              lookup[base+j]=(len<<8)|vals[k];
+            }
+          }
+
+          code++;
+          k++;
+        }
+
+        maxCode[len]=(bits[len-1]==0 ? -1 : code-1);
+        code<<=1;
+      }
+
+      maxCode[17]=Integer.MAX_VALUE;
+    }
+
+    int decode(BitReader in) {
+      int entry=lookup[in.peekBits(LOOKAHEAD)];
+
+      if (entry!=0) {
+        in.skipBits(entry>>8);
+
+        return(entry & 0xFF);
+      }
+
+      int code=in.readBits(1);
+      int len=1;
+
+      while (code>maxCode[len]) {
+        code=(code<<1)|in.readBits(1);
+        len++;
+
+        if (len>16) {
+          throw new IllegalStateException("Invalid Huffman code");
+        }
+      }
+
+      return(vals[code+valOffset[len]]);
+    }
+  }
+
+  private static class HuffmanEncoder {
+    final int[] codes=new int[256];
+    final int[] sizes=new int[256];
+
+    HuffmanEncoder(int[] bits, int[] vals) {
+      int code=0;
+      int k=0;
+
+      for (int len=1; len<=16; len++) {
+        for (int i=0; i<bits[len-1]; i++) {
+          codes[vals[k]]=code;
+          sizes[vals[k]]=len;
+          code++;
+          k++;
+        }
+
+        code<<=1;
+      }
+    }
+  }
+
+  private static class BitReader {
+    private final byte[] buf;
+    private int pos;
+    private long bits=0;
+    private int bitCount=0;
+    private boolean atMarker=false;
+
+    BitReader(byte[] buf, int pos) {
+      this.buf=buf;
+      this.pos=pos;
+    }
+
+    int peekBits(int count) {
+      fill(count);
+
+      return((int)(bits>>>(bitCount-count)) & ((1<<count)-1));
+    }
+
+    void skipBits(int count) {
+      bitCount-=count;
+    }
+
+    int readBits(int count) {
+      int result=peekBits(count);
+
+      bitCount-=count;
+
+      return(result);
+    }
+
+    /**
+     * Discards leftover bits and steps over the RSTn marker
+     * that should be next in the stream.
+     */
+    void restart() {
+      bits=0;
+      bitCount=0;
+      atMarker=false;
+
+      while (pos+1<buf.length && (buf[pos] & 0xFF)==0xFF &&
+        (buf[pos+1] & 0xFF)==0xFF) {
+        pos++;
+      }
+
+      if (pos+1<buf.length && (buf[pos] & 0xFF)==0xFF) {
+        int marker=buf[pos+1] & 0xFF;
+
+        if (marker>=0xD0 && marker<=0xD7) {
+          pos+=2;
+          return;
+        }
+      }
+
+      throw new IllegalStateException("Missing restart marker");
+    }
+
+    private void fill(int count) {
+      while (bitCount<count) {
+        int b=0;
+
+        if (!atMarker && pos<buf.length) {
+          b=buf[pos] & 0xFF;
+
+          if (b==0xFF) {
+            int next=(pos+1<buf.length ? buf[pos+1] & 0xFF : 0xD9);
+
+            if (next==0) {
+              pos+=2;
+            }
+            else {
+              // hit a marker; feed zeros from here on, per the spec
+
+              atMarker=true;
+              b=0;
+            }
+          }
+          else {
+            pos++;
+          }
+        }
+
+        bits=(bits<<8)|b;
+        bitCount+=8;
+      }
+    }
+  }
+
+  private static class BitWriter {
+    private byte[] buf;
+    private int count=0;
+    private int bits=0;
+    private int bitCount=0;
+
+    BitWriter(int capacity) {
+      buf=new byte[capacity];
+    }
+
+    void writeMarker(int marker) {
+      writeByte(0xFF);
+      writeByte(marker);
+    }
+
+    void writeShort(int value) {
+      writeByte((value>>8) & 0xFF);
+      writeByte(value & 0xFF);
+    }
+
+    void writeByte(int value) {
+      ensureCapacity(1);
+      buf[count++]=(byte)value;
+    }
+
+    void writeRaw(byte[] src, int offset, int length) {
+      ensureCapacity(length);
+      System.arraycopy(src, offset, buf, count, length);
+      count+=length;
+    }
+
+    void writeHuffmanTable(int classAndId, int[] bits, int[] vals) {
+      writeMarker(M_DHT);
+      writeShort(2+1+16+vals.length);
+      writeByte(classAndId);
+
+      for (int b : bits) {
+        writeByte(b);
+      }
+
+      for (int v : vals) {
+        writeByte(v);
+      }
+    }
+
+    int encodeBlock(short[] block, int predictor,
+                    HuffmanEncoder dc, HuffmanEncoder ac) {
+      int diff=block[0]-predictor;
+      int size=magnitude(diff);
+
+      if (size>11) {
+        throw new IllegalStateException("DC difference out of range");
+      }
+
+      writeBits(dc.codes[size], dc.sizes[size]);
+
+      if (size>0) {
+        writeBits(diff<0 ? diff-1 : diff, size);
+      }
+
+      int run=0;
+
+      for (int k=1; k<64; k++) {
+        int value=block[ZIGZAG[k]];
+
+        if (value==0) {
+          run++;
+        }
+        else {
+          while (run>15) {
+            writeBits(ac.codes[0xF0], ac.sizes[0xF0]);
+            run-=16;
+          }
+
+          size=magnitude(value);
+
+          if (size>10) {
+            throw new IllegalStateException("AC coefficient out of range");
+          }
+
+          int symbol=(run<<4)|size;
+
+          writeBits(ac.codes[symbol], ac.sizes[symbol]);
+          writeBits(value<0 ? value-1 : value, size);
+          run=0;
+        }
+      }
+
+      if (run>0) {
+        writeBits(ac.codes[0x00], ac.sizes[0x00]);
+      }
+
+      return(block[0]);
+    }
+
+    void flushBits() {
+      if (bitCount>0) {
+        writeBits(0x7F, 7); // pad with 1s
+      }
+
+      bitCount=0;
+      bits=0;
+    }
+
+    byte[] toByteArray() {
+      byte[] result=new byte[count];
+
+      System.arraycopy(buf, 0, result, 0, count);
+
+      return(result);
+    }
+
+    private void writeBits(int value, int size) {
+      bits=(bits<<size)|(value & ((1<<size)-1));
+      bitCount+=size;
+
+      while (bitCount>=8) {
+        int b=(bits>>(bitCount-8)) & 0xFF;
+
+        writeByte(b);
+
+        if (b==0xFF) {
+          writeByte(0); // byte stuffing
+        }
+
+        bitCount-=8;
+      }
+
+      bits&=(1<<bitCount)-1;
+    }
+
+    private void ensureCapacity(int extra) {
+      if (count+extra>buf.length) {
+        byte[] bigger=new byte[Math.max(buf.length*2, count+extra)];
+
+        System.arraycopy(buf, 0, bigger, 0, count);
+        buf=bigger;
+      }
+    }
+
+    private static int magnitude(int value) {
+      int abs=(value<0 ? -value : value);
+      int result=0;
+
+      while (abs!=0) {
+        result++;
+        abs>>=1;
+      }
+
+      return(result);
+    }
+  }
+
+  private static int extend(int value, int size) {
+    return(value<(1<<(size-1)) ? value-(1<<size)+1 : value);
+  }
+
+  private static int transposeIndex(int natural) {
+    return((natural%8)*8+natural/8);
+  }
+
+  private static int ceilDiv(int value, int divisor) {
+    return((value+divisor-1)/divisor);
+  }
+
+  private static int readUnsignedShort(byte[] buf, int pos) {
+    return(((buf[pos] & 0xFF)<<8)|(buf[pos+1] & 0xFF));
+  }
+
+  private static int readShort(byte[] buf, int pos,
+                               boolean littleEndian) {
+    if (littleEndian) {
+      return(((buf[pos+1] & 0xFF)<<8)|(buf[pos] & 0xFF));
+    }
+
+    return(readUnsignedShort(buf, pos));
+  }
+
+  private static int readInt(byte[] buf, int pos,
+                             boolean littleEndian) {
+    if (littleEndian) {
+      return(((buf[pos+3] & 0xFF)<<24)|((buf[pos+2] & 0xFF)<<16)|
+        ((buf[pos+1] & 0xFF)<<8)|(buf[pos] & 0xFF));
+    }
+
+    return(((buf[pos] & 0xFF)<<24)|((buf[pos+1] & 0xFF)<<16)|
+      ((buf[pos+2] & 0xFF)<<8)|(buf[pos+3] & 0xFF));
+  }
+}
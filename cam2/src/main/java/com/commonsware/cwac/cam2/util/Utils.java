@@ -25,9 +25,6 @@ import android.util.DisplayMetrics;
 import com.commonsware.cwac.cam2.CameraActivity;
 import com.commonsware.cwac.cam2.CameraDescriptor;
 import com.commonsware.cwac.cam2.VideoRecorderActivity;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 
 /**
@@ -148,12 +145,10 @@ public class Utils {
     return(result);
   }
 
-  // based on https://github.com/googlesamples/android-Camera2Basic/blob/master/Application/src/main/java/com/example/android/camera2basic/Camera2BasicFragment.java
-
   /**
    * Given {@code choices} of {@code Size}s supported by a camera, chooses the smallest one whose
    * width and height are at least as large as the respective requested values, and whose aspect
-   * ratio matches with the specified value.
+   * ratio matches with the specified value. See SizeChooser.
    *
    * @param choices     The list of sizes that the camera supports for the intended output class
    * @param width       The minimum desired width
@@ -162,34 +157,6 @@ public class Utils {
    * @return The optimal {@code Size}, or an arbitrary one if none were big enough
    */
   public static Size chooseOptimalSize(List<Size> choices, int width, int height, Size aspectRatio) {
-    // Collect the supported resolutions that are at least as big as the preview Surface
-    List<Size> bigEnough = new ArrayList<Size>();
-    int w = aspectRatio.getWidth();
-    int h = aspectRatio.getHeight();
-    for (Size option : choices) {
-      if (option.getHeight() == option.getWidth() * h / w &&
-          option.getWidth() >= width && option.getHeight() >= height) {
-        bigEnough.add(option);
-      }
-    }
-
-    // Pick the smallest of those, assuming we found any
-    if (bigEnough.size() > 0) {
-      return Collections.min(bigEnough, new CompareSizesByArea());
-    } else {
-//      Log.e(TAG, "Couldn't find any suitable preview size");
-      return Collections.max(choices, new CompareSizesByArea());
-    }
-  }
-
-  static class CompareSizesByArea implements Comparator<Size> {
-
-    @Override
-    public int compare(Size lhs, Size rhs) {
-      // We cast here to ensure the multiplications won't overflow
-      return Long.signum((long) lhs.getWidth() * lhs.getHeight() -
-          (long) rhs.getWidth() * rhs.getHeight());
-    }
-
+    return(SizeChooser.chooseOptimalSize(choices, width, height, aspectRatio));
   }
 }
@@ -0,0 +1,170 @@
+/***
+ Copyright (c) 2017 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.commonsware.cwac.cam2.util.yuv;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs a RowKernel across a fixed set of threads, splitting the
+ * rows into one band per thread. The calling thread handles the
+ * first band itself. The worker threads are created up front and
+ * reused, so run() does not allocate.
+ *
+ * One ParallelRows can be shared by several converters, but only
+ * one run() happens at a time.
+ */
+public class ParallelRows {
+  private final Worker[] workers;
+  private final Semaphore done=new Semaphore(0);
+  private RowKernel kernel;
+  private int rows;
+  private int bands;
+  private volatile Throwable failure;
+  private volatile boolean isShutdown=false;
+
+  /**
+   * Constructor.
+   *
+   * @param threadCount total number of threads to use, including
+   *                    the one calling run()
+   */
+  public ParallelRows(int threadCount) {
+    if (threadCount<1) {
+      throw new IllegalArgumentException("threadCount must be at least 1");
+    }
+
+    workers=new Worker[threadCount-1];
+
+    for (int i=0; i<workers.length; i++) {
+      workers[i]=new Worker(i+1);
+      workers[i].start();
+    }
+  }
+
+  /**
+   * @return a ParallelRows using one thread per available CPU
+   */
+  public static ParallelRows forAvailableProcessors() {
+    return(new ParallelRows(Runtime.getRuntime().availableProcessors()));
+  }
+
+  /**
+   * @return the total number of threads used by run()
+   */
+  public int getThreadCount() {
+    return(workers.length+1);
+  }
+
+  /**
+   * Runs the kernel over rows 0 (inclusive) to rows (exclusive),
+   * returning when all bands are done.
+   *
+   * @param rows the number of rows
+   * @param kernel the work to do
+   */
+  public synchronized void run(int rows, RowKernel kernel) {
+    if (isShutdown) {
+      throw new IllegalStateException("ParallelRows has been shut down");
+    }
+
+    int bands=Math.min(workers.length+1, rows);
+
+    if (bands<=1) {
+      kernel.run(0, rows);
+
+      return;
+    }
+
+    this.kernel=kernel;
+    this.rows=rows;
+    this.bands=bands;
+    failure=null;
+
+    for (int i=1; i<bands; i++) {
+      workers[i-1].go.release();
+    }
+
+    try {
+      runBand(0);
+    }
+    finally {
+      done.acquireUninterruptibly(bands-1);
+      this.kernel=null;
+    }
+
+    Throwable t=failure;
+
+    if (t!=null) {
+      failure=null;
+
+      if (t instanceof RuntimeException) {
+        throw (RuntimeException)t;
+      }
+
+      throw new RuntimeException(t);
+    }
+  }
+
+  /**
+   * Stops the worker threads. The ParallelRows cannot be used
+   * after this.
+   */
+  public void shutdown() {
+    isShutdown=true;
+
+    for (Worker worker : workers) {
+      worker.go.release();
+    }
+  }
+
+  private void runBand(int band) {
+    int start=(int)((long)rows*band/bands);
+    int end=(int)((long)rows*(band+1)/bands);
+
+    kernel.run(start, end);
+  }
+
+  private class Worker extends Thread {
+    private final int band;
+    private final Semaphore go=new Semaphore(0);
+
+    Worker(int band) {
+      super("CWAC-Cam2-ParallelRows-"+band);
+      this.band=band;
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        go.acquireUninterruptibly();
+
+        if (isShutdown) {
+          return;
+        }
+
+        try {
+          runBand(band);
+        }
+        catch (Throwable t) {
+          failure=t;
+        }
+        finally {
+          done.release();
+        }
+      }
+    }
+  }
+}
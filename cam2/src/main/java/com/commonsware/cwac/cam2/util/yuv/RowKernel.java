@@ -0,0 +1,30 @@
+/***
+ Copyright (c) 2017 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.commonsware.cwac.cam2.util.yuv;
+
+/**
+ * A unit of work that can be split up by rows, for use with
+ * ParallelRows.
+ */
+public interface RowKernel {
+  /**
+   * Process a band of rows. May be called on several threads
+   * at once, for non-overlapping bands.
+   *
+   * @param start the first row to process
+   * @param end one past the last row to process
+   */
+  void run(int start, int end);
+}
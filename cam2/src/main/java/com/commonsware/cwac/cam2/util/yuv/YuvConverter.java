@@ -0,0 +1,151 @@
+/***
+ Copyright (c) 2017 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.commonsware.cwac.cam2.util.yuv;
+
+/**
+ * Converts NV21 or I420 frames to ARGB_8888 pixels (as used by
+ * Bitmap.setPixels()), using BT.601 limited-range coefficients
+ * in fixed-point arithmetic. Output goes into a caller-supplied
+ * int[], and nothing is allocated per call.
+ *
+ * Instances are not thread-safe; use one per thread, or
+ * synchronize access.
+ */
+public class YuvConverter {
+  private final ParallelRows parallel;
+  private final ToArgbKernel toArgb=new ToArgbKernel();
+
+  /**
+   * Constructor.
+   *
+   * @param parallel threads to spread the work across, or null
+   *                 to do all work on the calling thread
+   */
+  public YuvConverter(ParallelRows parallel) {
+    this.parallel=parallel;
+  }
+
+  /**
+   * Converts a frame to ARGB.
+   *
+   * @param format the layout of src
+   * @param src the YUV frame
+   * @param width the width of the frame, which must be even
+   * @param height the height of the frame, which must be even
+   * @param argb where to put the pixels, at least width*height
+   *             in length, in row-major order
+   */
+  public void toArgb(YuvFormat format, byte[] src, int width,
+                     int height, int[] argb) {
+    YuvFormat.checkSize(width, height);
+    format.checkBuffer(src, width, height, "src");
+
+    if (argb==null || argb.length<width*height) {
+      throw new IllegalArgumentException("argb is too small");
+    }
+
+    toArgb.format=format;
+    toArgb.src=src;
+    toArgb.width=width;
+    toArgb.height=height;
+    toArgb.argb=argb;
+
+    try {
+      run(height/2, toArgb);
+    }
+    finally {
+      toArgb.src=null;
+      toArgb.argb=null;
+    }
+  }
+
+  private void run(int rows, RowKernel kernel) {
+    if (parallel==null) {
+      kernel.run(0, rows);
+    }
+    else {
+      parallel.run(rows, kernel);
+    }
+  }
+
+  static int toArgb(int y, int u, int v) {
+    int luma=(y-16)*1192;
+
+    if (luma<0) {
+      luma=0;
+    }
+
+    u-=128;
+    v-=128;
+
+    int r=(luma+1634*v)>>10;
+    int g=(luma-833*v-400*u)>>10;
+    int b=(luma+2066*u)>>10;
+
+    r=(r<0 ? 0 : (r>255 ? 255 : r));
+    g=(g<0 ? 0 : (g>255 ? 255 : g));
+    b=(b<0 ? 0 : (b>255 ? 255 : b));
+
+    return(0xFF000000 | (r<<16) | (g<<8) | b);
+  }
+
+  /**
+   * Converts pairs of rows, one chroma row at a time.
+   */
+  private static class ToArgbKernel implements RowKernel {
+    YuvFormat format;
+    byte[] src;
+    int width;
+    int height;
+    int[] argb;
+
+    @Override
+    public void run(int start, int end) {
+      int frameSize=width*height;
+      int chromaWidth=width/2;
+
+      for (int chromaRow=start; chromaRow<end; chromaRow++) {
+        int y0=chromaRow*2*width;
+        int y1=y0+width;
+        int uIndex;
+        int vIndex;
+        int chromaStep;
+
+        if (format==YuvFormat.NV21) {
+          vIndex=frameSize+chromaRow*width;
+          uIndex=vIndex+1;
+          chromaStep=2;
+        }
+        else {
+          uIndex=frameSize+chromaRow*chromaWidth;
+          vIndex=uIndex+frameSize/4;
+          chromaStep=1;
+        }
+
+        for (int x=0; x<width; x+=2) {
+          int u=src[uIndex]&0xFF;
+          int v=src[vIndex]&0xFF;
+
+          argb[y0+x]=toArgb(src[y0+x]&0xFF, u, v);
+          argb[y0+x+1]=toArgb(src[y0+x+1]&0xFF, u, v);
+          argb[y1+x]=toArgb(src[y1+x]&0xFF, u, v);
+          argb[y1+x+1]=toArgb(src[y1+x+1]&0xFF, u, v);
+          uIndex+=chromaStep;
+          vIndex+=chromaStep;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,54 @@
+/***
+ Copyright (c) 2017 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.commonsware.cwac.cam2.util.yuv;
+
+/**
+ * The 4:2:0 YUV layouts supported by YuvConverter and
+ * YuvTransformer. Both have a full-resolution Y plane followed
+ * by chroma at half resolution in each direction.
+ */
+public enum YuvFormat {
+  /**
+   * Y plane, then interleaved V and U samples (VUVU...), as
+   * delivered by the classic Camera API and PreviewFrame
+   */
+  NV21,
+
+  /**
+   * Y plane, then the U plane, then the V plane
+   */
+  I420;
+
+  /**
+   * @return the number of bytes needed for a frame of the given
+   * size in this format
+   */
+  public int getBufferSize(int width, int height) {
+    return(width*height+width*height/2);
+  }
+
+  static void checkSize(int width, int height) {
+    if (width<2 || height<2 || (width&1)!=0 || (height&1)!=0) {
+      throw new IllegalArgumentException(
+        "width and height must be positive and even");
+    }
+  }
+
+  void checkBuffer(byte[] buffer, int width, int height, String name) {
+    if (buffer==null || buffer.length<getBufferSize(width, height)) {
+      throw new IllegalArgumentException(name+" is too small");
+    }
+  }
+}
@@ -0,0 +1,307 @@
+/***
+ Copyright (c) 2017 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.commonsware.cwac.cam2.util.yuv;
+
+/**
+ * Rotates, crops, and downscales NV21 or I420 frames, writing
+ * into a caller-supplied byte[] in the same format. Nothing is
+ * allocated per call.
+ *
+ * Instances are not thread-safe; use one per thread, or
+ * synchronize access.
+ */
+public class YuvTransformer {
+  private final ParallelRows parallel;
+  private final RotateKernel rotate=new RotateKernel();
+  private final CropKernel crop=new CropKernel();
+  private final DownscaleKernel downscale=new DownscaleKernel();
+
+  /**
+   * Constructor.
+   *
+   * @param parallel threads to spread the work across, or null
+   *                 to do all work on the calling thread
+   */
+  public YuvTransformer(ParallelRows parallel) {
+    this.parallel=parallel;
+  }
+
+  /**
+   * Rotates a frame clockwise. For 90 and 270 degrees, the
+   * result is height pixels wide and width pixels tall.
+   *
+   * @param format the layout of src and dst
+   * @param src the frame to rotate
+   * @param width the width of src, which must be even
+   * @param height the height of src, which must be even
+   * @param degrees 0, 90, 180, or 270
+   * @param dst where to put the rotated frame; must not be src
+   */
+  public void rotate(YuvFormat format, byte[] src, int width,
+                     int height, int degrees, byte[] dst) {
+    if (degrees!=0 && degrees!=90 && degrees!=180 && degrees!=270) {
+      throw new IllegalArgumentException("degrees must be 0, 90, 180, or 270");
+    }
+
+    boolean isSwapped=(degrees==90 || degrees==270);
+
+    rotate.degrees=degrees;
+    transform(format, src, width, height, dst,
+      isSwapped ? height : width, isSwapped ? width : height, rotate);
+  }
+
+  /**
+   * Crops a frame to the given rectangle.
+   *
+   * @param format the layout of src and dst
+   * @param src the frame to crop
+   * @param width the width of src, which must be even
+   * @param height the height of src, which must be even
+   * @param left the left edge of the crop, which must be even
+   * @param top the top edge of the crop, which must be even
+   * @param cropWidth the width of the crop, which must be even
+   * @param cropHeight the height of the crop, which must be even
+   * @param dst where to put the cropped frame; must not be src
+   */
+  public void crop(YuvFormat format, byte[] src, int width,
+                   int height, int left, int top, int cropWidth,
+                   int cropHeight, byte[] dst) {
+    if (left<0 || top<0 || (left&1)!=0 || (top&1)!=0 ||
+      left+cropWidth>width || top+cropHeight>height) {
+      throw new IllegalArgumentException(
+        "crop must be within the frame and start on even coordinates");
+    }
+
+    crop.left=left;
+    crop.top=top;
+    transform(format, src, width, height, dst, cropWidth, cropHeight,
+      crop);
+  }
+
+  /**
+   * Shrinks a frame by an integer factor, averaging each
+   * factor-by-factor box of pixels. The result is
+   * getDownscaledSize(width, factor) by
+   * getDownscaledSize(height, factor); any leftover pixels on
+   * the right and bottom edges are ignored.
+   *
+   * @param format the layout of src and dst
+   * @param src the frame to shrink
+   * @param width the width of src, which must be even
+   * @param height the height of src, which must be even
+   * @param factor how much to shrink by (e.g., 2 for half size)
+   * @param dst where to put the shrunken frame; must not be src
+   */
+  public void downscale(YuvFormat format, byte[] src, int width,
+                        int height, int factor, byte[] dst) {
+    if (factor<1) {
+      throw new IllegalArgumentException("factor must be at least 1");
+    }
+
+    downscale.factor=factor;
+    transform(format, src, width, height, dst,
+      getDownscaledSize(width, factor),
+      getDownscaledSize(height, factor), downscale);
+  }
+
+  /**
+   * @return the width or height that downscale() produces for a
+   * given width or height and factor (rounded down to be even)
+   */
+  public static int getDownscaledSize(int size, int factor) {
+    return((size/factor)&~1);
+  }
+
+  private void transform(YuvFormat format, byte[] src, int width,
+                         int height, byte[] dst, int dstWidth,
+                         int dstHeight, PlaneKernel kernel) {
+    YuvFormat.checkSize(width, height);
+    YuvFormat.checkSize(dstWidth, dstHeight);
+    format.checkBuffer(src, width, height, "src");
+    format.checkBuffer(dst, dstWidth, dstHeight, "dst");
+
+    if (src==dst) {
+      throw new IllegalArgumentException("src and dst must be different arrays");
+    }
+
+    kernel.src=src;
+    kernel.dst=dst;
+
+    try {
+      int srcFrame=width*height;
+      int dstFrame=dstWidth*dstHeight;
+
+      runPlane(kernel, 0, width, height, 0, dstWidth, dstHeight, 1, 1);
+
+      if (format==YuvFormat.NV21) {
+        runPlane(kernel, srcFrame, width/2, height/2, dstFrame,
+          dstWidth/2, dstHeight/2, 2, 2);
+      }
+      else {
+        runPlane(kernel, srcFrame, width/2, height/2, dstFrame,
+          dstWidth/2, dstHeight/2, 1, 2);
+        runPlane(kernel, srcFrame+srcFrame/4, width/2, height/2,
+          dstFrame+dstFrame/4, dstWidth/2, dstHeight/2, 1, 2);
+      }
+    }
+    finally {
+      kernel.src=null;
+      kernel.dst=null;
+    }
+  }
+
+  private void runPlane(PlaneKernel kernel, int srcOffset, int srcWidth,
+                        int srcHeight, int dstOffset, int dstWidth,
+                        int dstHeight, int pixelBytes, int subsampling) {
+    kernel.srcOffset=srcOffset;
+    kernel.srcWidth=srcWidth;
+    kernel.srcHeight=srcHeight;
+    kernel.dstOffset=dstOffset;
+    kernel.dstWidth=dstWidth;
+    kernel.dstHeight=dstHeight;
+    kernel.pixelBytes=pixelBytes;
+    kernel.subsampling=subsampling;
+
+    if (parallel==null) {
+      kernel.run(0, dstHeight);
+    }
+    else {
+      parallel.run(dstHeight, kernel);
+    }
+  }
+
+  /**
+   * Works on one plane at a time, one destination row at a time.
+   * Sizes are in pixels of the plane; each pixel is pixelBytes
+   * wide (2 for the interleaved NV21 chroma plane).
+   */
+  private abstract static class PlaneKernel implements RowKernel {
+    byte[] src;
+    byte[] dst;
+    int srcOffset;
+    int srcWidth;
+    int srcHeight;
+    int dstOffset;
+    int dstWidth;
+    int dstHeight;
+    int pixelBytes;
+    int subsampling;
+  }
+
+  private static class RotateKernel extends PlaneKernel {
+    int degrees;
+
+    @Override
+    public void run(int start, int end) {
+      for (int row=start; row<end; row++) {
+        int d=dstOffset+row*dstWidth*pixelBytes;
+
+        if (degrees==0) {
+          System.arraycopy(src, srcOffset+row*srcWidth*pixelBytes, dst,
+            d, dstWidth*pixelBytes);
+          continue;
+        }
+
+        int s;
+        int step;
+
+        if (degrees==90) {
+          // dst row is src column "row", read bottom to top
+          s=srcOffset+((srcHeight-1)*srcWidth+row)*pixelBytes;
+          step=-srcWidth*pixelBytes;
+        }
+        else if (degrees==180) {
+          // dst row is src row "srcHeight-1-row", read right to left
+          s=srcOffset+((srcHeight-1-row)*srcWidth+srcWidth-1)*pixelBytes;
+          step=-pixelBytes;
+        }
+        else {
+          // dst row is src column "srcWidth-1-row", read top to bottom
+          s=srcOffset+(srcWidth-1-row)*pixelBytes;
+          step=srcWidth*pixelBytes;
+        }
+
+        if (pixelBytes==1) {
+          for (int col=0; col<dstWidth; col++) {
+            dst[d++]=src[s];
+            s+=step;
+          }
+        }
+        else {
+          for (int col=0; col<dstWidth; col++) {
+            dst[d++]=src[s];
+            dst[d++]=src[s+1];
+            s+=step;
+          }
+        }
+      }
+    }
+  }
+
+  private static class CropKernel extends PlaneKernel {
+    int left;
+    int top;
+
+    @Override
+    public void run(int start, int end) {
+      int planeLeft=left/subsampling;
+      int planeTop=top/subsampling;
+      int rowBytes=dstWidth*pixelBytes;
+
+      for (int row=start; row<end; row++) {
+        System.arraycopy(src,
+          srcOffset+((planeTop+row)*srcWidth+planeLeft)*pixelBytes,
+          dst, dstOffset+row*rowBytes, rowBytes);
+      }
+    }
+  }
+
+  private static class DownscaleKernel extends PlaneKernel {
+    int factor;
+
+    @Override
+    public void run(int start, int end) {
+      int area=factor*factor;
+      int srcRowBytes=srcWidth*pixelBytes;
+
+      for (int row=start; row<end; row++) {
+        int d=dstOffset+row*dstWidth*pixelBytes;
+        int top=srcOffset+row*factor*srcRowBytes;
+
+        for (int col=0; col<dstWidth; col++) {
+          int left=top+col*factor*pixelBytes;
+
+          for (int channel=0; channel<pixelBytes; channel++) {
+            int sum=0;
+            int s=left+channel;
+
+            for (int y=0; y<factor; y++) {
+              int p=s;
+
+              for (int x=0; x<factor; x++) {
+                sum+=src[p]&0xFF;
+                p+=pixelBytes;
+              }
+
+              s+=srcRowBytes;
+            }
+
+            dst[d++]=(byte)((sum+area/2)/area);
+          }
+        }
+      }
+    }
+  }
+}